@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) [2018] [Seung Hwan, Jin]
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. 
+ */
+
+package com.jdev.apns.benchmark;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jdev.apns.main.Notification;
+import com.jdev.apns.main.impl.ApnsServiceBuilder;
+import com.jdev.apns.main.mock.MockApnsServer;
+import com.jdev.apns.main.model.BatchResponse;
+import com.jdev.apns.main.util.PayloadBuilder;
+
+/**
+ * Measures sending batches through the whole send path
+ * to a MockApnsServer on the loopback address
+ * 
+ * @author seunghwanjin
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class EndToEndBenchmark {
+	
+	@Param({"1", "100"})
+	private int batchSize;
+	
+	private MockApnsServer server;
+	private ApnsServiceBuilder service;
+	private List<Notification> batch;
+	
+	@Setup
+	public void setUp() throws IOException, GeneralSecurityException {
+		server = new MockApnsServer().start();
+		service = new ApnsServiceBuilder()
+				.setApnsHost(server.getHost(), server.getPort())
+				.setSSLContext(server.newClientContext())
+				.setRetryPolicy(null);
+		service.warmUp().join();
+		
+		final byte[] payload = new PayloadBuilder()
+				.setAlertBody("Your order has shipped", false).buildBytes();
+		batch = new ArrayList<>(batchSize);
+		for (int i = 0; i < batchSize; i++) {
+			batch.add(new Notification(payload)
+					.setToken(String.format("%064x", i))
+					.setTopic("com.example.app"));
+		}
+	}
+	
+	@TearDown
+	public void tearDown() {
+		service.close();
+		server.close();
+	}
+	
+	@Benchmark
+	@Threads(4)
+	public BatchResponse sendNotifications() {
+		return service.sendNotifications(batch).join();
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) [2018] [Seung Hwan, Jin]
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. 
+ */
+
+package com.jdev.apns.benchmark;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jdev.apns.main.util.JWT;
+import com.jdev.apns.main.util.TokenProvider;
+
+/**
+ * Measures signing a token against reading the token cached by TokenProvider
+ * 
+ * @author seunghwanjin
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JwtBenchmark {
+	
+	private PrivateKey privateKey;
+	private TokenProvider tokenProvider;
+	
+	@Setup
+	public void setUp() throws IOException, GeneralSecurityException {
+		privateKey = BenchmarkKeys.newPrivateKey();
+		tokenProvider = new TokenProvider(BenchmarkKeys.KEY_ID, BenchmarkKeys.TEAM_ID, 
+				BenchmarkKeys.newKeyFile().toString(), 30 * 60 * 1000);
+	}
+	
+	@TearDown
+	public void tearDown() {
+		tokenProvider.close();
+	}
+	
+	@Benchmark
+	public String generateToken() throws GeneralSecurityException {
+		return JWT.generateToken(BenchmarkKeys.KEY_ID, BenchmarkKeys.TEAM_ID, 
+				privateKey, System.currentTimeMillis() / 1000);
+	}
+	
+	@Benchmark
+	public String cachedToken() {
+		return tokenProvider.getAuthorizationHeader();
+	}
+}
@@ -0,0 +1,398 @@
+/*
+ * Copyright (c) [2018] [Seung Hwan, Jin]
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. 
+ */
+
+package com.jdev.apns.benchmark;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import com.jdev.apns.main.Notification;
+import com.jdev.apns.main.impl.ApnsServiceBuilder;
+import com.jdev.apns.main.metrics.LatencyHistogram;
+import com.jdev.apns.main.mock.MockApnsServer;
+import com.jdev.apns.main.model.BatchResponse;
+import com.jdev.apns.main.model.NotificationResponse;
+import com.jdev.apns.main.util.PayloadBuilder;
+
+/**
+ * Drives load through ApnsServiceBuilder and reports throughput,
+ * latency percentiles, outcomes and GC activity.
+ * 
+ * With --rate the load is open-loop: notifications are sent on a fixed schedule
+ * whether or not earlier ones completed, and latency is measured from the scheduled time,
+ * so a stalled sender shows up in the percentiles instead of hiding as a lower rate.
+ * With --concurrency the load is closed-loop: every worker sends its next notification
+ * when the previous one completes.
+ * GC figures are the collection counts and times of the GarbageCollectorMXBeans
+ * during the measurement; for stop-the-world collections this is pause time.
+ * 
+ * <pre>
+ * java -cp target/benchmarks.jar com.jdev.apns.benchmark.LoadGenerator --rate 20000 --duration 60
+ * </pre>
+ * 
+ * @author seunghwanjin
+ */
+public class LoadGenerator {
+	
+	private static final String USAGE = String.join(System.lineSeparator(),
+			"Usage: LoadGenerator [options]",
+			"  --target mock|development|production|host:port  (default mock, an in-process MockApnsServer)",
+			"  --rate <notifications per second>                open-loop load",
+			"  --concurrency <notifications in flight>          closed-loop load (default 100)",
+			"  --duration <seconds>                             measured time (default 30)",
+			"  --warmup <seconds>                               load before measuring (default 5)",
+			"  --report <seconds>                               progress interval (default 5)",
+			"  --payload-size <bytes>                           (default 256)",
+			"  --tokens <count>                                 distinct device tokens (default 10000)",
+			"  --topic <bundle id>                              (default com.example.app)",
+			"  --pool-size <connections>                        ApnsServiceBuilder.setPoolSize",
+			"  --streams <streams per connection>               ApnsServiceBuilder.setMaxConcurrentStreams",
+			"  --key <.p8 file> --key-id <id> --team-id <id>    token authentication",
+			"  --mock-latency <median ms>,<p99 ms>              log-normal latency of the mock",
+			"  --mock-fault <status>:<reason>:<probability>     fault of the mock, repeatable");
+	
+	private final Map<String, List<String>> options;
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private final Map<String, LongAdder> outcomes = new ConcurrentHashMap<>();
+	private final LongAdder completed = new LongAdder();
+	private final LatencyHistogram intervalLatency = new LatencyHistogram();
+	private final LongAdder intervalCompleted = new LongAdder();
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private volatile long lastCompleted;
+	
+	private ApnsServiceBuilder service;
+	private MockApnsServer server;
+	private byte[] payload;
+	private String[] tokens;
+	private String topic;
+	
+	/**
+	 * Notifications scheduled before this System.nanoTime() are warm-up and not recorded
+	 */
+	private long measureFrom;
+	private long measureUntil;
+	
+	private LoadGenerator(Map<String, List<String>> options) {
+		this.options = options;
+	}
+	
+	public static void main(String[] args) 
+			throws IOException, GeneralSecurityException, InterruptedException {
+		final Map<String, List<String>> options = new HashMap<>();
+		for (int i = 0; i < args.length; i++) {
+			if (!args[i].startsWith("--") || i + 1 == args.length) {
+				System.err.println(USAGE);
+				System.exit(args[i].equals("--help") ? 0 : 2);
+			}
+			options.computeIfAbsent(args[i].substring(2), key -> new ArrayList<>()).add(args[++i]);
+		}
+		if (options.containsKey("rate") && options.containsKey("concurrency")) {
+			System.err.println("--rate and --concurrency cannot be combined");
+			System.exit(2);
+		}
+		new LoadGenerator(options).run();
+	}
+	
+	private String get(String name, String defaultValue) {
+		final List<String> values = options.get(name);
+		return values == null ? defaultValue : values.get(values.size() - 1);
+	}
+	
+	private int getInt(String name, int defaultValue) {
+		return Integer.parseInt(get(name, String.valueOf(defaultValue)));
+	}
+	
+	private void run() throws IOException, GeneralSecurityException, InterruptedException {
+		setUp();
+		try {
+			//connections are opened before the clock starts, as at a warmed-up deploy
+			service.warmUp().join();
+			final long start = System.nanoTime();
+			measureFrom = start + TimeUnit.SECONDS.toNanos(getInt("warmup", 5));
+			measureUntil = measureFrom + TimeUnit.SECONDS.toNanos(getInt("duration", 30));
+			
+			final Map<String, long[]> gcBefore = new HashMap<>();
+			final Map<String, long[]> gcAfter = new HashMap<>();
+			final Thread reporter = new Thread(() -> report(start, gcBefore, gcAfter), "load-reporter");
+			reporter.setDaemon(true);
+			reporter.start();
+			
+			if (options.containsKey("rate")) {
+				final int rate = getInt("rate", 0);
+				System.out.println("Open-loop load of " + rate + " notifications/s");
+				runOpenLoop(rate, start);
+			} else {
+				final int concurrency = getInt("concurrency", 100);
+				System.out.println("Closed-loop load of " + concurrency + " notifications in flight");
+				runClosedLoop(concurrency, start);
+			}
+			reporter.join();
+			awaitInFlight();
+			printSummary(gcBefore, gcAfter);
+		} finally {
+			if (service != null) {
+				service.close();
+			}
+			if (server != null) {
+				server.close();
+			}
+		}
+	}
+	
+	private void setUp() throws IOException, GeneralSecurityException {
+		service = new ApnsServiceBuilder().setRetryPolicy(null);
+		final String target = get("target", "mock");
+		if (target.equals("mock")) {
+			server = new MockApnsServer();
+			if (options.containsKey("mock-latency")) {
+				final String[] latencies = get("mock-latency", null).split(",");
+				server.setLogNormalLatency(Duration.ofMillis(Long.parseLong(latencies[0])), 
+						Duration.ofMillis(Long.parseLong(latencies[1])));
+			}
+			for (String fault : options.getOrDefault("mock-fault", Collections.emptyList())) {
+				final String[] parts = fault.split(":");
+				server.addFault(Integer.parseInt(parts[0]), parts[1], Double.parseDouble(parts[2]));
+			}
+			server.start();
+			service.setApnsHost(server.getHost(), server.getPort())
+				.setSSLContext(server.newClientContext());
+		} else if (target.equals("development") || target.equals("production")) {
+			service.setDevelopment(target.equals("development"));
+		} else {
+			final int colon = target.lastIndexOf(':');
+			service.setApnsHost(target.substring(0, colon), Integer.parseInt(target.substring(colon + 1)));
+		}
+		
+		if (options.containsKey("key")) {
+			service.authenticateWithToken(get("key-id", null), get("team-id", null), get("key", null));
+		} else if (server == null) {
+			throw new IllegalArgumentException("--key, --key-id and --team-id are required for " + target);
+		}
+		if (options.containsKey("pool-size")) {
+			service.setPoolSize(getInt("pool-size", 0));
+		}
+		if (options.containsKey("streams")) {
+			service.setMaxConcurrentStreams(getInt("streams", 0));
+		}
+		
+		topic = get("topic", "com.example.app");
+		payload = newPayload(getInt("payload-size", 256));
+		tokens = new String[getInt("tokens", 10000)];
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		for (int i = 0; i < tokens.length; i++) {
+			tokens[i] = String.format("%016x%016x%016x%016x", 
+					random.nextLong(), random.nextLong(), random.nextLong(), (long) i);
+		}
+	}
+	
+	/**
+	 * @param size
+	 * @return payload of about the given size, padded in the alert body
+	 */
+	private static byte[] newPayload(int size) {
+		final int overhead = new PayloadBuilder().setAlertBody("", false).buildBytes().length;
+		final char[] body = new char[Math.max(size - overhead, 0)];
+		Arrays.fill(body, 'x');
+		return new PayloadBuilder().setAlertBody(new String(body), false).buildBytes();
+	}
+	
+	/**
+	 * Sends rate notifications per second on a fixed schedule.
+	 * The sending thread does not wait for responses, only for free streams
+	 * @param rate
+	 * @param start
+	 */
+	private void runOpenLoop(int rate, long start) {
+		final double interval = (double) TimeUnit.SECONDS.toNanos(1) / rate;
+		long scheduled = start;
+		for (long i = 0; scheduled < measureUntil; scheduled = start + (long) (++i * interval)) {
+			final long wait = scheduled - System.nanoTime();
+			if (wait > 0) {
+				LockSupport.parkNanos(wait);
+			}
+			send(i, scheduled);
+		}
+	}
+	
+	/**
+	 * Keeps concurrency notifications in flight; each worker sends
+	 * its next notification when the previous one completed
+	 * @param concurrency
+	 * @param start
+	 * @throws InterruptedException
+	 */
+	private void runClosedLoop(int concurrency, long start) throws InterruptedException {
+		final AtomicLong sequence = new AtomicLong();
+		final List<Thread> workers = new ArrayList<>(concurrency);
+		for (int i = 0; i < concurrency; i++) {
+			final Thread worker = new Thread(() -> {
+				long now;
+				while ((now = System.nanoTime()) < measureUntil) {
+					send(sequence.getAndIncrement(), now).join();
+				}
+			}, "load-worker-" + i);
+			worker.setDaemon(true);
+			workers.add(worker);
+			worker.start();
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+	}
+	
+	/**
+	 * Sends one notification as a batch of one and records its outcome
+	 * @param sequence picks the device token
+	 * @param scheduled System.nanoTime() latency is measured from
+	 * @return CompletableFuture<BatchResponse>
+	 */
+	private CompletableFuture<BatchResponse> send(long sequence, long scheduled) {
+		final Notification notification = new Notification(payload)
+				.setToken(tokens[(int) (sequence % tokens.length)])
+				.setTopic(topic);
+		inFlight.incrementAndGet();
+		return service.sendNotifications(Collections.singletonList(notification))
+				.whenComplete((batch, error) -> {
+					inFlight.decrementAndGet();
+					intervalLatency.recordSince(scheduled);
+					intervalCompleted.increment();
+					if (scheduled >= measureFrom) {
+						lastCompleted = System.nanoTime();
+						latency.recordSince(scheduled);
+						completed.increment();
+						outcomes.computeIfAbsent(outcome(batch, error), key -> new LongAdder()).increment();
+					}
+				});
+	}
+	
+	private static String outcome(BatchResponse batch, Throwable error) {
+		if (error != null) {
+			return error.getClass().getSimpleName();
+		}
+		final NotificationResponse failure = batch.getFailure(0);
+		if (failure == null) {
+			return String.valueOf(batch.getHttpStatusCode(0));
+		} else if (failure.isDispatched()) {
+			return failure.getHttpStatusCode() + " " + failure.getReason();
+		} else {
+			return failure.getCause() == null ? "Failed" : failure.getCause().getClass().getSimpleName();
+		}
+	}
+	
+	/**
+	 * Prints progress every --report seconds and snapshots GC counters
+	 * at the start and end of the measurement
+	 */
+	private void report(long start, Map<String, long[]> gcBefore, Map<String, long[]> gcAfter) {
+		final long interval = TimeUnit.SECONDS.toNanos(Math.max(getInt("report", 5), 1));
+		boolean isMeasuring = false;
+		long previous = start;
+		for (long next = start + interval; ; next += interval) {
+			final long until = Math.min(next, measureUntil);
+			if (!isMeasuring && measureFrom <= until) {
+				LockSupport.parkNanos(measureFrom - System.nanoTime());
+				gcBefore.putAll(collectGc());
+				isMeasuring = true;
+			}
+			LockSupport.parkNanos(until - System.nanoTime());
+			System.out.printf("%5d s %s %10.0f/s  in flight %6d  p50 %8.2f ms  p99 %8.2f ms%n", 
+					TimeUnit.NANOSECONDS.toSeconds(until - start), until <= measureFrom ? "warm-up" : "       ", 
+					intervalCompleted.sumThenReset() * 1e9 / (until - previous), inFlight.get(), 
+					intervalLatency.getPercentile(50) / 1000.0, intervalLatency.getPercentile(99) / 1000.0);
+			intervalLatency.reset();
+			previous = until;
+			if (until == measureUntil) {
+				gcAfter.putAll(collectGc());
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * @return collection count and time in milliseconds by collector name
+	 */
+	private static Map<String, long[]> collectGc() {
+		final Map<String, long[]> gc = new TreeMap<>();
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			gc.put(collector.getName(), new long[] {collector.getCollectionCount(), collector.getCollectionTime()});
+		}
+		return gc;
+	}
+	
+	/**
+	 * Waits up to a minute for notifications still in flight after the measurement
+	 */
+	private void awaitInFlight() {
+		final long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+		while (inFlight.get() > 0 && System.nanoTime() < deadline) {
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+		}
+		if (inFlight.get() > 0) {
+			System.out.println(inFlight.get() + " notifications did not complete");
+		}
+	}
+	
+	private void printSummary(Map<String, long[]> gcBefore, Map<String, long[]> gcAfter) {
+		//notifications sent at the end of the measurement may complete after it
+		final double seconds = (Math.max(lastCompleted, measureUntil) - measureFrom) / 1e9;
+		System.out.println();
+		System.out.printf("Completed   %d notifications in %.1f s, %.0f/s%n", 
+				completed.sum(), seconds, completed.sum() / seconds);
+		System.out.printf("Latency     p50 %.2f ms  p99 %.2f ms  p99.9 %.2f ms  max %.2f ms  mean %.2f ms%n", 
+				latency.getPercentile(50) / 1000.0, latency.getPercentile(99) / 1000.0, 
+				latency.getPercentile(99.9) / 1000.0, latency.getMax() / 1000.0, latency.getMean() / 1000.0);
+		
+		final StringBuilder breakdown = new StringBuilder();
+		new TreeMap<>(outcomes).forEach((outcome, count) -> 
+			breakdown.append(breakdown.length() == 0 ? "" : ", ").append(outcome).append(": ").append(count.sum()));
+		System.out.println("Outcomes    " + breakdown);
+		
+		long pauseMillis = 0;
+		for (Map.Entry<String, long[]> entry : gcAfter.entrySet()) {
+			final long[] before = gcBefore.getOrDefault(entry.getKey(), new long[2]);
+			final long count = entry.getValue()[0] - before[0];
+			final long millis = entry.getValue()[1] - before[1];
+			pauseMillis += millis;
+			System.out.printf("GC          %s: %d collections, %d ms%n", entry.getKey(), count, millis);
+		}
+		System.out.printf("GC total    %d ms, %.2f%% of the measured time%n", 
+				pauseMillis, pauseMillis / ((measureUntil - measureFrom) / 1e6) * 100);
+	}
+}
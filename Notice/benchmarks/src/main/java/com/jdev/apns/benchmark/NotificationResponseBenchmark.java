@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) [2018] [Seung Hwan, Jin]
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. 
+ */
+
+package com.jdev.apns.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jdev.apns.main.model.NotificationResponse;
+
+/**
+ * Measures turning APNs responses into NotificationResponse,
+ * for an accepted notification and for rejections with a JSON body
+ * 
+ * @author seunghwanjin
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NotificationResponseBenchmark {
+	
+	private static final String BAD_DEVICE_TOKEN = "{\"reason\":\"BadDeviceToken\"}";
+	private static final String UNREGISTERED = "{\"reason\":\"Unregistered\",\"timestamp\":1542672000000}";
+	
+	@Benchmark
+	public boolean accepted() {
+		final NotificationResponse response = new NotificationResponse(null);
+		response.setResult(200, "");
+		return response.isAccepted();
+	}
+	
+	@Benchmark
+	public String badDeviceToken() {
+		final NotificationResponse response = new NotificationResponse(null);
+		response.setResult(400, BAD_DEVICE_TOKEN);
+		return response.getSpecificFailureReason();
+	}
+	
+	@Benchmark
+	public String unregistered() {
+		final NotificationResponse response = new NotificationResponse(null);
+		response.setResult(410, UNREGISTERED);
+		return response.getReason() + response.getTimeStamp();
+	}
+}
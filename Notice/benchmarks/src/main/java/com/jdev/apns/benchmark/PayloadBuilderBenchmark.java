@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) [2018] [Seung Hwan, Jin]
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. 
+ */
+
+package com.jdev.apns.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jdev.apns.main.util.PayloadBuilder;
+
+/**
+ * Measures building a payload with Gson and with the compact writer,
+ * with only aps keys and with custom data of several types
+ * 
+ * @author seunghwanjin
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PayloadBuilderBenchmark {
+	
+	private PayloadBuilder payload;
+	private PayloadBuilder payloadWithCustomData;
+	
+	@Setup
+	public void setUp() {
+		payload = newPayload();
+		payloadWithCustomData = newPayload()
+				.addCutomData("orderId", "20181120-000123")
+				.addCutomData("amount", 129000L)
+				.addCutomData("isGift", Boolean.TRUE)
+				.addCutomData("items", new String[] {"shirt", "shoes", "hat"});
+	}
+	
+	private static PayloadBuilder newPayload() {
+		return new PayloadBuilder()
+				.setAlertTitle("Your order has shipped")
+				.setAlertBody("It will arrive on Thursday, 22 November", true)
+				.setBadge(3)
+				.setSound(PayloadBuilder.DEFAULT_SOUND_FILENAME)
+				.setThreadId("orders");
+	}
+	
+	@Benchmark
+	public String build() {
+		return payload.build();
+	}
+	
+	@Benchmark
+	public String buildWithCustomData() {
+		return payloadWithCustomData.build();
+	}
+	
+	@Benchmark
+	public byte[] buildBytes() {
+		return payload.buildBytes();
+	}
+	
+	@Benchmark
+	public byte[] buildBytesWithCustomData() {
+		return payloadWithCustomData.buildBytes();
+	}
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) [2018] [Seung Hwan, Jin]
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. 
+ */
+
+package com.jdev.apns.benchmark;
+
+import java.io.IOException;
+import java.net.http.HttpRequest;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.jdev.apns.main.Constants;
+import com.jdev.apns.main.Notification;
+import com.jdev.apns.main.impl.RequestTemplate;
+import com.jdev.apns.main.util.TokenProvider;
+
+/**
+ * Measures assembling the HttpRequest and its headers for a notification,
+ * building the template per notification against reusing a cached template
+ * 
+ * @author seunghwanjin
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RequestBenchmark {
+	
+	private static final String BASE_URI = "https://" + Constants.APNS_HOST_DEVELOPMENT + "/3/device/";
+	
+	private static final String DEVICE_TOKEN = 
+			"5b1a9f2e4c6d8e0f1a3b5c7d9e1f3a5b7c9d1e3f5a7b9c1d3e5f7a9b1c3d5e7f";
+	
+	private static final Duration TIME_OUT = Duration.ofSeconds(15);
+	
+	private Notification notification;
+	private RequestTemplate template;
+	private TokenProvider tokenProvider;
+	
+	@Setup
+	public void setUp() throws IOException, GeneralSecurityException {
+		notification = new Notification("{\"aps\":{\"alert\":\"Your order has shipped\"}}")
+				.setToken(DEVICE_TOKEN)
+				.setTopic("com.example.app")
+				.setCollapseId("orders")
+				.setExpiration(3600)
+				.setUuid();
+		template = new RequestTemplate(BASE_URI, notification, TIME_OUT);
+		tokenProvider = new TokenProvider(BenchmarkKeys.KEY_ID, BenchmarkKeys.TEAM_ID, 
+				BenchmarkKeys.newKeyFile().toString(), 30 * 60 * 1000);
+	}
+	
+	@TearDown
+	public void tearDown() {
+		tokenProvider.close();
+	}
+	
+	@Benchmark
+	public HttpRequest newRequestWithNewTemplate() {
+		return new RequestTemplate(BASE_URI, notification, TIME_OUT).newRequest(DEVICE_TOKEN, null);
+	}
+	
+	@Benchmark
+	public HttpRequest newRequestFromTemplate() {
+		return template.newRequest(DEVICE_TOKEN, null);
+	}
+	
+	@Benchmark
+	public HttpRequest newRequestFromTemplateWithToken() {
+		return template.newRequest(DEVICE_TOKEN, tokenProvider.getAuthorizationHeader());
+	}
+}
@@ -22,18 +22,67 @@
 
 package com.jdev.apns.main;
 
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+import com.jdev.apns.main.model.BatchResponse;
+import com.jdev.apns.main.model.DrainReport;
+import com.jdev.apns.main.model.NotificationResponse;
+
 /**
  * ApnsService is the interface for APNs Service
  * which can send notification given proper notification
  *
  * @author seunghwanjin
  */
-public interface ApnsService {
+public interface ApnsService extends AutoCloseable {
 	
 	/**
 	 * This method sends notification 
+	 * The returned future always completes with a NotificationResponse;
+	 * check NotificationResponse.isDispatched() and isAccepted() for the outcome
 	 * @param notification
-	 * @return NotificationResponse
+	 * @return CompletableFuture<NotificationResponse>
+	 */
+	public CompletableFuture<NotificationResponse> sendNotification(Notification notification);
+	
+	/**
+	 * This method streams notifications through the connection pool.
+	 * Concurrent streams are capped per connection, so the calling thread
+	 * waits while every connection is busy instead of queueing the whole batch
+	 * @param notifications
+	 * @return CompletableFuture<BatchResponse> completed when every notification has a result
+	 */
+	public CompletableFuture<BatchResponse> sendNotifications(Iterable<Notification> notifications);
+	
+	/**
+	 * This method sends one notification to many device tokens.
+	 * The payload and the shared headers are built once; 
+	 * requests differ only in the device token of the path.
+	 * The token and apns-id of the notification are ignored.
+	 * Broadcasts are not written to a spool, which would keep the payload
+	 * once per device token; a broadcast cut off by a restart is sent again by the caller
+	 * @param notification payload and headers to send
+	 * @param deviceTokens
+	 * @return CompletableFuture<BatchResponse> indexed in the order of deviceTokens
+	 */
+	public CompletableFuture<BatchResponse> sendBroadcast(
+			Notification notification, Iterable<String> deviceTokens);
+	
+	/**
+	 * This method stops taking notifications and waits until every notification
+	 * already taken is finished or the timeout passes. Notifications still queued
+	 * or in flight at the deadline are abandoned; their futures complete with
+	 * a failed NotificationResponse. Executors, connections and files are then released
+	 * @param timeout
+	 * @return DrainReport of what finished and what was abandoned
+	 */
+	public DrainReport drain(Duration timeout);
+	
+	/**
+	 * This method drains the service with a default timeout
+	 * @see #drain(Duration)
 	 */
-	public void sendNotification(Notification notification);
+	@Override
+	public void close();
 }
@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) [2018] [Seung Hwan, Jin]
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. 
+ */
+
+package com.jdev.apns.main;
+
+import java.util.Arrays;
+
+/**
+ * DeviceToken is the canonical form of a device token.
+ * The hex string given by the app is validated once and its bytes are packed
+ * big-endian into longs, with the hash code computed up front.
+ * A 32-byte token takes 72 bytes on the heap instead of about 104
+ * for its 64-character String, and DeviceTokenSet and DeviceTokenLongMap
+ * store the packed words without any object per token.
+ * <p>
+ * Tokens compare equal regardless of the case of their hex digits;
+ * toString() always returns lower case.
+ * 
+ * @author seunghwanjin
+ */
+public final class DeviceToken {
+	/**
+	 * Length in bytes of the device tokens APNs issues today
+	 */
+	public static final int LENGTH = 32;
+	
+	/**
+	 * Longest token accepted, in bytes; APNs documents that token length may grow
+	 */
+	public static final int MAX_LENGTH = 100;
+	
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+	
+	private final long[] words;
+	private final int length;
+	private final int hash;
+	
+	private DeviceToken(long[] words, int length) {
+		this.words = words;
+		this.length = length;
+		this.hash = hash(words, length);
+	}
+	
+	/**
+	 * @param hex device token as sent by the app
+	 * @return DeviceToken
+	 * @throws IllegalArgumentException if the token is not an even number of hex digits
+	 * 			or longer than MAX_LENGTH bytes
+	 */
+	public static DeviceToken of(String hex) {
+		if (hex == null || hex.isEmpty() || hex.length() % 2 != 0 || hex.length() > MAX_LENGTH * 2) {
+			throw new IllegalArgumentException("Invalid device token length: " + hex);
+		}
+		
+		final int length = hex.length() / 2;
+		final long[] words = new long[(length + 7) >>> 3];
+		for (int i = 0; i < hex.length(); i++) {
+			final int digit = digit(hex.charAt(i));
+			if (digit < 0) {
+				throw new IllegalArgumentException("Invalid device token: " + hex);
+			}
+			words[i >>> 4] |= (long) digit << (60 - ((i & 15) << 2));
+		}
+		return new DeviceToken(words, length);
+	}
+	
+	/**
+	 * @param bytes raw device token
+	 * @return DeviceToken
+	 * @throws IllegalArgumentException if the token is empty or longer than MAX_LENGTH bytes
+	 */
+	public static DeviceToken of(byte[] bytes) {
+		if (bytes == null || bytes.length == 0 || bytes.length > MAX_LENGTH) {
+			throw new IllegalArgumentException("Invalid device token length: " 
+					+ (bytes == null ? null : bytes.length));
+		}
+		
+		final long[] words = new long[(bytes.length + 7) >>> 3];
+		for (int i = 0; i < bytes.length; i++) {
+			words[i >>> 3] |= (bytes[i] & 0xffL) << (56 - ((i & 7) << 3));
+		}
+		return new DeviceToken(words, bytes.length);
+	}
+	
+	/**
+	 * Creates a 32-byte token from its packed words, e.g. as stored by DeviceTokenSet
+	 * @return DeviceToken
+	 */
+	public static DeviceToken of(long word0, long word1, long word2, long word3) {
+		return new DeviceToken(new long[] {word0, word1, word2, word3}, LENGTH);
+	}
+	
+	private static int digit(char c) {
+		if (c >= '0' && c <= '9') {
+			return c - '0';
+		} else if (c >= 'a' && c <= 'f') {
+			return c - 'a' + 10;
+		} else if (c >= 'A' && c <= 'F') {
+			return c - 'A' + 10;
+		}
+		return -1;
+	}
+	
+	/**
+	 * Hash code of a 32-byte token from its packed words;
+	 * equal to hashCode() of the token
+	 * @return hash code
+	 */
+	public static int hash(long word0, long word1, long word2, long word3) {
+		long hash = LENGTH;
+		hash = (hash ^ word0) * 0x9e3779b97f4a7c15L;
+		hash = (hash ^ word1) * 0x9e3779b97f4a7c15L;
+		hash = (hash ^ word2) * 0x9e3779b97f4a7c15L;
+		hash = (hash ^ word3) * 0x9e3779b97f4a7c15L;
+		return (int) (hash ^ (hash >>> 32));
+	}
+	
+	private static int hash(long[] words, int length) {
+		if (length == LENGTH) {
+			return hash(words[0], words[1], words[2], words[3]);
+		}
+		long hash = length;
+		for (long word : words) {
+			hash = (hash ^ word) * 0x9e3779b97f4a7c15L;
+		}
+		return (int) (hash ^ (hash >>> 32));
+	}
+	
+	/**
+	 * @return length of the token in bytes
+	 */
+	public int length() {
+		return length;
+	}
+	
+	/**
+	 * @param index
+	 * @return eight bytes of the token starting at index * 8, big-endian,
+	 * 			padded with zero bytes after the end of the token
+	 */
+	public long getWord(int index) {
+		return words[index];
+	}
+	
+	/**
+	 * @return number of words holding the token
+	 */
+	public int getWordCount() {
+		return words.length;
+	}
+	
+	/**
+	 * @param index
+	 * @return byte of the token at index
+	 */
+	public byte getByte(int index) {
+		return (byte) (words[index >>> 3] >>> (56 - ((index & 7) << 3)));
+	}
+	
+	public byte[] toBytes() {
+		final byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = getByte(i);
+		}
+		return bytes;
+	}
+	
+	/**
+	 * Appends the token as lower case hex
+	 * @param builder
+	 * @return builder
+	 */
+	public StringBuilder appendTo(StringBuilder builder) {
+		for (int i = 0; i < length; i++) {
+			final int b = getByte(i) & 0xff;
+			builder.append(HEX[b >>> 4]).append(HEX[b & 0xf]);
+		}
+		return builder;
+	}
+	
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof DeviceToken)) {
+			return false;
+		}
+		final DeviceToken other = (DeviceToken) obj;
+		return hash == other.hash && length == other.length && Arrays.equals(words, other.words);
+	}
+	
+	/**
+	 * @return token as lower case hex
+	 */
+	@Override
+	public String toString() {
+		return appendTo(new StringBuilder(length * 2)).toString();
+	}
+}
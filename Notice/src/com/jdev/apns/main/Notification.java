@@ -29,7 +29,7 @@ import java.util.UUID;
  * payload for sending the request to APNs.
  * A Notification object includes:
  * <ul>
- * <li>payload: body data in JSON format</li>
+ * <li>payload: body data in JSON format, either as a String or as UTF-8 bytes</li>
  * <li>token: The provider token</li>
  * This is only necessary when provider certificate is not used
  * to establish a connection.
@@ -48,7 +48,14 @@ import java.util.UUID;
  */
 public class Notification {
 	private String payload;
+	
+	/**
+	 * Payload already encoded in UTF-8, e.g. by PayloadBuilder.buildBytes();
+	 * sent as is when set
+	 */
+	private byte[] payloadBytes;
 	private String token;
+	private DeviceToken deviceToken;
 	private UUID uuid;
 	private int expiration;
 	/**
@@ -66,21 +73,70 @@ public class Notification {
 		this.payload = payload;
 	}
 
+	/**
+	 * Constructor that takes valid payload encoded in UTF-8
+	 * @param payload
+	 */
+	public Notification(byte[] payload) {
+		this.payloadBytes = payload;
+	}
+
 	public String getPayload() {
+		if (payload == null && payloadBytes != null) {
+			payload = new String(payloadBytes, Constants.UTF8);
+		}
 		return payload;
 	}
 
 	public Notification setPayload(String payload) {
 		this.payload = payload;
+		this.payloadBytes = null;
+		return this;
+	}
+	
+	/**
+	 * @return payload in UTF-8 or {@value null} if it was given as a String
+	 */
+	public byte[] getPayloadBytes() {
+		return payloadBytes;
+	}
+	
+	public Notification setPayload(byte[] payload) {
+		this.payloadBytes = payload;
+		this.payload = null;
 		return this;
 	}
 
+	/**
+	 * @return device token as hex; created once from the DeviceToken if one was set
+	 */
 	public String getToken() {
+		if (token == null && deviceToken != null) {
+			token = deviceToken.toString();
+		}
 		return token;
 	}
 
 	public Notification setToken(String token) {
 		this.token = token;
+		this.deviceToken = null;
+		return this;
+	}
+	
+	/**
+	 * @return DeviceToken or {@value null} if no token was set
+	 * @throws IllegalArgumentException if the token set as a String is not valid
+	 */
+	public DeviceToken getDeviceToken() {
+		if (deviceToken == null && token != null) {
+			deviceToken = DeviceToken.of(token);
+		}
+		return deviceToken;
+	}
+	
+	public Notification setToken(DeviceToken token) {
+		this.deviceToken = token;
+		this.token = null;
 		return this;
 	}
 
@@ -99,6 +155,11 @@ public class Notification {
 		return this;
 	}
 
+	public Notification setUuid(UUID uuid) {
+		this.uuid = uuid;
+		return this;
+	}
+
 	public int getExpiration() {
 		return expiration;
 	}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) [2018] [Seung Hwan, Jin]
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. 
+ */
+
+package com.jdev.apns.main.impl;
+
+import java.net.http.HttpTimeoutException;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.jdev.apns.main.model.NotificationResponse;
+import com.jdev.apns.main.model.RejectionReason;
+
+/**
+ * AdaptiveLimiter adjusts the number of requests allowed in flight
+ * with additive increase, multiplicative decrease (AIMD).
+ * <ul>
+ * <li>accepted: the limit grows; by one per accepted request until the first
+ * overload (slow start), then by about one per limit's worth of accepted requests</li>
+ * <li>429, 503 or timeout: the limit is cut by the backoff ratio,
+ * at most once per cool down so one burst of rejections counts once</li>
+ * <li>any other response leaves the limit as it is</li>
+ * </ul>
+ * 
+ * @author seunghwanjin
+ */
+public class AdaptiveLimiter {
+	/**
+	 * Logger for class AdaptiveLimiter
+	 */
+	private final static Logger LOGGER = Logger.getLogger(AdaptiveLimiter.class);
+	
+	/**
+	 * The limit is multiplied by this ratio on overload
+	 */
+	private final static double BACKOFF_RATIO = 0.5;
+	
+	/**
+	 * Minimum time between two decreases in nanoseconds
+	 */
+	private final static long COOL_DOWN = 500L * 1000 * 1000;
+	
+	private final int minLimit;
+	private final int maxLimit;
+	
+	/**
+	 * Current limit stored as the bits of a double
+	 */
+	private final AtomicLong limit;
+	
+	private volatile boolean slowStart = true;
+	private volatile long lastDecrease = System.nanoTime() - COOL_DOWN;
+	
+	/**
+	 * @param initialLimit limit to start with
+	 * @param minLimit lowest limit
+	 * @param maxLimit highest limit
+	 */
+	public AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit) {
+		if (minLimit < 1 || maxLimit < minLimit) {
+			throw new IllegalArgumentException("Invalid limits: " + minLimit + ", " + maxLimit);
+		}
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.limit = new AtomicLong(Double.doubleToLongBits(
+				Math.max(minLimit, Math.min(maxLimit, initialLimit))));
+	}
+	
+	/**
+	 * @return number of requests currently allowed in flight
+	 */
+	public int getLimit() {
+		return (int) Double.longBitsToDouble(limit.get());
+	}
+	
+	/**
+	 * This method adjusts the limit according to the outcome of a request
+	 * @param response
+	 */
+	public void onResponse(NotificationResponse response) {
+		if (!response.isDispatched()) {
+			if (isTimeout(response.getCause())) {
+				onOverload();
+			}
+			return;
+		}
+		
+		final RejectionReason error = RejectionReason.getReason(response.getHttpStatusCode());
+		if (response.isAccepted()) {
+			onSuccess();
+		} else if (error == RejectionReason.TOO_MANY_REQUEST_FOR_TOKEN 
+				|| error == RejectionReason.SERVER_UNAVAILABLE) {
+			onOverload();
+		}
+	}
+	
+	private static boolean isTimeout(Throwable cause) {
+		return cause instanceof TimeoutException || cause instanceof HttpTimeoutException;
+	}
+	
+	public void onSuccess() {
+		while (true) {
+			final long bits = limit.get();
+			final double current = Double.longBitsToDouble(bits);
+			if (current >= maxLimit) {
+				return;
+			}
+			
+			final double increased = Math.min(maxLimit, slowStart ? current + 1 : current + 1 / current);
+			if (limit.compareAndSet(bits, Double.doubleToLongBits(increased))) {
+				return;
+			}
+		}
+	}
+	
+	public void onOverload() {
+		final long now = System.nanoTime();
+		final long last = lastDecrease;
+		if (now - last < COOL_DOWN) {
+			return;
+		}
+		
+		synchronized (this) {
+			if (lastDecrease != last) {
+				return;//another thread already backed off for this overload
+			}
+			lastDecrease = now;
+			slowStart = false;
+			
+			while (true) {
+				final long bits = limit.get();
+				final double decreased = Math.max(minLimit, Double.longBitsToDouble(bits) * BACKOFF_RATIO);
+				if (limit.compareAndSet(bits, Double.doubleToLongBits(decreased))) {
+					LOGGER.debug("APNs is overloaded; concurrency limit lowered to " + (int) decreased);
+					return;
+				}
+			}
+		}
+	}
+}
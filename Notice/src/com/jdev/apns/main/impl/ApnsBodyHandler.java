@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) [2018] [Seung Hwan, Jin]
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. 
+ */
+
+package com.jdev.apns.main.impl;
+
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandler;
+import java.net.http.HttpResponse.BodySubscriber;
+import java.net.http.HttpResponse.BodySubscribers;
+import java.net.http.HttpResponse.ResponseInfo;
+
+import com.jdev.apns.main.model.FailureResponse;
+import com.jdev.apns.main.model.Headers;
+import com.jdev.apns.main.model.NotificationResponse;
+
+/**
+ * BodyHandler for responses of APNs.
+ * The body of an accepted notification is discarded without being buffered,
+ * and the body of a rejection is parsed straight from its bytes into FailureResponse
+ * 
+ * @author seunghwanjin
+ */
+final class ApnsBodyHandler implements BodyHandler<FailureResponse> {
+	
+	static final ApnsBodyHandler INSTANCE = new ApnsBodyHandler();
+	
+	private ApnsBodyHandler() {
+	}
+	
+	@Override
+	public BodySubscriber<FailureResponse> apply(ResponseInfo responseInfo) {
+		if (responseInfo.statusCode() == 200) {
+			return BodySubscribers.replacing(null);
+		}
+		return BodySubscribers.mapping(BodySubscribers.ofByteArray(), 
+				body -> FailureResponse.parse(body, 0, body.length));
+	}
+	
+	/**
+	 * Sets the status code, apns-id and parsed body of the response
+	 * @param response
+	 * @param target
+	 */
+	static void setResult(HttpResponse<FailureResponse> response, NotificationResponse target) {
+		target.setResult(response.statusCode(), 
+				response.headers().firstValue(Headers.ID.key()).orElse(null), response.body());
+	}
+}
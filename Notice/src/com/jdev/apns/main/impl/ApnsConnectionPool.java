@@ -0,0 +1,407 @@
+/*
+ * Copyright (c) [2018] [Seung Hwan, Jin]
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. 
+ */
+
+package com.jdev.apns.main.impl;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.net.http.HttpClient.Builder;
+import java.net.http.HttpClient.Version;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandler;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.net.ssl.SSLContext;
+
+import org.apache.log4j.Logger;
+
+import com.jdev.apns.main.model.NotificationResponse;
+import com.jdev.apns.main.util.HttpClients;
+
+/**
+ * ApnsConnectionPool keeps a fixed number of long-lived HTTP/2 connections to APNs.
+ * HttpClient opens a single HTTP/2 connection per host and multiplexes every
+ * stream over it, so the pool holds one HttpClient per connection.
+ * Each request is routed to the connection with the fewest streams in flight.
+ * The number of streams per connection is capped, and an optional
+ * AdaptiveLimiter caps the streams over all connections; when no stream
+ * is available, the sender waits until one is released.
+ * 
+ * @author seunghwanjin
+ */
+public class ApnsConnectionPool implements AutoCloseable {
+	/**
+	 * Logger for class ApnsConnectionPool
+	 */
+	private final static Logger LOGGER = Logger.getLogger(ApnsConnectionPool.class);
+	
+	/**
+	 * Default cap of concurrent streams per connection
+	 */
+	public static final int DEFAULT_MAX_CONCURRENT_STREAMS = 500;
+	
+	private final HttpClient[] clients;
+	
+	/**
+	 * Maximum number of streams in flight per connection
+	 */
+	private final int maxConcurrentStreams;
+	
+	/**
+	 * Number of streams in flight for each connection
+	 */
+	private final AtomicIntegerArray inFlight;
+	
+	/**
+	 * Number of streams in flight over all connections
+	 */
+	private final AtomicInteger total = new AtomicInteger();
+	
+	/**
+	 * Caps total streams in flight; null when not limited adaptively
+	 */
+	private final AdaptiveLimiter limiter;
+	
+	/**
+	 * Index the next scan starts from, so that idle connections
+	 * are used in turn instead of always picking the first one
+	 */
+	private final AtomicInteger next = new AtomicInteger();
+	
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition released = lock.newCondition();
+	
+	/**
+	 * Number of senders waiting for a free stream; guarded by lock
+	 */
+	private volatile int waiters;
+	
+	private volatile boolean closed;
+	
+	/**
+	 * Creates the pool with the given number of connections
+	 * @param size number of HTTP/2 connections
+	 * @param context SSLContext for TLS authentication; may be null
+	 */
+	public ApnsConnectionPool(int size, SSLContext context) {
+		this(size, DEFAULT_MAX_CONCURRENT_STREAMS, context);
+	}
+	
+	/**
+	 * Creates the pool with the given number of connections
+	 * @param size number of HTTP/2 connections
+	 * @param maxConcurrentStreams maximum number of streams in flight per connection
+	 * @param context SSLContext for TLS authentication; may be null
+	 */
+	public ApnsConnectionPool(int size, int maxConcurrentStreams, SSLContext context) {
+		this(size, maxConcurrentStreams, context, null);
+	}
+	
+	/**
+	 * Creates the pool with the given number of connections
+	 * @param size number of HTTP/2 connections
+	 * @param maxConcurrentStreams maximum number of streams in flight per connection
+	 * @param context SSLContext for TLS authentication; may be null
+	 * @param limiter caps streams in flight over all connections; may be null
+	 */
+	public ApnsConnectionPool(int size, int maxConcurrentStreams, 
+			SSLContext context, AdaptiveLimiter limiter) {
+		if (size < 1) {
+			throw new IllegalArgumentException("Connection pool size must be positive: " + size);
+		}
+		
+		if (maxConcurrentStreams < 1) {
+			throw new IllegalArgumentException(
+					"Maximum concurrent streams must be positive: " + maxConcurrentStreams);
+		}
+		
+		this.maxConcurrentStreams = maxConcurrentStreams;
+		this.limiter = limiter;
+		clients = new HttpClient[size];
+		inFlight = new AtomicIntegerArray(size);
+		for (int i = 0; i < size; i++) {
+			Builder client = HttpClient.newBuilder().version(Version.HTTP_2);
+			if (context != null) {
+				client.sslContext(context);
+			}
+			clients[i] = client.build();
+		}
+		LOGGER.debug("Created connection pool with " + size + " connections");
+	}
+	
+	/**
+	 * This method reserves a stream within the limit of the limiter
+	 * and then a stream on a connection
+	 * @return index of the connection or -1 if no stream is available
+	 */
+	private int tryAcquire() {
+		if (limiter != null) {
+			int streams;
+			do {
+				streams = total.get();
+				if (streams >= limiter.getLimit()) {
+					return -1;
+				}
+			} while (!total.compareAndSet(streams, streams + 1));
+		} else {
+			total.incrementAndGet();
+		}
+		
+		final int index = tryAcquireConnection();
+		if (index < 0) {
+			total.decrementAndGet();
+		}
+		return index;
+	}
+	
+	/**
+	 * This method picks the connection with the least streams in flight
+	 * and marks a new stream on it
+	 * @return index of the connection or -1 if every connection is at the cap
+	 */
+	private int tryAcquireConnection() {
+		final int size = clients.length;
+		while (true) {
+			final int start = Math.floorMod(next.getAndIncrement(), size);
+			int selected = -1;
+			int least = maxConcurrentStreams;
+			for (int i = 0; i < size && least > 0; i++) {
+				final int index = (start + i) % size;
+				final int streams = inFlight.get(index);
+				if (streams < least) {
+					least = streams;
+					selected = index;
+				}
+			}
+			
+			if (selected < 0) {
+				return -1;
+			}
+			
+			if (inFlight.compareAndSet(selected, least, least + 1)) {
+				return selected;
+			}
+		}//retry when another sender took the stream first
+	}
+	
+	/**
+	 * This method waits until a connection has a free stream
+	 * @return index of the connection
+	 * @throws IOException if the pool is closed
+	 * @throws InterruptedException
+	 */
+	private int acquire() throws IOException, InterruptedException {
+		if (closed) {
+			throw new IOException("Connection pool is closed");
+		}
+		int index = tryAcquire();
+		if (index >= 0) {
+			return index;
+		}
+		
+		lock.lockInterruptibly();
+		try {
+			waiters++;
+			try {
+				while ((index = tryAcquire()) < 0) {
+					if (closed) {
+						throw new IOException("Connection pool is closed");
+					}
+					released.await();
+				}
+				return index;
+			} finally {
+				waiters--;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	private void release(int index) {
+		inFlight.decrementAndGet(index);
+		total.decrementAndGet();
+		if (waiters > 0) {
+			lock.lock();
+			try {
+				released.signal();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+	
+	/**
+	 * This method adjusts the limiter with the outcome of a request.
+	 * Senders waiting for a stream are woken when the limit grows,
+	 * as no stream was released for the room that was added
+	 * @param response
+	 */
+	public void onResponse(NotificationResponse response) {
+		if (limiter == null) {
+			return;
+		}
+		
+		final int limit = limiter.getLimit();
+		limiter.onResponse(response);
+		if (limiter.getLimit() > limit && waiters > 0) {
+			lock.lock();
+			try {
+				released.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+	
+	/**
+	 * Sends the request asynchronously over the least loaded connection.
+	 * The calling thread waits only while every connection is at the cap.
+	 * @param request
+	 * @param handler
+	 * @return CompletableFuture<HttpResponse<T>>
+	 */
+	public <T> CompletableFuture<HttpResponse<T>> sendAsync(
+			HttpRequest request, BodyHandler<T> handler) {
+		final int index;
+		try {
+			index = acquire();
+		} catch (IOException e) {
+			return CompletableFuture.failedFuture(e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return CompletableFuture.failedFuture(e);
+		}
+		
+		try {
+			return clients[index].sendAsync(request, handler).
+					whenComplete((response, error) -> release(index));
+		} catch (RuntimeException e) {
+			release(index);
+			throw e;
+		}
+	}
+	
+	/**
+	 * This method sends the request once per connection, so each one
+	 * finishes DNS, TCP, the TLS handshake and the HTTP/2 preface before
+	 * real traffic arrives. Any HTTP response proves the connection.
+	 * The probes are admitted like any other request, so they count against
+	 * the stream cap; with no other traffic each lands on a different connection
+	 * @param request request APNs answers without delivering anything
+	 * @return CompletableFuture<Void> completed when every probe responded,
+	 * 			exceptionally if a connection could not be opened or the pool is closed
+	 */
+	public CompletableFuture<Void> warmUp(HttpRequest request) {
+		final CompletableFuture<?>[] responses = new CompletableFuture<?>[clients.length];
+		for (int i = 0; i < clients.length; i++) {
+			responses[i] = sendAsync(request, BodyHandlers.discarding());
+		}
+		return CompletableFuture.allOf(responses);
+	}
+	
+	/**
+	 * Sends the request synchronously over the least loaded connection
+	 * @param request
+	 * @param handler
+	 * @return HttpResponse<T>
+	 * @throws IOException
+	 * @throws InterruptedException
+	 */
+	public <T> HttpResponse<T> send(HttpRequest request, BodyHandler<T> handler) 
+			throws IOException, InterruptedException {
+		final int index = acquire();
+		try {
+			return clients[index].send(request, handler);
+		} finally {
+			release(index);
+		}
+	}
+	
+	/**
+	 * @return number of connections in the pool
+	 */
+	public int size() {
+		return clients.length;
+	}
+	
+	/**
+	 * @return maximum number of streams in flight per connection
+	 */
+	public int getMaxConcurrentStreams() {
+		return maxConcurrentStreams;
+	}
+	
+	/**
+	 * @return number of streams in flight over all connections
+	 */
+	public int inFlight() {
+		return total.get();
+	}
+	
+	/**
+	 * @return maximum number of streams currently allowed over all connections
+	 */
+	public int getConcurrencyLimit() {
+		final int capacity = clients.length * maxConcurrentStreams;
+		return limiter == null ? capacity : Math.min(capacity, limiter.getLimit());
+	}
+	
+	/**
+	 * @return number of senders waiting for a free stream
+	 */
+	public int waiting() {
+		return waiters;
+	}
+	
+	/**
+	 * @return number of streams that can be started now without waiting
+	 */
+	public int availableStreams() {
+		return Math.max(0, getConcurrencyLimit() - total.get());
+	}
+	
+	/**
+	 * Closes the connections; senders waiting for a free stream
+	 * and later sends fail with IOException
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		lock.lock();
+		try {
+			released.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		for (HttpClient client:clients) {
+			HttpClients.shutdownNow(client);
+		}
+		LOGGER.debug("Closed connection pool with " + clients.length + " connections");
+	}
+}
@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) [2018] [Seung Hwan, Jin]
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. 
+ */
+
+package com.jdev.apns.main.impl;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.jdev.apns.main.Notification;
+import com.jdev.apns.main.model.NotificationResponse;
+
+/**
+ * ApnsFlowProcessor sends the notifications it receives from a Flow.Publisher
+ * and publishes a NotificationResponse for each of them.
+ * <p>
+ * Demand is requested from upstream only for as many notifications as the
+ * connection pool has free streams and the subscribers have free buffer space,
+ * counting the notifications already requested and sent, so a fast producer
+ * waits instead of filling a queue and every response has room in the buffer.
+ * Responses are published in completion order through a SubmissionPublisher
+ * without blocking the thread that completed the send, and each response a
+ * subscriber consumes requests more from upstream.
+ * The subscribers are completed once upstream completes and every
+ * notification has a response.
+ * 
+ * @author seunghwanjin
+ */
+public class ApnsFlowProcessor implements Flow.Processor<Notification, NotificationResponse> {
+	/**
+	 * Logger for class ApnsFlowProcessor
+	 */
+	private final static Logger LOGGER = Logger.getLogger(ApnsFlowProcessor.class);
+	
+	private final ApnsServiceBuilder service;
+	private final SubmissionPublisher<NotificationResponse> publisher;
+	
+	private volatile Flow.Subscription subscription;
+	
+	/**
+	 * Notifications requested from upstream but not received yet; guarded by this
+	 */
+	private int requested;
+	
+	/**
+	 * Notifications sent without a response yet
+	 */
+	private final AtomicInteger active = new AtomicInteger();
+	
+	/**
+	 * Responses dropped for subscribers with a full buffer; demand keeps it at zero
+	 */
+	private final AtomicLong dropped = new AtomicLong();
+	
+	private volatile boolean isUpstreamDone;
+	private volatile Throwable upstreamError;
+	private final AtomicBoolean isClosed = new AtomicBoolean();
+	
+	/**
+	 * Publishes responses on the common pool with the default buffer size
+	 * @param service
+	 */
+	public ApnsFlowProcessor(ApnsServiceBuilder service) {
+		this(service, ForkJoinPool.commonPool(), Flow.defaultBufferSize());
+	}
+	
+	/**
+	 * @param service sends the notifications
+	 * @param executor delivers responses to subscribers
+	 * @param maxBufferCapacity maximum number of responses buffered per subscriber
+	 */
+	public ApnsFlowProcessor(ApnsServiceBuilder service, Executor executor, int maxBufferCapacity) {
+		this.service = service;
+		this.publisher = new SubmissionPublisher<>(executor, maxBufferCapacity);
+	}
+	
+	@Override
+	public void subscribe(Flow.Subscriber<? super NotificationResponse> subscriber) {
+		publisher.subscribe(new Consumer(subscriber));
+	}
+	
+	@Override
+	public void onSubscribe(Flow.Subscription subscription) {
+		if (this.subscription != null) {
+			subscription.cancel();
+			return;
+		}
+		this.subscription = subscription;
+		requestMore();
+	}
+	
+	@Override
+	public void onNext(Notification notification) {
+		synchronized (this) {
+			requested--;
+		}
+		active.incrementAndGet();
+		
+		service.send(notification).whenComplete((response, error) -> {
+			if (response == null) {
+				LOGGER.error("Failed to send notification", error);
+				response = new NotificationResponse(error);
+			}
+			//runs on HttpClient and dispatcher threads; demand reserved buffer space for it
+			publisher.offer(response, (subscriber, lost) -> {
+				dropped.incrementAndGet();
+				LOGGER.error("Dropped response for a subscriber with a full buffer: " + lost);
+				return false;
+			});
+			
+			if (active.decrementAndGet() == 0 && isUpstreamDone) {
+				close();
+			} else {
+				requestMore();
+			}
+		});
+	}
+	
+	@Override
+	public void onError(Throwable throwable) {
+		upstreamError = throwable;
+		isUpstreamDone = true;
+		if (active.get() == 0) {
+			close();
+		}
+	}
+	
+	@Override
+	public void onComplete() {
+		isUpstreamDone = true;
+		if (active.get() == 0) {
+			close();
+		}
+	}
+	
+	/**
+	 * This method requests notifications from upstream for the streams
+	 * that are free in the connection pool and not already requested.
+	 * The notifications requested and sent are bounded by the free buffer space
+	 * of the most lagging subscriber, so their responses never overflow it.
+	 * One notification is requested when nothing is outstanding and the buffer
+	 * has space so that the stream cannot stall; a full buffer requests more
+	 * once the subscriber consumes a response
+	 */
+	private void requestMore() {
+		final Flow.Subscription subscription = this.subscription;
+		if (subscription == null || isUpstreamDone) {
+			return;
+		}
+		
+		final int demand;
+		synchronized (this) {
+			final int sent = active.get();
+			final int space = publisher.getMaxBufferCapacity() - publisher.estimateMaximumLag() - sent;
+			int window = Math.min(service.getConnectionPool().availableStreams(), space) - requested;
+			if (window <= 0 && requested == 0 && sent == 0 && space > 0) {
+				window = 1;
+			}
+			demand = Math.max(0, window);
+			requested += demand;
+		}
+		
+		//outside the lock as upstream may call onNext on this thread
+		if (demand > 0) {
+			subscription.request(demand);
+		}
+	}
+	
+	/**
+	 * Completes the subscribers, exceptionally if upstream failed
+	 */
+	private void close() {
+		if (!isClosed.compareAndSet(false, true)) {
+			return;
+		}
+		
+		final Throwable error = upstreamError;
+		if (error == null) {
+			publisher.close();
+		} else {
+			publisher.closeExceptionally(error);
+		}
+	}
+	
+	/**
+	 * This method stops requesting notifications from upstream.
+	 * Notifications already sent still publish their responses
+	 */
+	public void cancel() {
+		final Flow.Subscription subscription = this.subscription;
+		isUpstreamDone = true;
+		if (subscription != null) {
+			subscription.cancel();
+		}
+		if (active.get() == 0) {
+			close();
+		}
+	}
+	
+	/**
+	 * @return number of notifications sent without a response yet
+	 */
+	public int getActive() {
+		return active.get();
+	}
+	
+	/**
+	 * @return number of responses dropped because a subscriber's buffer was full;
+	 * 			zero unless a subscriber fell behind by more than the demand allowed for
+	 */
+	public long getDropped() {
+		return dropped.get();
+	}
+	
+	/**
+	 * Consumer passes responses to the subscriber
+	 * and requests more from upstream for the buffer space each one frees
+	 */
+	private final class Consumer implements Flow.Subscriber<NotificationResponse> {
+		private final Flow.Subscriber<? super NotificationResponse> subscriber;
+		
+		private Consumer(Flow.Subscriber<? super NotificationResponse> subscriber) {
+			this.subscriber = subscriber;
+		}
+		
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			subscriber.onSubscribe(subscription);
+		}
+		
+		@Override
+		public void onNext(NotificationResponse response) {
+			subscriber.onNext(response);
+			requestMore();
+		}
+		
+		@Override
+		public void onError(Throwable throwable) {
+			subscriber.onError(throwable);
+		}
+		
+		@Override
+		public void onComplete() {
+			subscriber.onComplete();
+		}
+	}
+}
@@ -29,21 +29,30 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.net.URI;
-import java.net.URISyntaxException;
-import java.security.InvalidKeyException;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
 import java.security.NoSuchAlgorithmException;
-import java.security.SignatureException;
-import java.security.spec.InvalidKeySpecException;
 import java.time.Duration;
-import java.util.UUID;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
+import javax.management.JMException;
 import javax.net.ssl.SSLContext;
 
 import org.apache.log4j.Logger;
@@ -51,15 +60,19 @@ import org.apache.log4j.Logger;
 import com.jdev.apns.main.ApnsService;
 import com.jdev.apns.main.Constants;
 import com.jdev.apns.main.Notification;
+import com.jdev.apns.main.metrics.ApnsMetrics;
+import com.jdev.apns.main.model.ApnsReason;
+import com.jdev.apns.main.model.BatchResponse;
+import com.jdev.apns.main.model.DrainReport;
+import com.jdev.apns.main.model.FailureResponse;
 import com.jdev.apns.main.model.Headers;
 import com.jdev.apns.main.model.NotificationResponse;
-import com.jdev.apns.main.util.JWT;
+import com.jdev.apns.main.model.RejectionReason;
+import com.jdev.apns.main.util.PayloadBuilder;
+import com.jdev.apns.main.util.TokenProvider;
+import com.jdev.apns.main.util.VirtualThreads;
 
-import java.net.http.HttpClient;
-import java.net.http.HttpClient.Builder;
-import java.net.http.HttpClient.Version;
 import java.net.http.HttpRequest;
-import java.net.http.HttpRequest.*;
 import java.net.http.HttpResponse;
 import java.net.http.HttpResponse.*;
 
@@ -80,7 +93,93 @@ public class ApnsServiceBuilder implements ApnsService {
 //	private final static Version VERSION = Version.HTTP_2;
 
 	private ExecutorService executorService;
+	
+	/**
+	 * Default value is false
+	 */
+	private boolean isVirtualThreads = false;
 	private SSLContext context;
+	
+	/**
+	 * Long-lived HTTP/2 connections shared by every send;
+	 * created once on first use
+	 */
+	private volatile ApnsConnectionPool connectionPool;
+	
+	/**
+	 * Default value is true
+	 */
+	private boolean isAdaptiveConcurrency = true;
+	
+	/**
+	 * Retries transient failures; null when retries are off
+	 */
+	private RetryPolicy retryPolicy = new RetryPolicy();
+	private volatile RetryScheduler retryScheduler;
+	
+	/**
+	 * Queues notifications per priority class in front of dispatch;
+	 * null when no queueing option is on
+	 */
+	private volatile PriorityScheduler priorityScheduler;
+	private boolean isPriorityScheduling = false;
+	private int highPriorityWeight = 1;
+	private int lowPriorityWeight = 1;
+	private Duration highPriorityLatencyTarget = Duration.ofNanos(Long.MAX_VALUE);
+	
+	/**
+	 * Default value is false
+	 */
+	private boolean isCoalescing = false;
+	
+	/**
+	 * Default value is false
+	 */
+	private boolean isDroppingExpired = false;
+	
+	/**
+	 * Default value is false
+	 */
+	private boolean isEarliestDeadlineFirst = false;
+	
+	/**
+	 * Maximum number of notifications queued per priority class
+	 * Default value is 100,000
+	 */
+	private int priorityQueueCapacity = 100_000;
+	
+	/**
+	 * Validated base URI and shared headers per topic and priority;
+	 * replaced when the environment, authentication or timeout changes
+	 */
+	private volatile RequestTemplateCache requestTemplates;
+	
+	/**
+	 * Device tokens APNs reported as no longer valid; null when not used
+	 */
+	private DeadTokenRegistry deadTokenRegistry;
+	
+	/**
+	 * Notifications to tokens in the dead token registry are not sent
+	 */
+	private boolean isSkippingDeadTokens = true;
+	
+	/**
+	 * Write-ahead log of notifications waiting for APNs; null when not used
+	 */
+	private NotificationSpool spool;
+	
+	/**
+	 * Default number of notifications that could not reach APNs kept in the spool
+	 */
+	private final static int DEFAULT_SPOOL_RETENTION = 10_000;
+	
+	/**
+	 * Notifications that could not reach APNs in this run, keyed by spool sequence;
+	 * they stay unacked for replaySpool(). Guarded by itself
+	 */
+	private final TreeMap<Long, Notification> unanswered = new TreeMap<>();
+	private int spoolRetention = DEFAULT_SPOOL_RETENTION;
 
 	/**
 	 * File location of .p12 certificate
@@ -88,11 +187,18 @@ public class ApnsServiceBuilder implements ApnsService {
 	private InputStream p12;
 
 	/**
-	 * Connection pool size
+	 * Connection pool size, used for both the number of
+	 * HTTP/2 connections and the default executor threads
 	 * Default value = 3
 	 */
 	private int poolSize = 3;
 	
+	/**
+	 * Maximum number of streams in flight per connection
+	 * Default value is 500
+	 */
+	private int maxConcurrentStreams = ApnsConnectionPool.DEFAULT_MAX_CONCURRENT_STREAMS;
+	
 	/**
 	 * TimeUnit for request timeout
 	 * Default value is Seconds
@@ -110,6 +216,13 @@ public class ApnsServiceBuilder implements ApnsService {
 	 */
 	private boolean isDevelopment = true;
 	
+	/**
+	 * Host and port that replace the APNs hosts, e.g. a local mock server;
+	 * null to use the APNs hosts
+	 */
+	private String apnsHost;
+	private int apnsPort = 443;
+	
 	/**
 	 * Default value is false
 	 */
@@ -125,13 +238,88 @@ public class ApnsServiceBuilder implements ApnsService {
 	private String teamId;
 	private String apnsAuthKey;
 	
-	private String token;
-	private long tokenTimeStamp;
+	/**
+	 * Signs and caches the token for token authentication;
+	 * created once on first use
+	 */
+	private volatile TokenProvider tokenProvider;
+	
+	/**
+	 * Counters, latency histograms and gauges of this service
+	 */
+	private final ApnsMetrics metrics = new ApnsMetrics();
+	
+	/**
+	 * Path of the request up to the device token
+	 */
+	private final static String DEVICE_PATH = "/3/device/";
+	
 	/**
 	 * Default token life time is 30 minutes
 	 */
 	private long tokenLifetime = 30 * 60 * 1000;
 	
+	/**
+	 * Device token of the requests warmUp() sends and builds;
+	 * APNs answers them without delivering anything
+	 */
+	private final static String WARM_UP_TOKEN = 
+			"0000000000000000000000000000000000000000000000000000000000000000";
+	
+	/**
+	 * Failure bodies warmUp() parses, one per pass in turn
+	 */
+	private final static String[] WARM_UP_FAILURES = {
+			"{\"reason\":\"BadDeviceToken\"}",
+			"{\"reason\":\"Unregistered\",\"timestamp\":1500000000000}",
+			"{\"reason\":\"TooManyRequests\"}",
+			"{\"reason\":\"PayloadTooLarge\"}"
+	};
+	
+	/**
+	 * Default notifications warmUp() builds
+	 */
+	private final static int DEFAULT_WARM_UP_ITERATIONS = 1_000;
+	
+	/**
+	 * Notifications warmUp() builds so the JIT compiles the send path
+	 */
+	private int warmUpIterations = DEFAULT_WARM_UP_ITERATIONS;
+	
+	/**
+	 * Time close() waits for notifications already taken
+	 */
+	public final static Duration DEFAULT_DRAIN_TIMEOUT = Duration.ofSeconds(30);
+	
+	/**
+	 * Futures of notifications taken but not finished yet;
+	 * drain() waits for it to become empty
+	 */
+	private final Set<CompletableFuture<NotificationResponse>> outstanding = 
+			ConcurrentHashMap.newKeySet();
+	
+	/**
+	 * True once drain() or close() started; new notifications are refused
+	 */
+	private volatile boolean isShutDown = false;
+	private boolean isDrained = false;
+	
+	public ApnsServiceBuilder() {
+		metrics.setInFlight(() -> {
+			final ApnsConnectionPool pool = connectionPool;
+			return pool == null ? 0 : pool.inFlight();
+		}).setQueueDepth(this::getQueueDepth).setTokenAge(() -> {
+			final TokenProvider provider = tokenProvider;
+			return provider == null ? -1 : provider.getTokenAge();
+		}).setPriorityQueueDepth(() -> {
+			final PriorityScheduler scheduler = priorityScheduler;
+			return scheduler == null ? 0 : scheduler.getHighPriorityDepth();
+		}, () -> {
+			final PriorityScheduler scheduler = priorityScheduler;
+			return scheduler == null ? 0 : scheduler.getLowPriorityDepth();
+		});
+	}
+	
 	/**
 	 * This method is used for assigning necessary variables for token authentication
 	 * @param keyId 
@@ -177,6 +365,253 @@ public class ApnsServiceBuilder implements ApnsService {
 		return this;
 	}
 
+	/**
+	 * Set the maximum number of streams in flight per connection
+	 * @param maxConcurrentStreams
+	 * @return this
+	 */
+	public ApnsServiceBuilder setMaxConcurrentStreams(int maxConcurrentStreams) {
+		this.maxConcurrentStreams = maxConcurrentStreams;
+		return this;
+	}
+
+	/**
+	 * Turns the adaptive concurrency limit on or off.
+	 * When on, the number of requests in flight grows while APNs accepts
+	 * them and is cut on 429, 503 and timeouts
+	 * @param isAdaptiveConcurrency
+	 * @return this
+	 */
+	public ApnsServiceBuilder setAdaptiveConcurrency(boolean isAdaptiveConcurrency) {
+		this.isAdaptiveConcurrency = isAdaptiveConcurrency;
+		return this;
+	}
+	
+	/**
+	 * Sets the policy for sending failed notifications again.
+	 * By default timeouts, I/O failures, 429, 500 and 503 are retried
+	 * up to 3 attempts; pass null to turn retries off
+	 * @param retryPolicy
+	 * @return this
+	 */
+	public ApnsServiceBuilder setRetryPolicy(RetryPolicy retryPolicy) {
+		this.retryPolicy = retryPolicy;
+		return this;
+	}
+	
+	/**
+	 * Sets the registry of device tokens that are no longer valid.
+	 * Tokens APNs rejects with 410, BadDeviceToken or Unregistered are recorded,
+	 * and notifications to recorded tokens are not sent.
+	 * The registry keeps 64-bit hashes, so a hash collision can skip a live token;
+	 * see setSkipDeadTokens(boolean)
+	 * @param deadTokenRegistry
+	 * @return this
+	 */
+	public ApnsServiceBuilder setDeadTokenRegistry(DeadTokenRegistry deadTokenRegistry) {
+		this.deadTokenRegistry = deadTokenRegistry;
+		return this;
+	}
+	
+	/**
+	 * Uses a registry of device tokens that are no longer valid backed by the file.
+	 * The file is loaded if it exists; call getDeadTokenRegistry().save() to persist it
+	 * @param fileLocation
+	 * @return this
+	 * @throws IOException if the file exists but cannot be read
+	 */
+	public ApnsServiceBuilder setDeadTokenRegistry(String fileLocation) throws IOException {
+		this.deadTokenRegistry = new DeadTokenRegistry(Paths.get(fileLocation));
+		return this;
+	}
+	
+	public DeadTokenRegistry getDeadTokenRegistry() {
+		return deadTokenRegistry;
+	}
+	
+	/**
+	 * Sets whether notifications to tokens in the dead token registry are skipped.
+	 * Default is {@value true}. With {@value false} tokens are still recorded,
+	 * so the registry can feed a cleanup job, but every notification is sent
+	 * and no live token can be skipped by a hash collision
+	 * @param isSkippingDeadTokens
+	 * @return this
+	 */
+	public ApnsServiceBuilder setSkipDeadTokens(boolean isSkippingDeadTokens) {
+		this.isSkippingDeadTokens = isSkippingDeadTokens;
+		return this;
+	}
+	
+	/**
+	 * Sets the spool that keeps notifications until APNs responds.
+	 * Notifications are appended when they are submitted, before they wait in any queue.
+	 * Notifications left in the spool by a previous run are sent by replaySpool().
+	 * Broadcasts are not spooled
+	 * @param spool
+	 * @return this
+	 */
+	public ApnsServiceBuilder setSpool(NotificationSpool spool) {
+		this.spool = spool;
+		return this;
+	}
+	
+	/**
+	 * Uses a spool in the directory to keep notifications until APNs responds.
+	 * Notifications left in the directory by a previous run are sent by replaySpool()
+	 * @param directory
+	 * @return this
+	 * @throws IOException if the spool cannot be opened
+	 */
+	public ApnsServiceBuilder setSpool(String directory) throws IOException {
+		this.spool = new NotificationSpool(Paths.get(directory));
+		return this;
+	}
+	
+	public NotificationSpool getSpool() {
+		return spool;
+	}
+	
+	/**
+	 * Sets how many notifications that could not reach APNs stay in the spool
+	 * for replaySpool() while the service runs. Past it the oldest one is acked,
+	 * so its segment can be deleted, and counted in getMetrics().getSpoolDropped().
+	 * Default is 10,000
+	 * @param spoolRetention
+	 * @return this
+	 */
+	public ApnsServiceBuilder setSpoolRetention(int spoolRetention) {
+		this.spoolRetention = spoolRetention;
+		return this;
+	}
+	
+	public ApnsMetrics getMetrics() {
+		return metrics;
+	}
+	
+	/**
+	 * This method publishes the metrics through JMX
+	 * as com.jdev.apns:type=ApnsMetrics,name={name}
+	 * @param name distinguishes services in the same JVM
+	 * @return this
+	 * @throws JMException if the name is invalid or already registered
+	 */
+	public ApnsServiceBuilder registerMetrics(String name) throws JMException {
+		metrics.register(name);
+		return this;
+	}
+	
+	/**
+	 * This method queues asynchronous sends per priority class in front of dispatch.
+	 * Queues are served in weighted round-robin, highWeight priority 10 notifications
+	 * for every lowWeight notifications of lower priority. A priority 10 notification
+	 * that has waited for highLatencyTarget is sent ahead of its turn
+	 * @param highWeight priority 10 notifications sent per round
+	 * @param lowWeight other notifications sent per round
+	 * @param highLatencyTarget e.g. Duration.ofMillis(100)
+	 * @return this
+	 */
+	public ApnsServiceBuilder setPriorityScheduling(
+			int highWeight, int lowWeight, Duration highLatencyTarget) {
+		if (highWeight < 1 || lowWeight < 1) {
+			throw new IllegalArgumentException("Weights must be at least 1");
+		}
+		this.isPriorityScheduling = true;
+		this.highPriorityWeight = highWeight;
+		this.lowPriorityWeight = lowWeight;
+		this.highPriorityLatencyTarget = highLatencyTarget;
+		return this;
+	}
+	
+	/**
+	 * This method queues asynchronous sends in front of dispatch and
+	 * replaces a queued notification when a later one has the same device token
+	 * and collapse id. The replaced notification is never sent and its future
+	 * completes with a response whose isCoalesced() is true.
+	 * Without setPriorityScheduling(), both priority classes get equal turns
+	 * @param isCoalescing
+	 * @return this
+	 */
+	public ApnsServiceBuilder setCoalescing(boolean isCoalescing) {
+		this.isCoalescing = isCoalescing;
+		return this;
+	}
+	
+	/**
+	 * This method queues asynchronous sends in front of dispatch and drops
+	 * a notification whose apns-expiration passed while it was queued.
+	 * Its future completes with a response whose isExpired() is true.
+	 * Expired notifications are found as they are taken, without scanning the queues
+	 * @param isDroppingExpired
+	 * @return this
+	 */
+	public ApnsServiceBuilder setDropExpired(boolean isDroppingExpired) {
+		this.isDroppingExpired = isDroppingExpired;
+		return this;
+	}
+	
+	/**
+	 * This method queues asynchronous sends in front of dispatch and 
+	 * orders each priority class by apns-expiration, earliest first.
+	 * Notifications without an expiration go after every one that has one
+	 * @param isEarliestDeadlineFirst
+	 * @return this
+	 */
+	public ApnsServiceBuilder setEarliestDeadlineFirst(boolean isEarliestDeadlineFirst) {
+		this.isEarliestDeadlineFirst = isEarliestDeadlineFirst;
+		return this;
+	}
+	
+	/**
+	 * Sets the maximum number of notifications queued per priority class.
+	 * Senders wait while the queue of their class is full
+	 * @param capacity
+	 * @return this
+	 */
+	public ApnsServiceBuilder setPriorityQueueCapacity(int capacity) {
+		this.priorityQueueCapacity = capacity;
+		return this;
+	}
+	
+	/**
+	 * Sets how many notifications warmUp() builds without sending them.
+	 * Default is 1,000; a service that must reach full speed on its first
+	 * notifications can raise it until the JIT has compiled the send path
+	 * @param iterations 0 skips building
+	 * @return this
+	 */
+	public ApnsServiceBuilder setWarmUpIterations(int iterations) {
+		this.warmUpIterations = iterations;
+		return this;
+	}
+	
+	/**
+	 * @return notifications waiting in the executor queue, 
+	 * the priority queues or for a free stream
+	 */
+	private int getQueueDepth() {
+		int depth = 0;
+		final ExecutorService executor = executorService;
+		if (executor instanceof ThreadPoolExecutor) {
+			depth += ((ThreadPoolExecutor) executor).getQueue().size();
+		}
+		final ApnsConnectionPool pool = connectionPool;
+		if (pool != null) {
+			depth += pool.waiting();
+		}
+		final PriorityScheduler scheduler = priorityScheduler;
+		if (scheduler != null) {
+			depth += scheduler.getHighPriorityDepth() + scheduler.getLowPriorityDepth();
+		}
+		return depth;
+	}
+	
+	/**
+	 * @return maximum number of requests currently allowed in flight
+	 */
+	public int getConcurrencyLimit() {
+		return getConnectionPool().getConcurrencyLimit();
+	}
+
 	/**
 	 * set the duration unit
 	 * @param waitTime
@@ -197,8 +632,25 @@ public class ApnsServiceBuilder implements ApnsService {
 	 * @return this
 	 */
 	public ApnsServiceBuilder setDefaultExecutors() {
-		executorService = Executors.newFixedThreadPool(poolSize);
-		System.out.println(executorService);
+		executorService = Executors.newFixedThreadPool(poolSize, newThreadFactory("apns-send-"));
+		isVirtualThreads = false;
+		LOGGER.debug("Created executor " + executorService);
+		return this;
+	}
+	
+	/**
+	 * This method instantiates an executor that starts a virtual thread per send
+	 * on JDK 21 or later, and a cached thread pool on earlier JDKs.
+	 * Synchronous sends then block their own virtual thread instead of the caller,
+	 * so simple blocking sends can hold many requests in flight
+	 * @return this
+	 */
+	public ApnsServiceBuilder setVirtualThreadExecutors() {
+		executorService = VirtualThreads.newExecutor("apns-send-");
+		isVirtualThreads = true;
+		if (!VirtualThreads.isSupported()) {
+			LOGGER.info("Virtual threads are not supported; using a cached thread pool");
+		}
 		return this;
 	}
 	
@@ -223,15 +675,54 @@ public class ApnsServiceBuilder implements ApnsService {
 	 */
 	public ApnsServiceBuilder createCustomExecutors(
 			int coreSize, int maxSize, long aliveTime, TimeUnit unit) {
-		executorService = new ThreadPoolExecutor(
-				coreSize, maxSize, aliveTime, unit, new LinkedBlockingQueue<Runnable>());
+		executorService = new ThreadPoolExecutor(coreSize, maxSize, aliveTime, unit, 
+				new LinkedBlockingQueue<Runnable>(), newThreadFactory("apns-send-"));
+		isVirtualThreads = false;
 		return this;
 	}
 	
+	/**
+	 * The service owns its executor threads and shuts them down in drain(),
+	 * so they do not keep the JVM alive
+	 * @param prefix name prefix of the threads
+	 * @return ThreadFactory of daemon threads
+	 */
+	private static ThreadFactory newThreadFactory(String prefix) {
+		final AtomicInteger count = new AtomicInteger();
+		return runnable -> {
+			Thread thread = new Thread(runnable, prefix + count.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		};
+	}
+	
 	public ApnsServiceBuilder setDevelopment(boolean isDevelopment) {
 		this.isDevelopment = isDevelopment;
 		return this;
 	}
+	
+	/**
+	 * Sends to the host instead of the APNs development or production host.
+	 * Used for load tests and benchmarks against a local server
+	 * @param host
+	 * @param port
+	 * @return this
+	 */
+	public ApnsServiceBuilder setApnsHost(String host, int port) {
+		this.apnsHost = host;
+		this.apnsPort = port;
+		return this;
+	}
+	
+	/**
+	 * Sets the SSLContext of the connections instead of creating one from a .p12 file
+	 * @param context
+	 * @return this
+	 */
+	public ApnsServiceBuilder setSSLContext(SSLContext context) {
+		this.context = context;
+		return this;
+	}
 
 	/**
 	 * This method will validate if the .p12 file is valid
@@ -269,7 +760,9 @@ public class ApnsServiceBuilder implements ApnsService {
 	private String getUri(String path) {
 		String uri = "https://";
 		
-		if (isDevelopment) {
+		if (apnsHost != null) {
+			uri += apnsHost + ":" + apnsPort + path;
+		} else if (isDevelopment) {
 			uri += Constants.APNS_HOST_DEVELOPMENT + path;
 		} else {
 			uri += Constants.APNS_HOST_PRODUCTION + path;
@@ -280,187 +773,813 @@ public class ApnsServiceBuilder implements ApnsService {
 	/**
 	 * This method is called directly by send() method to
 	 * construct a HttpRequest and return it for further use.
-	 * The method uses existing header values retrieved from 
-	 * Notification object to set HttpRequest header values
+	 * The method copies the cached builder of the notification's topic and priority
+	 * and sets the values that vary per notification
 	 * 
 	 * @param notification
-	 * @return {@value HttpRequest} if correct URI was provided
-	 * 			{@value null} otherwise
+	 * @return HttpRequest
 	 * @throws InvocationTargetException 
-	 * @throws IllegalArgumentException 
+	 * @throws IllegalArgumentException if the device token makes an invalid URI
 	 * @throws IllegalAccessException 
 	 */
 	private final HttpRequest setHttpRequest(Notification notification) 
 			throws IllegalAccessException, IllegalArgumentException, InvocationTargetException {
-		final String path = "/3/device/" + notification.getToken();
-		final UUID uuid = notification.getUuid();
-		final int expiration = notification.getExpiration();
-		final Integer priority = notification.getPriority();
-		final String topic = notification.getTopic();
-		final String collapsId = notification.getCollapseId();
-
-		System.out.println("3. constructing HttpRequest...");
-		try {
-			System.out.println("BODY PUBLISHER STARTS");
-			BodyPublisher body = BodyPublishers.ofString(notification.getPayload());
-			System.out.println("BODY PUBLISHER WORKS");
-			
-			HttpRequest.Builder request = HttpRequest.newBuilder().
-					uri(new URI(getUri(path))).POST(body).
-					timeout(timeOut).version(Version.HTTP_2);
-			
-			System.out.println("...Setting header values...");
-			if (uuid != null) {
-				request.setHeader(Headers.ID.key(), uuid.toString());
-			}
-
-			if (expiration > -1) {
-				request.setHeader(Headers.EXPIRATION.key(), Integer.toString(expiration));
-			}
-			
-			if (priority == 5 || priority == 10) {//priority has to be either 5 or 10
-				request.setHeader(Headers.PRIORITY.key(), Integer.toString(priority));
-			}
-
-			if (topic != null) {
-				request.setHeader(Headers.TOPIC.key(), topic);
-			}
-
-			if (collapsId != null) {
-				request.setHeader(Headers.COLLAPSE_ID.key(), collapsId);
-			}
-			
-			//no token authentication is accepted at the moment
-			if (keyId != null && teamId != null && apnsAuthKey != null) {
-				if (token == null || System.currentTimeMillis() - tokenTimeStamp > tokenLifetime) {
+		return getRequestTemplates().newRequest(notification, getAuthorization());
+	}
+	
+	/**
+	 * This method returns the request template cache of the current settings,
+	 * creating a new one if the environment, authentication or timeout changed
+	 * @return RequestTemplateCache
+	 */
+	private RequestTemplateCache getRequestTemplates() {
+		final boolean isTokenAuthentication = keyId != null && teamId != null && apnsAuthKey != null;
+		RequestTemplateCache templates = requestTemplates;
+		if (templates == null 
+				|| !templates.matches(apnsHost, apnsPort, isDevelopment, isTokenAuthentication, timeOut)) {
+			templates = new RequestTemplateCache(apnsHost, apnsPort, isDevelopment, 
+					isTokenAuthentication, getUri(DEVICE_PATH), timeOut);
+			requestTemplates = templates;
+		}
+		return templates;
+	}
+	
+	/**
+	 * @return authorization header for token authentication,
+	 * 			{@value null} when TLS authentication is used
+	 */
+	private String getAuthorization() {
+		if (keyId != null && teamId != null && apnsAuthKey != null) {
+			return getTokenProvider().getAuthorizationHeader();
+		}
+		return null;
+	}
+	
+	/**
+	 * This method returns the provider that caches the token for token authentication.
+	 * The .p8 file is read once when the provider is created.
+	 * 
+	 * @return TokenProvider
+	 */
+	private TokenProvider getTokenProvider() {
+		TokenProvider provider = tokenProvider;
+		if (provider == null) {
+			synchronized (this) {
+				provider = tokenProvider;
+				if (provider == null) {
 					try {
-						System.out.println("Token Authentication");
-						tokenLifetime = System.currentTimeMillis();
-						token = JWT.generateToken(keyId, teamId, apnsAuthKey);
-					} catch (InvalidKeyException | NoSuchAlgorithmException | 
-							InvalidKeySpecException | SignatureException | IOException e) {
+						provider = new TokenProvider(keyId, teamId, apnsAuthKey, tokenLifetime);
+					} catch (IOException | GeneralSecurityException e) {
 						LOGGER.fatal("Failed to create a token for authentication", e);
-						throw new IllegalStateException();
+						throw new IllegalStateException(e);
 					}
+					tokenProvider = provider;
 				}
-				request.setHeader("authorization", "bearer " + token);
 			}
-			
-			System.out.println("Completed setting request headers...");
-			return request.build();
-		} catch (URISyntaxException e) {
-			LOGGER.debug("Invalid URI: ", e);
 		}
-
-		return null;
+		return provider;
+	}
+	
+	/**
+	 * @return RetryScheduler or {@value null} if retries are off
+	 */
+	private RetryScheduler getRetryScheduler() {
+		RetryScheduler scheduler = retryScheduler;
+		if (scheduler == null && retryPolicy != null) {
+			synchronized (this) {
+				scheduler = retryScheduler;
+				if (scheduler == null) {
+					scheduler = new RetryScheduler(retryPolicy);
+					retryScheduler = scheduler;
+				}
+			}
+		}
+		return scheduler;
+	}
+	
+	/**
+	 * @return PriorityScheduler or {@value null} if no queueing option is on
+	 */
+	private PriorityScheduler getPriorityScheduler() {
+		PriorityScheduler scheduler = priorityScheduler;
+		if (scheduler == null && (isPriorityScheduling || isCoalescing 
+				|| isDroppingExpired || isEarliestDeadlineFirst)) {
+			synchronized (this) {
+				scheduler = priorityScheduler;
+				if (scheduler == null) {
+					scheduler = new PriorityScheduler(this::send, metrics, 
+							highPriorityWeight, lowPriorityWeight, highPriorityLatencyTarget, 
+							priorityQueueCapacity, isCoalescing, isDroppingExpired, 
+							isEarliestDeadlineFirst, Math.max(2, poolSize));
+					priorityScheduler = scheduler;
+				}
+			}
+		}
+		return scheduler;
 	}
 	
 	/**
 	 * This method is called directly by send() method to 
-	 * construct HttpClient that will send Notification to APNs.
+	 * get the connection pool that will send Notification to APNs.
+	 * The pool is created once and reused for every later send
+	 * so that connections keep their TLS session and HTTP/2 multiplexing.
 	 * 
-	 * @return HttpClient
+	 * @return ApnsConnectionPool
 	 */
-	private HttpClient getHttpClient() {
-		Builder client = HttpClient.newBuilder().version(Version.HTTP_2);
-		if (context != null) {
-			System.out.println("Found valid context");
-			client.sslContext(context);
+	ApnsConnectionPool getConnectionPool() {
+		ApnsConnectionPool pool = connectionPool;
+		if (pool == null) {
+			synchronized (this) {
+				pool = connectionPool;
+				if (pool == null) {
+					//adjusts the number of requests in flight to what APNs accepts
+					final AdaptiveLimiter limiter = isAdaptiveConcurrency ? new AdaptiveLimiter(
+							maxConcurrentStreams, poolSize, poolSize * maxConcurrentStreams) : null;
+					pool = new ApnsConnectionPool(poolSize, maxConcurrentStreams, context, limiter);
+					connectionPool = pool;
+				}
+			}
 		}
-		
-		System.out.println("4. getting HttpClient");
-		return  client.build();
+		return pool;
 	}
 	
 	/**
-	 * Method that constructs HttpRequest and HttpClient
-	 * to send notification to APNs.
+	 * Method that constructs HttpRequest and sends it
+	 * over the connection pool to APNs.
 	 *  
 	 * @param notification
-	 * @return CompletableFuture<HttpResponse<String>>
+	 * @return CompletableFuture<HttpResponse<FailureResponse>>
 	 */
-	private CompletableFuture<HttpResponse<String>> sendAsyncReq(Notification notification) {
+	private CompletableFuture<HttpResponse<FailureResponse>> sendAsyncReq(Notification notification) {
 		try {
 			HttpRequest request = setHttpRequest(notification);
-			return getHttpClient().sendAsync(request, BodyHandlers.ofString());
-		} catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
+			return getConnectionPool().sendAsync(request, ApnsBodyHandler.INSTANCE);
+		} catch (IllegalAccessException | IllegalArgumentException | 
+				IllegalStateException | InvocationTargetException e) {
 			LOGGER.fatal("Failed to create request", e);
+			return CompletableFuture.failedFuture(e);
 		}
-		return null;
 	}
 	
 	/**
-	 * This method sends asynchronous request to APNs
+	 * This method converts the outcome of a request into NotificationResponse
+	 * @param deviceToken
+	 * @param resp response from APNs; null if the request was not dispatched
+	 * @param error exception thrown while sending; null otherwise
+	 * @return NotificationResponse
+	 */
+	private NotificationResponse toNotificationResponse(
+			String deviceToken, HttpResponse<FailureResponse> resp, Throwable error) {
+		if (error instanceof CompletionException && error.getCause() != null) {
+			error = error.getCause();
+		}
+		
+		final NotificationResponse response = new NotificationResponse(error);
+		if (response.isDispatched()) {//checks if the request was sent
+			ApnsBodyHandler.setResult(resp, response);
+			if (response.isAccepted()) {//checks if the request was rejected
+				LOGGER.debug("Push Notification was accepted by APNs: " + response.getApnsId());
+			} else {
+				LOGGER.debug("Failed to send notification to " + deviceToken 
+						+ ": " + response.getSpecificFailureReason());
+				recordDeadToken(deviceToken, response);
+			}
+		} else {
+			LOGGER.debug("Failed to send notification to " + deviceToken, error);
+		}
+		
+		final ApnsConnectionPool pool = connectionPool;
+		if (pool != null) {
+			pool.onResponse(response);
+		}
+		return response;
+	}
+	
+	/**
+	 * This method records the device token if APNs reported it as no longer valid
+	 * @param deviceToken
+	 * @param response rejected response
+	 */
+	private void recordDeadToken(String deviceToken, NotificationResponse response) {
+		final DeadTokenRegistry registry = deadTokenRegistry;
+		if (registry == null || deviceToken == null) {
+			return;
+		}
+		
+		final ApnsReason reason = response.getReasonCode();
+		if (response.getError() == RejectionReason.INACTIVE_DEVICE_TOKEN_FOR_TOPIC 
+				|| (reason != null && reason.isDeadToken())) {
+			long timestamp = System.currentTimeMillis();
+			if (response.getTimeStamp() != null) {
+				try {
+					timestamp = Long.parseLong(response.getTimeStamp());
+				} catch (NumberFormatException e) {
+					LOGGER.debug("Invalid timestamp: " + response.getTimeStamp());
+				}
+			}
+			registry.add(deviceToken, timestamp);
+		}
+	}
+	
+	/**
+	 * This method checks the device token against the registry of dead tokens
+	 * @param deviceToken
+	 * @return NotificationResponse for a dead token, {@value null} if it may be sent
+	 */
+	private NotificationResponse skipDeadToken(String deviceToken) {
+		final DeadTokenRegistry registry = deadTokenRegistry;
+		if (registry == null || !isSkippingDeadTokens) {
+			return null;
+		}
+		
+		final long timestamp = registry.getTimestamp(deviceToken);
+		if (timestamp < 0) {
+			return null;
+		}
+		LOGGER.debug("Skipped notification to inactive device token " + deviceToken);
+		metrics.recordSkipped();
+		return new NotificationResponse(new IllegalStateException(
+				"Device token has been inactive since " + timestamp + ": " + deviceToken));
+	}
+	
+	/**
+	 * This method sends the request on the calling thread
+	 * and converts the outcome into NotificationResponse
 	 * @param notification
+	 * @return CompletableFuture<NotificationResponse>
 	 */
-	private void sendAsync(Notification notification) {
-		CompletableFuture.supplyAsync(() -> sendAsyncReq(notification), executorService)
+	private CompletableFuture<NotificationResponse> dispatch(Notification notification) {
+		final NotificationResponse skipped = skipDeadToken(notification.getToken());
+		if (skipped != null) {
+			return CompletableFuture.completedFuture(skipped);
+		}
+		
+		final long start = System.nanoTime();
+		return sendAsyncReq(notification)
 		.orTimeout(waitTime, timeUnit)
-		.whenComplete((resp,error) -> {
-			try {
-				NotificationResponse response = new NotificationResponse(error);
-				
-				if (response.isDispatched()) {//checks if the request was sent
-					System.out.println("dispatched...");
-					HttpResponse<String> retrieved = resp.get();
-					response.setResult(retrieved.statusCode(), retrieved.body());
-				}
-				
-				if (response.isAccepted()) {//checks if the request was rejected
-					System.out.println("Push Notification was accepted by APNs");
-				} else {
-					System.out.println("FAILED");
-					System.out.println("Failed to send notificaiton: " + response.getSpecificFailureReason());
-//					System.out.println("Request rejected reason: " + response.getFailureReason());
-				}
-				
-			} catch (InterruptedException | ExecutionException e) {
-				LOGGER.debug("Failed to send notification", e);
-			} finally {
-				executorService.shutdown();
+		.handle((resp, error) -> {
+			if (resp != null) {
+				metrics.recordNetwork(start);
 			}
+			return toNotificationResponse(notification.getToken(), resp, error);
 		});
 	}
 	
+	/**
+	 * This method makes the attempt and retries it if the outcome is transient
+	 * @param attempt sends the notification once
+	 * @return CompletableFuture<NotificationResponse> completed with the final outcome
+	 */
+	private CompletableFuture<NotificationResponse> withRetry(
+			Supplier<CompletableFuture<NotificationResponse>> attempt) {
+		final RetryScheduler scheduler = getRetryScheduler();
+		return scheduler == null ? attempt.get() : scheduler.execute(attempt);
+	}
+	
+	/**
+	 * This method sends asynchronous request to APNs
+	 * @param notification
+	 * @return CompletableFuture<NotificationResponse>
+	 */
+	private CompletableFuture<NotificationResponse> sendAsync(Notification notification) {
+		final QueuedSend task = new QueuedSend(notification, System.nanoTime());
+		try {
+			executorService.execute(task);
+		} catch (RejectedExecutionException e) {
+			LOGGER.error("Executor refused the notification", e);
+			return CompletableFuture.completedFuture(new NotificationResponse(e));
+		}
+		return task.result;
+	}
+	
+	/**
+	 * Send waiting in the executor queue; drain() completes
+	 * the ones still queued at the deadline
+	 */
+	private final class QueuedSend implements Runnable {
+		final Notification notification;
+		final long start;
+		final CompletableFuture<NotificationResponse> result = new CompletableFuture<>();
+		
+		QueuedSend(Notification notification, long start) {
+			this.notification = notification;
+			this.start = start;
+		}
+		
+		@Override
+		public void run() {
+			send(notification, start).whenComplete((response, error) -> 
+				result.complete(response != null ? response : new NotificationResponse(error)));
+		}
+	}
+	
 	/**
 	 * This method sends synchronous request to APNs
 	 * @param notification
+	 * @return NotificationResponse
 	 * @throws InvocationTargetException 
 	 * @throws IllegalArgumentException 
 	 * @throws IllegalAccessException 
 	 */
-	private void sendSync(Notification notification) 
+	private NotificationResponse sendSync(Notification notification) 
 			throws IllegalAccessException, IllegalArgumentException, InvocationTargetException {
 		final HttpRequest request = setHttpRequest(notification);
-		NotificationResponse resp = new NotificationResponse(null);
 		try {
-			HttpResponse<String> response = 
-					getHttpClient().send(request, BodyHandlers.ofString());
-			resp.setResult(response.statusCode(), response.body());
-			
-			if (resp.isAccepted()) {
-				System.out.println("Push Notification was accepted by APNs");
-			} else {
-				System.out.println("Request rejected reason: " + resp.getFailureReason());
-			}
+			final long start = System.nanoTime();
+			HttpResponse<FailureResponse> response = 
+					getConnectionPool().send(request, ApnsBodyHandler.INSTANCE);
+			metrics.recordNetwork(start);
+			return toNotificationResponse(notification.getToken(), response, null);
 		} catch (IOException | InterruptedException e) {
-			System.out.println("Exception was thrown; check the log");
 			LOGGER.fatal("Failed to send request synchronously", e);
+			if (e instanceof InterruptedException) {
+				Thread.currentThread().interrupt();
+			}
+			return toNotificationResponse(notification.getToken(), null, e);
+		}
+	}
+	
+	/**
+	 * This method sends synchronous request and 
+	 * converts a failure to create the request into NotificationResponse
+	 * @param notification
+	 * @return CompletableFuture<NotificationResponse> that is already completed
+	 */
+	private CompletableFuture<NotificationResponse> trySendSync(Notification notification) {
+		final NotificationResponse skipped = skipDeadToken(notification.getToken());
+		if (skipped != null) {
+			return CompletableFuture.completedFuture(skipped);
+		}
+		
+		try {
+			return CompletableFuture.completedFuture(sendSync(notification));
+		} catch (IllegalAccessException | IllegalArgumentException | 
+				IllegalStateException | InvocationTargetException e) {
+			LOGGER.fatal("Failed to send synchronous notification", e);
+			return CompletableFuture.completedFuture(new NotificationResponse(e));
 		}
 	}
 
+	/**
+	 * This method appends the notification to the spool before it is queued
+	 * or sent, and acks it once the final outcome is known
+	 * @param notification
+	 * @param sender queues or sends the notification
+	 * @return CompletableFuture<NotificationResponse> of the sender
+	 */
+	private CompletableFuture<NotificationResponse> spooled(Notification notification, 
+			Supplier<CompletableFuture<NotificationResponse>> sender) {
+		final NotificationSpool spool = this.spool;
+		if (spool == null) {
+			return sender.get();
+		}
+		
+		final long sequence;
+		try {
+			sequence = spool.append(notification);
+		} catch (IOException | IllegalStateException e) {
+			LOGGER.error("Failed to append notification to the spool", e);
+			return sender.get();
+		}
+		return acked(spool, sequence, notification, sender.get());
+	}
+	
+	/**
+	 * This method acks the spooled notification once APNs responded or it will never be sent.
+	 * A notification that could not reach APNs stays unacked for replaySpool()
+	 * @param spool
+	 * @param sequence returned by append()
+	 * @param notification
+	 * @param future completed with the final outcome
+	 * @return CompletableFuture<NotificationResponse> of the future
+	 */
+	private CompletableFuture<NotificationResponse> acked(NotificationSpool spool, long sequence, 
+			Notification notification, CompletableFuture<NotificationResponse> future) {
+		return future.whenComplete((response, error) -> {
+			if (response != null && isAnswered(response)) {
+				spool.ack(sequence);
+			} else {
+				retain(spool, sequence, notification);
+			}
+		});
+	}
+	
+	/**
+	 * This method keeps the notification for replaySpool(). Once more than 
+	 * the spool retention are kept, the oldest is acked and counted as dropped,
+	 * so an outage cannot grow the spool without bound
+	 * @param spool
+	 * @param sequence
+	 * @param notification
+	 */
+	private void retain(NotificationSpool spool, long sequence, Notification notification) {
+		final Map.Entry<Long, Notification> dropped;
+		synchronized (unanswered) {
+			unanswered.put(sequence, notification);
+			dropped = unanswered.size() > spoolRetention ? unanswered.pollFirstEntry() : null;
+		}
+		if (dropped != null) {
+			LOGGER.warn("Dropped notification to " + dropped.getValue().getToken() 
+					+ " from the spool; more than " + spoolRetention + " could not reach APNs");
+			metrics.recordSpoolDropped();
+			spool.ack(dropped.getKey());
+		}
+	}
+	
+	/**
+	 * @param response
+	 * @return true if APNs responded or the notification will never be sent
+	 */
+	private static boolean isAnswered(NotificationResponse response) {
+		final Throwable cause = response.getCause();
+		return response.isDispatched() 
+				|| !(cause instanceof IOException || cause instanceof TimeoutException);
+	}
+	
+	/**
+	 * This method sends the notifications that a previous run left in the spool
+	 * without a response from APNs, and those that could not reach APNs in this run.
+	 * Each one is acked once APNs responds; the ones that fail again are kept
+	 * for the next call, so it can be called whenever APNs is reachable again
+	 * 
+	 * @return CompletableFuture<BatchResponse> in spool order
+	 */
+	public CompletableFuture<BatchResponse> replaySpool() {
+		final NotificationSpool spool = this.spool;
+		if (spool == null) {
+			return CompletableFuture.completedFuture(new BatchResponse(0));
+		}
+		
+		final Map<Long, Notification> pending = new TreeMap<>(spool.takeRecovered());
+		synchronized (unanswered) {
+			pending.putAll(unanswered);
+			unanswered.clear();
+		}
+		return sendBatch(pending.entrySet(), entry -> acked(spool, entry.getKey(), entry.getValue(), 
+				measured(entry.getValue().getTopic(), System.nanoTime(), 
+						() -> withRetry(() -> dispatch(entry.getValue())))));
+	}
+
+	/**
+	 * This method sends the notification synchronously on the calling thread.
+	 * Retries wait on the retry scheduler; only the calling thread blocks
+	 * @param notification
+	 * @return NotificationResponse
+	 */
+	private NotificationResponse sendBlocking(Notification notification, long start) {
+		return measured(notification.getTopic(), start, 
+				() -> withRetry(() -> trySendSync(notification))).join();
+	}
+
+	@Override
+	public CompletableFuture<NotificationResponse> sendNotification(Notification notification) {
+		return tracked(() -> spooled(notification, () -> submit(notification)));
+	}//sendNotification(Notification notification)
+	
+	private CompletableFuture<NotificationResponse> submit(Notification notification) {
+		if (isSynchronous && isVirtualThreads) {
+			//the send blocks a thread of its own instead of the caller
+			final long start = System.nanoTime();
+			return CompletableFuture.supplyAsync(() -> sendBlocking(notification, start), executorService);
+		} else if (isSynchronous) {
+			return CompletableFuture.completedFuture(sendBlocking(notification, System.nanoTime()));
+		}
+		final PriorityScheduler scheduler = getPriorityScheduler();
+		return scheduler == null ? sendAsync(notification) : scheduler.submit(notification);
+	}
+	
+	@Override
+	public CompletableFuture<BatchResponse> sendNotifications(Iterable<Notification> notifications) {
+		final PriorityScheduler scheduler = getPriorityScheduler();
+		return scheduler == null 
+				? sendBatch(notifications, notification -> 
+						spooled(notification, () -> send(notification, System.nanoTime()))) 
+				: sendBatch(notifications, notification -> 
+						spooled(notification, () -> scheduler.submit(notification)));
+	}
+	
+	/**
+	 * This method sends the notification on the calling thread
+	 * through the spool, retries and the connection pool
+	 * @param notification
+	 * @return CompletableFuture<NotificationResponse> completed with the final outcome
+	 */
+	CompletableFuture<NotificationResponse> send(Notification notification) {
+		final long start = System.nanoTime();
+		return tracked(() -> spooled(notification, () -> send(notification, start)));
+	}
+	
+	/**
+	 * @param notification
+	 * @param start value of System.nanoTime() when the notification was submitted
+	 * @return CompletableFuture<NotificationResponse> completed with the final outcome
+	 */
+	private CompletableFuture<NotificationResponse> send(Notification notification, long start) {
+		return measured(notification.getTopic(), start, () -> withRetry(() -> dispatch(notification)));
+	}
+	
+	/**
+	 * This method records the final outcome and end-to-end latency in the metrics
+	 * @param topic
+	 * @param start value of System.nanoTime() when the notification was submitted
+	 * @param sender sends the notification
+	 * @return CompletableFuture<NotificationResponse> of the sender
+	 */
+	private CompletableFuture<NotificationResponse> measured(String topic, long start, 
+			Supplier<CompletableFuture<NotificationResponse>> sender) {
+		return sender.get().whenComplete((response, error) -> {
+			if (response != null) {
+				metrics.record(topic, response, start);
+			}
+		});
+	}
+	
+	/**
+	 * This method creates a Flow.Processor that sends the notifications it receives
+	 * and publishes their responses. Demand is requested from upstream
+	 * only while the connection pool has free streams
+	 * 
+	 * @return ApnsFlowProcessor
+	 */
+	public ApnsFlowProcessor newFlowProcessor() {
+		return new ApnsFlowProcessor(this);
+	}
+	
 	@Override
-	public void sendNotification(Notification notification) {
-		System.out.println("2. CompletableFuture.supplyAsync() method call");
-		if (isSynchronous) {
+	public CompletableFuture<BatchResponse> sendBroadcast(
+			Notification notification, Iterable<String> deviceTokens) {
+		final RequestTemplate template = 
+				new RequestTemplate(getUri(DEVICE_PATH), notification, timeOut);
+		final ApnsConnectionPool pool = getConnectionPool();
+		final PriorityScheduler scheduler = getPriorityScheduler();
+		
+		if (scheduler == null) {
+			return sendBatch(deviceTokens, deviceToken -> 
+					sendBroadcast(template, pool, notification, deviceToken, System.nanoTime()));
+		}
+		//each device token waits in the queue of the notification's priority
+		return sendBatch(deviceTokens, deviceToken -> scheduler.submit(notification, deviceToken, 
+				(queued, start) -> sendBroadcast(template, pool, notification, deviceToken, start)));
+	}
+	
+	/**
+	 * This method sends the broadcast notification to one device token
+	 * @param template request template of the broadcast
+	 * @param pool
+	 * @param notification
+	 * @param deviceToken
+	 * @param start value of System.nanoTime() when the device token was submitted
+	 * @return CompletableFuture<NotificationResponse> completed with the final outcome
+	 */
+	private CompletableFuture<NotificationResponse> sendBroadcast(RequestTemplate template, 
+			ApnsConnectionPool pool, Notification notification, String deviceToken, long start) {
+		return measured(notification.getTopic(), start, () -> withRetry(() -> {
+			final NotificationResponse skipped = skipDeadToken(deviceToken);
+			if (skipped != null) {
+				return CompletableFuture.completedFuture(skipped);
+			}
+			
+			final HttpRequest request;
 			try {
-				sendSync(notification);
-			} catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
-				LOGGER.fatal("Failed to send synchronous notification", e);
+				request = template.newRequest(deviceToken, getAuthorization());
+			} catch (IllegalArgumentException | IllegalStateException e) {
+				LOGGER.fatal("Failed to create request", e);
+				return CompletableFuture.completedFuture(toNotificationResponse(deviceToken, null, e));
+			}
+			final long sent = System.nanoTime();
+			return pool.sendAsync(request, ApnsBodyHandler.INSTANCE)
+					.orTimeout(waitTime, timeUnit)
+					.handle((resp, error) -> {
+						if (resp != null) {
+							metrics.recordNetwork(sent);
+						}
+						return toNotificationResponse(deviceToken, resp, error);
+					});
+		}));
+	}
+	
+	/**
+	 * This method sends every item on the calling thread and collects the results.
+	 * The connection pool makes the calling thread wait while every connection is busy
+	 * 
+	 * @param items notifications or device tokens
+	 * @param sender sends a single item
+	 * @return CompletableFuture<BatchResponse> completed when every item has a result
+	 */
+	private <T> CompletableFuture<BatchResponse> sendBatch(
+			Iterable<T> items, Function<T, CompletableFuture<NotificationResponse>> sender) {
+		final BatchResponse batch = items instanceof Collection ? 
+				new BatchResponse(((Collection<?>) items).size()) : new BatchResponse();
+		final CompletableFuture<BatchResponse> result = new CompletableFuture<>();
+		
+		//starts at 1 so the batch cannot complete while items are still being dispatched
+		final AtomicInteger pending = new AtomicInteger(1);
+		int index = 0;
+		for (final T item : items) {
+			final int position = index++;
+			pending.incrementAndGet();
+			tracked(() -> sender.apply(item)).thenAccept(response -> {
+				batch.add(position, response);
+				if (pending.decrementAndGet() == 0) {
+					result.complete(batch);
+				}
+			});
+		}
+		
+		if (pending.decrementAndGet() == 0) {
+			result.complete(batch);
+		}
+		return result;
+	}
+	
+	/**
+	 * This method keeps the future of a notification until it finishes, 
+	 * so that drain() can wait for it. Notifications are refused once shut down
+	 * @param sender sends the notification
+	 * @return CompletableFuture<NotificationResponse> completed with the final outcome
+	 */
+	private CompletableFuture<NotificationResponse> tracked(
+			Supplier<CompletableFuture<NotificationResponse>> sender) {
+		final CompletableFuture<NotificationResponse> result = new CompletableFuture<>();
+		outstanding.add(result);
+		result.whenComplete((response, error) -> {
+			outstanding.remove(result);
+			if (isShutDown && outstanding.isEmpty()) {
+				synchronized (outstanding) {
+					outstanding.notifyAll();
+				}
+			}
+		});
+		
+		//checked after adding, so drain() either waits for it or it is refused
+		if (isShutDown) {
+			result.complete(new NotificationResponse(
+					new IllegalStateException("Service is shut down")));
+			return result;
+		}
+		sender.get().whenComplete((response, error) -> 
+			result.complete(response != null ? response : new NotificationResponse(error)));
+		return result;
+	}
+	
+	/**
+	 * This method creates the executors, connection pool, provider token and queues
+	 * now instead of on the first send. Without start() they are created on first use
+	 * @return this
+	 */
+	public ApnsServiceBuilder start() {
+		if (isShutDown) {
+			throw new IllegalStateException("Service is shut down");
+		}
+		if (executorService == null) {
+			setDefaultExecutors();
+		}
+		getConnectionPool();
+		getRequestTemplates();
+		getAuthorization();
+		getRetryScheduler();
+		getPriorityScheduler();
+		return this;
+	}
+	
+	/**
+	 * This method prepares the service for its first notifications after startup.
+	 * It calls start(), opens every connection of the pool with a GET request
+	 * that APNs answers with 405 MethodNotAllowed, and builds payloads and requests
+	 * setWarmUpIterations(int) times. Nothing is delivered to devices.
+	 * A readiness probe can wait for the returned future
+	 * @return CompletableFuture<Void> completed when every connection responded, 
+	 * 			exceptionally if a connection could not be opened
+	 */
+	public CompletableFuture<Void> warmUp() {
+		start();
+		final long started = System.nanoTime();
+		final HttpRequest probe = HttpRequest.newBuilder(URI.create(getUri(DEVICE_PATH + WARM_UP_TOKEN)))
+				.timeout(timeOut).GET().build();
+		final CompletableFuture<Void> connections = getConnectionPool().warmUp(probe);
+		final CompletableFuture<Void> sendPath = CompletableFuture.runAsync(this::exerciseSendPath);
+		return CompletableFuture.allOf(connections, sendPath).whenComplete((result, error) -> {
+			if (error == null) {
+				LOGGER.info("Warmed up " + poolSize + " connections in " 
+						+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) + "ms");
+			} else {
+				LOGGER.error("Failed to warm up connections", error);
+			}
+		});
+	}
+	
+	/**
+	 * This method builds payloads, requests and failure responses 
+	 * the way sends do, without sending them
+	 */
+	private void exerciseSendPath() {
+		final PayloadBuilder payload = new PayloadBuilder()
+				.setAlertBody("Warm up", false).setSound("default");
+		final String authorization = getAuthorization();
+		final RequestTemplateCache templates = getRequestTemplates();
+		for (int i = 0; i < warmUpIterations; i++) {
+			payload.setBadge(i);
+			final Notification notification = new Notification(payload.buildBytes())
+					.setToken(WARM_UP_TOKEN)
+					.setPriority(i % 2 == 0 ? Constants.HIGH_PRIORITY : Constants.LOW_PRIORITY);
+			templates.newRequest(notification, authorization);
+			FailureResponse.parse(WARM_UP_FAILURES[i % WARM_UP_FAILURES.length]);
+		}
+		payload.addCutomData("warmUp", true).build();
+	}
+	
+	@Override
+	public synchronized DrainReport drain(Duration timeout) {
+		if (isDrained) {
+			return new DrainReport(0, 0, 0, Duration.ZERO);
+		}
+		final long started = System.nanoTime();
+		isShutDown = true;
+		final int taken = outstanding.size();
+		LOGGER.info("Draining " + taken + " notifications");
+		
+		try {
+			synchronized (outstanding) {
+				final long deadline = started + Math.min(timeout.toNanos(), Long.MAX_VALUE / 2);
+				long remaining;
+				while (!outstanding.isEmpty() && (remaining = deadline - System.nanoTime()) > 0) {
+					TimeUnit.NANOSECONDS.timedWait(outstanding, remaining);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		
+		//closed first, so the notifications abandoned below are not acked and stay for replay
+		if (spool != null) {
+			spool.close();
+		}
+		
+		//what is left at the deadline is abandoned
+		int abandonedQueued = 0;
+		final PriorityScheduler scheduler = priorityScheduler;
+		if (scheduler != null) {
+			abandonedQueued += scheduler.shutdown();
+		}
+		final ExecutorService executor = executorService;
+		if (executor != null) {
+			for (Runnable task:executor.shutdownNow()) {
+				if (task instanceof QueuedSend && ((QueuedSend) task).result.complete(
+						new NotificationResponse(new IllegalStateException("Service is shut down")))) {
+					abandonedQueued++;
+				}
 			}
+		}
+		int abandonedInFlight = 0;
+		for (CompletableFuture<NotificationResponse> future:outstanding) {
+			if (future.complete(new NotificationResponse(
+					new IllegalStateException("Service was shut down before the notification finished")))) {
+				abandonedInFlight++;
+			}
+		}
+		
+		release();
+		isDrained = true;
+		final DrainReport report = new DrainReport(
+				Math.max(0, taken - abandonedQueued - abandonedInFlight), 
+				abandonedQueued, abandonedInFlight, Duration.ofNanos(System.nanoTime() - started));
+		if (report.isComplete()) {
+			LOGGER.info("Drained " + report);
 		} else {
-			sendAsync(notification);
+			LOGGER.warn("Abandoned notifications at the drain deadline " + report);
 		}
-	}//sendNotification(Notification notification)
+		return report;
+	}
+	
+	@Override
+	public void close() {
+		drain(DEFAULT_DRAIN_TIMEOUT);
+	}
+	
+	/**
+	 * This method releases the connections, background threads and files of the service
+	 */
+	private void release() {
+		final RetryScheduler retries = retryScheduler;
+		if (retries != null) {
+			retries.close();
+		}
+		final ApnsConnectionPool pool = connectionPool;
+		if (pool != null) {
+			pool.close();
+		}
+		final TokenProvider provider = tokenProvider;
+		if (provider != null) {
+			provider.close();
+		}
+		if (deadTokenRegistry != null && deadTokenRegistry.getFile() != null) {
+			try {
+				deadTokenRegistry.save();
+			} catch (IOException e) {
+				LOGGER.error("Failed to save dead token registry", e);
+			}
+		}
+		metrics.unregister();
+	}
 
 }
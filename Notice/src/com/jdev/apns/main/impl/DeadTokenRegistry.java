@@ -0,0 +1,440 @@
+/*
+ * Copyright (c) [2018] [Seung Hwan, Jin]
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. 
+ */
+
+package com.jdev.apns.main.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.apache.log4j.Logger;
+
+import com.jdev.apns.main.DeviceToken;
+
+/**
+ * DeadTokenRegistry records device tokens APNs reported as no longer valid
+ * (410, BadDeviceToken, Unregistered) together with the time they became invalid,
+ * so that later notifications to them can be skipped before dispatch.
+ * <p>
+ * Tokens are stored as 64-bit hashes in a sorted long[] with a parallel long[]
+ * of timestamps, which costs 16 bytes per token. A Bloom filter in front
+ * answers most lookups for live tokens without touching the arrays.
+ * New tokens are collected in a small map and merged into the sorted arrays
+ * in batches; lookups never take a lock unless such a map is non-empty
+ * and the Bloom filter matches.
+ * <p>
+ * As only hashes are kept, a live token whose hash equals that of a registered
+ * token is reported as dead, and nothing detects it. With n registered tokens
+ * the chance for a given live token is about n / 2^64, below one in 10^11
+ * for 100 million tokens. Where even that is not acceptable,
+ * ApnsServiceBuilder.setSkipDeadTokens(false) keeps recording tokens
+ * without skipping notifications to them.
+ * <p>
+ * The registry can be saved to and loaded from a local binary file.
+ * 
+ * @author seunghwanjin
+ */
+public class DeadTokenRegistry {
+	/**
+	 * Logger for class DeadTokenRegistry
+	 */
+	private final static Logger LOGGER = Logger.getLogger(DeadTokenRegistry.class);
+	
+	/**
+	 * "DTR1"; identifies the file format
+	 */
+	private static final int MAGIC = 0x44545231;
+	
+	/**
+	 * Tokens waiting to be merged before a merge happens
+	 */
+	private static final int MERGE_THRESHOLD = 1024;
+	
+	/**
+	 * Bloom filter bits per token and number of hash functions
+	 */
+	private static final int BITS_PER_TOKEN = 10;
+	private static final int HASHES = 4;
+	
+	/**
+	 * Sorted hashes with their timestamps and the Bloom filter covering them;
+	 * the arrays are never modified after the index is published
+	 */
+	private static final class Index {
+		private final long[] hashes;
+		private final long[] timestamps;
+		private final AtomicLongArray bloom;
+		private final int bloomMask;
+		
+		private Index(long[] hashes, long[] timestamps, int expected) {
+			this.hashes = hashes;
+			this.timestamps = timestamps;
+			
+			final long bits = Math.max(1 << 16, (long) expected * BITS_PER_TOKEN);
+			final int words = (int) Math.min(1 << 26, Long.highestOneBit(bits - 1) << 1) >>> 6;
+			this.bloom = new AtomicLongArray(words);
+			this.bloomMask = words * 64 - 1;
+			for (long hash:hashes) {
+				addToBloom(hash);
+			}
+		}
+		
+		private void addToBloom(long hash) {
+			final int h1 = (int) hash, h2 = (int) (hash >>> 32);
+			for (int i = 0; i < HASHES; i++) {
+				final int bit = (h1 + i * h2) & bloomMask;
+				final long mask = 1L << bit;
+				final int word = bit >>> 6;
+				long current;
+				while (((current = bloom.get(word)) & mask) == 0 
+						&& !bloom.compareAndSet(word, current, current | mask)) {
+					//retry until the bit is set
+				}
+			}
+		}
+		
+		private boolean mightContain(long hash) {
+			final int h1 = (int) hash, h2 = (int) (hash >>> 32);
+			for (int i = 0; i < HASHES; i++) {
+				final int bit = (h1 + i * h2) & bloomMask;
+				if ((bloom.get(bit >>> 6) & (1L << bit)) == 0) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+	
+	private final Path file;
+	private volatile Index index;
+	
+	/**
+	 * Tokens added since the last merge; guarded by this
+	 */
+	private final Map<Long, Long> pending = new HashMap<>();
+	private volatile boolean hasPending;
+	
+	/**
+	 * Creates an empty registry that is not persisted
+	 */
+	public DeadTokenRegistry() {
+		this.file = null;
+		this.index = new Index(new long[0], new long[0], 0);
+	}
+	
+	/**
+	 * Creates the registry backed by the file, loading it if it exists
+	 * @param file
+	 * @throws IOException if the file exists but cannot be read
+	 */
+	public DeadTokenRegistry(Path file) throws IOException {
+		this.file = file;
+		this.index = Files.exists(file) ? load(file) : new Index(new long[0], new long[0], 0);
+	}
+	
+	/**
+	 * @param deviceToken
+	 * @return {@value true} if APNs reported the token as no longer valid
+	 */
+	public boolean isDead(String deviceToken) {
+		return getTimestamp(deviceToken) >= 0;
+	}
+	
+	/**
+	 * @param deviceToken
+	 * @return time in milliseconds the token became invalid, -1 if it is not registered
+	 */
+	public long getTimestamp(String deviceToken) {
+		return deviceToken == null ? -1 : getTimestamp(hash(deviceToken));
+	}
+	
+	/**
+	 * @param deviceToken
+	 * @return {@value true} if APNs reported the token as no longer valid
+	 */
+	public boolean isDead(DeviceToken deviceToken) {
+		return getTimestamp(deviceToken) >= 0;
+	}
+	
+	/**
+	 * @param deviceToken
+	 * @return time in milliseconds the token became invalid, -1 if it is not registered
+	 */
+	public long getTimestamp(DeviceToken deviceToken) {
+		return deviceToken == null ? -1 : getTimestamp(hash(deviceToken));
+	}
+	
+	private long getTimestamp(long hash) {
+		final Index current = index;
+		if (!current.mightContain(hash)) {
+			return -1;
+		}
+		
+		final int position = Arrays.binarySearch(current.hashes, hash);
+		final long timestamp = position >= 0 ? current.timestamps[position] : -1;
+		
+		//a pending entry is a new token or a newer timestamp of an indexed one
+		if (hasPending) {
+			synchronized (this) {
+				final Long newer = pending.get(hash);
+				return newer == null ? timestamp : Math.max(timestamp, newer);
+			}
+		}
+		return timestamp;
+	}
+	
+	/**
+	 * Records the token as invalid since the timestamp
+	 * @param deviceToken
+	 * @param timestamp time in milliseconds the token became invalid
+	 */
+	public void add(String deviceToken, long timestamp) {
+		add(hash(deviceToken), timestamp);
+	}
+	
+	/**
+	 * Records the token as invalid since the timestamp
+	 * @param deviceToken
+	 * @param timestamp time in milliseconds the token became invalid
+	 */
+	public void add(DeviceToken deviceToken, long timestamp) {
+		add(hash(deviceToken), timestamp);
+	}
+	
+	private synchronized void add(long hash, long timestamp) {
+		final Index current = index;
+		final int position = Arrays.binarySearch(current.hashes, hash);
+		if (position >= 0) {
+			if (timestamp > current.timestamps[position]) {
+				pending.put(hash, timestamp);//replaces the older timestamp on merge
+				hasPending = true;
+			}
+			return;
+		}
+		
+		pending.merge(hash, timestamp, Math::max);
+		hasPending = true;
+		current.addToBloom(hash);
+		if (pending.size() >= Math.max(MERGE_THRESHOLD, current.hashes.length >>> 3)) {
+			merge(-1);
+		}
+	}
+	
+	/**
+	 * Removes the token, e.g. when the device registered it again
+	 * @param deviceToken
+	 */
+	public void remove(String deviceToken) {
+		remove(hash(deviceToken));
+	}
+	
+	/**
+	 * Removes the token, e.g. when the device registered it again
+	 * @param deviceToken
+	 */
+	public void remove(DeviceToken deviceToken) {
+		remove(hash(deviceToken));
+	}
+	
+	private synchronized void remove(long hash) {
+		pending.remove(hash);
+		if (Arrays.binarySearch(index.hashes, hash) >= 0) {
+			merge(hash);
+		}
+		hasPending = !pending.isEmpty();
+	}
+	
+	/**
+	 * @return number of registered tokens
+	 */
+	public synchronized int size() {
+		int size = index.hashes.length;
+		for (Long hash:pending.keySet()) {
+			if (Arrays.binarySearch(index.hashes, hash) < 0) {
+				size++;
+			}
+		}
+		return size;
+	}
+	
+	/**
+	 * This method merges pending tokens into a new sorted index
+	 * @param removed hash to leave out, or -1
+	 */
+	private void merge(long removed) {
+		final Index current = index;
+		final long[] added = new long[pending.size()];
+		int count = 0;
+		for (Long hash:pending.keySet()) {
+			added[count++] = hash;
+		}
+		Arrays.sort(added);
+		
+		final long[] hashes = new long[current.hashes.length + added.length];
+		final long[] timestamps = new long[hashes.length];
+		int i = 0, j = 0, size = 0;
+		while (i < current.hashes.length || j < added.length) {
+			final long hash;
+			long timestamp;
+			if (j == added.length || (i < current.hashes.length && current.hashes[i] < added[j])) {
+				hash = current.hashes[i];
+				timestamp = current.timestamps[i++];
+			} else if (i == current.hashes.length || added[j] < current.hashes[i]) {
+				hash = added[j++];
+				timestamp = pending.get(hash);
+			} else {//token in both; keep the newer timestamp
+				hash = added[j++];
+				timestamp = Math.max(current.timestamps[i++], pending.get(hash));
+			}
+			
+			if (hash != removed) {
+				hashes[size] = hash;
+				timestamps[size++] = timestamp;
+			}
+		}
+		
+		index = new Index(Arrays.copyOf(hashes, size), Arrays.copyOf(timestamps, size), size);
+		pending.clear();
+		hasPending = false;
+	}
+	
+	/**
+	 * @return file the registry was created with or {@value null}
+	 */
+	public Path getFile() {
+		return file;
+	}
+	
+	/**
+	 * Saves the registry to the file it was created with
+	 * @throws IOException
+	 */
+	public synchronized void save() throws IOException {
+		if (file == null) {
+			throw new IllegalStateException("Registry was created without a file");
+		}
+		save(file);
+	}
+	
+	/**
+	 * Saves the registry to the file; the file is replaced atomically
+	 * @param target
+	 * @throws IOException
+	 */
+	public synchronized void save(Path target) throws IOException {
+		if (hasPending) {
+			merge(-1);
+		}
+		
+		final Index current = index;
+		final Path parent = target.toAbsolutePath().getParent();
+		final Path temp = Files.createTempFile(parent, target.getFileName().toString(), ".tmp");
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(temp)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(current.hashes.length);
+			for (int i = 0; i < current.hashes.length; i++) {
+				out.writeLong(current.hashes[i]);
+				out.writeLong(current.timestamps[i]);
+			}
+		} catch (IOException e) {
+			Files.deleteIfExists(temp);
+			throw e;
+		}
+		Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		LOGGER.debug("Saved " + current.hashes.length + " dead device tokens to " + target);
+	}
+	
+	private static Index load(Path file) throws IOException {
+		try (DataInputStream in = new DataInputStream(
+				new BufferedInputStream(Files.newInputStream(file)))) {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("Not a dead token registry: " + file);
+			}
+			
+			final int count = in.readInt();
+			final long[] hashes = new long[count];
+			final long[] timestamps = new long[count];
+			for (int i = 0; i < count; i++) {
+				hashes[i] = in.readLong();
+				timestamps[i] = in.readLong();
+			}
+			LOGGER.debug("Loaded " + count + " dead device tokens from " + file);
+			return new Index(hashes, timestamps, count);
+		}
+	}
+	
+	/**
+	 * 64-bit hash of the hex token, ignoring case
+	 * @param deviceToken
+	 * @return hash
+	 */
+	static long hash(String deviceToken) {
+		long hash = 0xcbf29ce484222325L;//FNV-1a
+		final int length = deviceToken.length();
+		for (int i = 0; i < length; i++) {
+			hash ^= Character.toLowerCase(deviceToken.charAt(i));
+			hash *= 0x100000001b3L;
+		}
+		return mix(hash);
+	}
+	
+	/**
+	 * 64-bit hash of the token; equal to the hash of its hex form,
+	 * computed without creating the String
+	 * @param deviceToken
+	 * @return hash
+	 */
+	static long hash(DeviceToken deviceToken) {
+		long hash = 0xcbf29ce484222325L;//FNV-1a
+		final int length = deviceToken.length();
+		for (int i = 0; i < length; i++) {
+			final int b = deviceToken.getByte(i) & 0xff;
+			hash ^= Character.forDigit(b >>> 4, 16);
+			hash *= 0x100000001b3L;
+			hash ^= Character.forDigit(b & 0xf, 16);
+			hash *= 0x100000001b3L;
+		}
+		return mix(hash);
+	}
+	
+	/**
+	 * Final mix so that every bit depends on every character
+	 */
+	private static long mix(long hash) {
+		hash ^= hash >>> 33;
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= hash >>> 33;
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= hash >>> 33;
+		return hash;
+	}
+}
@@ -0,0 +1,483 @@
+/*
+ * Copyright (c) [2018] [Seung Hwan, Jin]
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. 
+ */
+
+package com.jdev.apns.main.impl;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.Logger;
+
+import com.jdev.apns.main.Constants;
+import com.jdev.apns.main.Notification;
+
+/**
+ * NotificationSpool is a write-ahead log of accepted notifications,
+ * so that notifications still waiting for APNs survive a restart.
+ * <p>
+ * Notifications are appended in a compact binary format to segment files
+ * that are memory-mapped, so an append is a memory copy under a short lock.
+ * Once APNs responds, an ack record is appended for the notification.
+ * Segments are forced to disk by a background thread every flush interval
+ * (group commit), so at most one interval of appends can be lost on a crash
+ * and fsync does not limit the rate of appends.
+ * The oldest segments are deleted once all their notifications are acked.
+ * Broadcasts are not spooled.
+ * <p>
+ * Record layout: int length, int CRC32 of the body, body.
+ * The body starts with a type byte and the sequence number.
+ * When the spool is opened, every notification without an ack is
+ * collected for replay, and new records go to a new segment.
+ * 
+ * @author seunghwanjin
+ */
+public class NotificationSpool implements AutoCloseable {
+	/**
+	 * Logger for class NotificationSpool
+	 */
+	private final static Logger LOGGER = Logger.getLogger(NotificationSpool.class);
+	
+	/**
+	 * Default segment size is 64 MB
+	 */
+	public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+	
+	/**
+	 * Default flush interval is 10 milliseconds
+	 */
+	public static final long DEFAULT_FLUSH_INTERVAL = 10;
+	
+	private static final byte APPEND = 1;
+	private static final byte ACK = 2;
+	private static final int HEADER_SIZE = 8;
+	private static final String PREFIX = "spool-";
+	private static final String SUFFIX = ".log";
+	
+	/**
+	 * A memory-mapped segment file
+	 */
+	private static final class Segment {
+		private final Path path;
+		private final FileChannel channel;
+		private final MappedByteBuffer buffer;
+		
+		/**
+		 * Number of notifications in this segment without an ack
+		 */
+		private int outstanding;
+		private boolean dirty;
+		
+		private Segment(Path path, FileChannel channel, MappedByteBuffer buffer) {
+			this.path = path;
+			this.channel = channel;
+			this.buffer = buffer;
+		}
+	}
+	
+	private final Path directory;
+	private final int segmentSize;
+	
+	/**
+	 * Segments keyed by the first sequence they may contain; guarded by this
+	 */
+	private final TreeMap<Long, Segment> segments = new TreeMap<>();
+	private Segment current;
+	private long nextSequence = 1;
+	
+	/**
+	 * Notifications found without an ack when the spool was opened
+	 */
+	private Map<Long, Notification> recovered = new LinkedHashMap<>();
+	
+	private final ScheduledExecutorService flusher;
+	private final CRC32 crc = new CRC32();
+	private boolean closed;
+	
+	/**
+	 * Opens the spool with default segment size and flush interval
+	 * @param directory
+	 * @throws IOException
+	 */
+	public NotificationSpool(Path directory) throws IOException {
+		this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_FLUSH_INTERVAL);
+	}
+	
+	/**
+	 * Opens the spool, collecting notifications without an ack for replay
+	 * @param directory directory of the segment files
+	 * @param segmentSize size of a segment file in bytes
+	 * @param flushInterval milliseconds between forcing segments to disk
+	 * @throws IOException
+	 */
+	public NotificationSpool(Path directory, int segmentSize, long flushInterval) throws IOException {
+		this.directory = Files.createDirectories(directory);
+		this.segmentSize = segmentSize;
+		recover();
+		roll();
+		
+		this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "apns-spool-flusher");
+			thread.setDaemon(true);
+			return thread;
+		});
+		flusher.scheduleWithFixedDelay(this::flush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Appends the notification
+	 * @param notification
+	 * @return sequence number to ack once APNs responds
+	 * @throws IOException if a new segment cannot be created
+	 */
+	public synchronized long append(Notification notification) throws IOException {
+		if (closed) {
+			throw new IllegalStateException("Spool was closed");
+		}
+		
+		final byte[] body = encode(notification);
+		ensureCapacity(body.length);
+		
+		//the first append of a segment carries the sequence the segment is named after
+		final long sequence = nextSequence++;
+		ByteBuffer.wrap(body).putLong(1, sequence);
+		write(body);
+		current.outstanding++;
+		return sequence;
+	}
+	
+	/**
+	 * Marks the notification as answered by APNs
+	 * @param sequence returned by append()
+	 */
+	public synchronized void ack(long sequence) {
+		if (closed) {
+			return;
+		}
+		
+		final Map.Entry<Long, Segment> entry = segments.floorEntry(sequence);
+		if (entry == null) {
+			return;
+		}
+		
+		try {
+			final byte[] body = ByteBuffer.allocate(9).put(ACK).putLong(sequence).array();
+			if (ensureCapacity(body.length)) {
+				//no append may use the sequence the new segment is named after
+				nextSequence++;
+			}
+			write(body);
+			entry.getValue().outstanding--;
+			deleteAckedSegments();
+		} catch (IOException e) {
+			LOGGER.error("Failed to write ack for " + sequence, e);
+		}
+	}
+	
+	/**
+	 * Returns the notifications found without an ack when the spool was opened,
+	 * keyed by sequence; ack each one once it has been sent again.
+	 * The notifications are handed out only once
+	 * @return notifications to replay
+	 */
+	public synchronized Map<Long, Notification> takeRecovered() {
+		final Map<Long, Notification> result = recovered;
+		recovered = Collections.emptyMap();
+		return result;
+	}
+	
+	/**
+	 * This method starts a new segment if the record does not fit in the current one
+	 * @param length of the record body
+	 * @return true if a new segment was started
+	 */
+	private boolean ensureCapacity(int length) throws IOException {
+		//keeps room for the zero length that marks the end of records
+		if (current.buffer.remaining() >= HEADER_SIZE + length + 4) {
+			return false;
+		}
+		if (HEADER_SIZE + length + 4 > segmentSize) {
+			throw new IllegalArgumentException("Notification does not fit in a segment");
+		}
+		roll();
+		return true;
+	}
+	
+	private void write(byte[] body) {
+		crc.reset();
+		crc.update(body, 0, body.length);
+		current.buffer.putInt(body.length).putInt((int) crc.getValue()).put(body);
+		current.dirty = true;
+	}
+	
+	/**
+	 * Starts a new segment named after the next sequence
+	 */
+	private void roll() throws IOException {
+		final Path path = directory.resolve(String.format("%s%020d%s", PREFIX, nextSequence, SUFFIX));
+		final FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, 
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		final Segment segment = new Segment(path, channel, channel.map(MapMode.READ_WRITE, 0, segmentSize));
+		segments.put(nextSequence, segment);
+		current = segment;
+	}
+	
+	/**
+	 * This method deletes the oldest segments whose notifications are all acked.
+	 * Only a prefix is deleted, because acks in a segment refer to
+	 * notifications in that segment or older ones
+	 */
+	private void deleteAckedSegments() {
+		while (!segments.isEmpty()) {
+			final Map.Entry<Long, Segment> oldest = segments.firstEntry();
+			final Segment segment = oldest.getValue();
+			if (segment == current || segment.outstanding > 0) {
+				return;
+			}
+			
+			segments.remove(oldest.getKey());
+			try {
+				segment.channel.close();
+				Files.deleteIfExists(segment.path);
+			} catch (IOException e) {
+				LOGGER.error("Failed to delete spool segment " + segment.path, e);
+			}
+		}
+	}
+	
+	/**
+	 * Forces segments written since the last flush to disk
+	 */
+	public void flush() {
+		final List<Segment> dirty = new ArrayList<>();
+		synchronized (this) {
+			for (Segment segment:segments.values()) {
+				if (segment.dirty) {
+					segment.dirty = false;
+					dirty.add(segment);
+				}
+			}
+		}
+		
+		for (Segment segment:dirty) {
+			try {
+				segment.buffer.force();
+			} catch (RuntimeException e) {
+				LOGGER.error("Failed to flush spool segment " + segment.path, e);
+			}
+		}
+	}
+	
+	/**
+	 * This method reads every segment and keeps the notifications without an ack
+	 */
+	private void recover() throws IOException {
+		final List<Path> files = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+			for (Path file:stream) {
+				files.add(file);
+			}
+		}
+		Collections.sort(files);
+		
+		final Map<Long, Long> segmentOf = new LinkedHashMap<>();
+		for (Path file:files) {
+			final String name = file.getFileName().toString();
+			final long firstSequence = Long.parseLong(
+					name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+			final FileChannel channel = FileChannel.open(file, 
+					StandardOpenOption.READ, StandardOpenOption.WRITE);
+			final Segment segment = new Segment(file, channel, 
+					channel.map(MapMode.READ_WRITE, 0, channel.size()));
+			segments.put(firstSequence, segment);
+			
+			final ByteBuffer buffer = segment.buffer;
+			while (buffer.remaining() >= HEADER_SIZE) {
+				final int length = buffer.getInt();
+				final int checksum = buffer.getInt();
+				if (length <= 0 || length > buffer.remaining()) {
+					break;//end of records or a torn write
+				}
+				
+				final byte[] body = new byte[length];
+				buffer.get(body);
+				crc.reset();
+				crc.update(body, 0, length);
+				if ((int) crc.getValue() != checksum) {
+					LOGGER.error("Corrupt record in " + file + "; ignoring the rest of the segment");
+					break;
+				}
+				
+				final ByteBuffer record = ByteBuffer.wrap(body);
+				final byte type = record.get();
+				final long sequence = record.getLong();
+				nextSequence = Math.max(nextSequence, sequence + 1);
+				if (type == APPEND) {
+					recovered.put(sequence, decode(record));
+					segmentOf.put(sequence, firstSequence);
+				} else if (type == ACK) {
+					recovered.remove(sequence);
+					segmentOf.remove(sequence);
+				}
+			}
+		}
+		
+		for (Long firstSequence:segmentOf.values()) {
+			segments.get(firstSequence).outstanding++;
+		}
+		nextSequence = Math.max(nextSequence, segments.isEmpty() ? 1 : segments.lastKey() + 1);
+		deleteAckedSegments();
+		if (!recovered.isEmpty()) {
+			LOGGER.info("Recovered " + recovered.size() + " notifications from the spool");
+		}
+	}
+	
+	private static byte[] encode(Notification notification) {
+		byte[] payload = notification.getPayloadBytes();
+		if (payload == null) {
+			payload = notification.getPayload().getBytes(Constants.UTF8);
+		}
+		final byte[] token = toBytes(notification.getToken());
+		final byte[] topic = toBytes(notification.getTopic());
+		final byte[] collapseId = toBytes(notification.getCollapseId());
+		final UUID uuid = notification.getUuid();
+		
+		final ByteBuffer body = ByteBuffer.allocate(1 + 8 + 1 + 16 + 4 + 4 
+				+ 3 * 4 + length(token) + length(topic) + length(collapseId) + 4 + payload.length);
+		body.put(APPEND).putLong(0);
+		if (uuid != null) {
+			body.put((byte) 1).putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits());
+		} else {
+			body.put((byte) 0).putLong(0).putLong(0);
+		}
+		body.putInt(notification.getExpiration()).putInt(notification.getPriority());
+		putBytes(body, token);
+		putBytes(body, topic);
+		putBytes(body, collapseId);
+		putBytes(body, payload);
+		return body.array();
+	}
+	
+	private static Notification decode(ByteBuffer body) throws IOException {
+		try {
+			final boolean hasUuid = body.get() == 1;
+			final UUID uuid = new UUID(body.getLong(), body.getLong());
+			final int expiration = body.getInt();
+			final int priority = body.getInt();
+			final String token = toString(getBytes(body));
+			final String topic = toString(getBytes(body));
+			final String collapseId = toString(getBytes(body));
+			
+			final Notification notification = new Notification(getBytes(body))
+					.setToken(token).setTopic(topic).setCollapseId(collapseId)
+					.setExpiration(expiration).setPriority(priority);
+			if (hasUuid) {
+				notification.setUuid(uuid);
+			}
+			return notification;
+		} catch (BufferUnderflowException e) {
+			throw new IOException("Corrupt notification record", e);
+		}
+	}
+	
+	private static byte[] toBytes(String value) {
+		return value == null ? null : value.getBytes(Constants.UTF8);
+	}
+	
+	private static String toString(byte[] value) {
+		return value == null ? null : new String(value, Constants.UTF8);
+	}
+	
+	private static int length(byte[] value) {
+		return value == null ? 0 : value.length;
+	}
+	
+	private static void putBytes(ByteBuffer body, byte[] value) {
+		if (value == null) {
+			body.putInt(-1);
+		} else {
+			body.putInt(value.length).put(value);
+		}
+	}
+	
+	private static byte[] getBytes(ByteBuffer body) {
+		final int length = body.getInt();
+		if (length < 0) {
+			return null;
+		}
+		final byte[] value = new byte[length];
+		body.get(value);
+		return value;
+	}
+	
+	/**
+	 * Forces every segment to disk and closes the spool
+	 */
+	@Override
+	public void close() {
+		flusher.shutdownNow();
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+		}
+		
+		flush();
+		synchronized (this) {
+			for (Segment segment:segments.values()) {
+				try {
+					segment.channel.close();
+				} catch (IOException e) {
+					LOGGER.error("Failed to close spool segment " + segment.path, e);
+				}
+			}
+			
+			//an empty current segment is not needed for replay
+			if (current.outstanding == 0 && current.buffer.position() == 0) {
+				try {
+					Files.deleteIfExists(current.path);
+				} catch (IOException e) {
+					LOGGER.error("Failed to delete spool segment " + current.path, e);
+				}
+			}
+		}
+	}
+}
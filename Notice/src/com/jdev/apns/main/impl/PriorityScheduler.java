@@ -0,0 +1,457 @@
+/*
+ * Copyright (c) [2018] [Seung Hwan, Jin]
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. 
+ */
+
+package com.jdev.apns.main.impl;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.Logger;
+
+import com.jdev.apns.main.Constants;
+import com.jdev.apns.main.Notification;
+import com.jdev.apns.main.metrics.ApnsMetrics;
+import com.jdev.apns.main.model.NotificationResponse;
+
+/**
+ * PriorityScheduler queues notifications in front of dispatch,
+ * one queue for priority 10 and one for every other priority.
+ * Dispatcher threads take from the queues in weighted round-robin,
+ * so a flood of low priority notifications cannot hold back priority 10 ones.
+ * A priority 10 notification that has waited for the latency target
+ * is taken ahead of its turn.
+ * When coalescing is on, a notification with the same device token and
+ * collapse id as a queued one replaces it in place, since the device
+ * would only show the later one.
+ * Each queue is FIFO, or ordered by expiration when earliest deadline first is on.
+ * When dropping expired notifications is on, a notification whose apns-expiration
+ * has passed while it was queued is dropped as it is taken, without scanning the queues.
+ * 
+ * @author seunghwanjin
+ */
+public class PriorityScheduler implements AutoCloseable {
+	/**
+	 * Logger for class PriorityScheduler
+	 */
+	private final static Logger LOGGER = Logger.getLogger(PriorityScheduler.class);
+	
+	/**
+	 * Sends a notification taken from the queues
+	 */
+	interface Sender {
+		/**
+		 * @param notification
+		 * @param start value of System.nanoTime() when the notification was queued
+		 * @return CompletableFuture<NotificationResponse> completed with the final outcome
+		 */
+		CompletableFuture<NotificationResponse> send(Notification notification, long start);
+	}
+	
+	/**
+	 * Deadline of notifications without apns-expiration
+	 */
+	private static final long NO_DEADLINE = Long.MAX_VALUE;
+	
+	/**
+	 * Earliest apns-expiration first, then in the order queued. Whole seconds are compared,
+	 * as deadlines derived from them differ by clock jitter between equal expirations
+	 */
+	private static final Comparator<Entry> BY_DEADLINE = 
+			Comparator.<Entry>comparingLong(entry -> entry.expiration > 0 ? entry.expiration : Long.MAX_VALUE)
+			.thenComparingLong(entry -> entry.sequence);
+	
+	/**
+	 * Queued notification; notification, sender, future and deadline are replaced
+	 * under the lock when a later notification coalesces into it
+	 */
+	private static final class Entry {
+		Notification notification;
+		Sender sender;
+		CompletableFuture<NotificationResponse> future = new CompletableFuture<>();
+		long deadline;
+		//apns-expiration in seconds the deadline came from; orders earliest deadline first
+		int expiration;
+		final boolean isHighPriority;
+		final long enqueuedAt;
+		final long sequence;
+		final CollapseKey key;
+		
+		Entry(Notification notification, Sender sender, long deadline, boolean isHighPriority, 
+				long enqueuedAt, long sequence, CollapseKey key) {
+			this.notification = notification;
+			this.sender = sender;
+			this.deadline = deadline;
+			this.expiration = notification.getExpiration();
+			this.isHighPriority = isHighPriority;
+			this.enqueuedAt = enqueuedAt;
+			this.sequence = sequence;
+			this.key = key;
+		}
+		
+		boolean isExpired(long now) {
+			return deadline != NO_DEADLINE && now - deadline >= 0;
+		}
+	}
+	
+	/**
+	 * Device token and collapse id of a queued notification
+	 */
+	private static final class CollapseKey {
+		final String token;
+		final String collapseId;
+		
+		CollapseKey(String token, String collapseId) {
+			this.token = token;
+			this.collapseId = collapseId;
+		}
+		
+		@Override
+		public int hashCode() {
+			return 31 * token.hashCode() + collapseId.hashCode();
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof CollapseKey)) {
+				return false;
+			}
+			final CollapseKey other = (CollapseKey) obj;
+			return token.equals(other.token) && collapseId.equals(other.collapseId);
+		}
+	}
+	
+	/**
+	 * Sender of notifications submitted without their own
+	 */
+	private final Sender sender;
+	private final ApnsMetrics metrics;
+	private final int highWeight;
+	private final int lowWeight;
+	private final long highLatencyTarget;
+	private final int capacity;
+	private final boolean isCoalescing;
+	private final boolean isDroppingExpired;
+	private final boolean isEarliestDeadlineFirst;
+	
+	private final Queue<Entry> high;
+	private final Queue<Entry> low;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+	
+	/**
+	 * Queued entries that carry a collapse id; guarded by lock
+	 */
+	private final Map<CollapseKey, Entry> collapsible = new HashMap<>();
+	
+	/**
+	 * Class being served in the current round and how many it has been served;
+	 * guarded by lock
+	 */
+	private boolean isServingHigh = true;
+	private int servedInRound;
+	private long sequence;
+	private boolean closed;
+	
+	/**
+	 * @param sender sends a notification taken from the queues
+	 * @param metrics records queue wait per class
+	 * @param highWeight priority 10 notifications taken per round
+	 * @param lowWeight other notifications taken per round
+	 * @param highLatencyTarget wait after which a priority 10 notification is taken ahead of its turn
+	 * @param capacity maximum number of notifications per queue
+	 * @param isCoalescing replace queued notifications with the same device token and collapse id
+	 * @param isDroppingExpired drop notifications whose apns-expiration passed while queued
+	 * @param isEarliestDeadlineFirst order each queue by apns-expiration instead of FIFO
+	 * @param dispatchers number of dispatcher threads
+	 */
+	PriorityScheduler(Sender sender, ApnsMetrics metrics, int highWeight, int lowWeight, 
+			Duration highLatencyTarget, int capacity, boolean isCoalescing, 
+			boolean isDroppingExpired, boolean isEarliestDeadlineFirst, int dispatchers) {
+		this.sender = sender;
+		this.metrics = metrics;
+		this.highWeight = highWeight;
+		this.lowWeight = lowWeight;
+		this.highLatencyTarget = highLatencyTarget.toNanos();
+		this.capacity = capacity;
+		this.isCoalescing = isCoalescing;
+		this.isDroppingExpired = isDroppingExpired;
+		this.isEarliestDeadlineFirst = isEarliestDeadlineFirst;
+		this.high = isEarliestDeadlineFirst ? new PriorityQueue<>(BY_DEADLINE) : new ArrayDeque<>();
+		this.low = isEarliestDeadlineFirst ? new PriorityQueue<>(BY_DEADLINE) : new ArrayDeque<>();
+		for (int i = 0; i < dispatchers; i++) {
+			final Thread thread = new Thread(this::dispatch, "apns-dispatcher-" + i);
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+	
+	/**
+	 * This method queues the notification by its priority.
+	 * A queued notification with the same device token and collapse id
+	 * is replaced, and its future completes with NotificationResponse.coalesced().
+	 * The calling thread waits while the queue of its class is full
+	 * @param notification
+	 * @return CompletableFuture<NotificationResponse> completed with the final outcome
+	 */
+	public CompletableFuture<NotificationResponse> submit(Notification notification) {
+		return submit(notification, Objects.toString(notification.getToken()), sender);
+	}
+	
+	/**
+	 * This method queues a notification that is sent by its own sender,
+	 * such as one device token of a broadcast
+	 * @param notification gives priority, expiration and collapse id
+	 * @param token device token the notification is sent to
+	 * @param sender sends the notification once taken from the queues
+	 * @return CompletableFuture<NotificationResponse> completed with the final outcome
+	 */
+	CompletableFuture<NotificationResponse> submit(Notification notification, String token, Sender sender) {
+		final boolean isHighPriority = notification.getPriority() == Constants.HIGH_PRIORITY;
+		final Queue<Entry> queue = isHighPriority ? high : low;
+		final CollapseKey key = isCoalescing && notification.getCollapseId() != null 
+				? new CollapseKey(token, notification.getCollapseId()) 
+				: null;
+		final long now = System.nanoTime();
+		final long deadline = getDeadline(notification, now);
+		CompletableFuture<NotificationResponse> future;
+		CompletableFuture<NotificationResponse> replaced = null;
+		lock.lock();
+		try {
+			while (true) {
+				if (closed) {
+					future = CompletableFuture.completedFuture(new NotificationResponse(
+							new IllegalStateException("Priority scheduler is closed")));
+					break;
+				}
+				final Entry queued = key == null ? null : collapsible.get(key);
+				if (queued != null && queued.isHighPriority == isHighPriority 
+						&& (!isEarliestDeadlineFirst || queued.expiration == notification.getExpiration())) {
+					//keeps the place of the older notification in the queue
+					replaced = queued.future;
+					queued.notification = notification;
+					queued.sender = sender;
+					queued.future = new CompletableFuture<>();
+					if (!isEarliestDeadlineFirst) {
+						//expiration may differ; under earliest deadline first it is equal and the heap order holds
+						queued.deadline = deadline;
+						queued.expiration = notification.getExpiration();
+					}
+					future = queued.future;
+					break;
+				}
+				if (queued != null) {
+					//priority or deadline changed; the older one leaves its queue
+					collapsible.remove(key);
+					(queued.isHighPriority ? high : low).remove(queued);
+					replaced = queued.future;
+					notFull.signalAll();
+				}
+				if (queue.size() < capacity) {
+					final Entry entry = new Entry(notification, sender, deadline, isHighPriority, now, sequence++, key);
+					queue.offer(entry);
+					if (key != null) {
+						collapsible.put(key, entry);
+					}
+					future = entry.future;
+					notEmpty.signal();
+					break;
+				}
+				notFull.await();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			future = CompletableFuture.completedFuture(new NotificationResponse(e));
+		} finally {
+			lock.unlock();
+		}
+		if (replaced != null) {
+			metrics.recordCoalesced();
+			replaced.complete(NotificationResponse.coalesced());
+		}
+		return future;
+	}
+	
+	/**
+	 * @param notification
+	 * @param now value of System.nanoTime()
+	 * @return System.nanoTime() at which apns-expiration passes 
+	 * 			or NO_DEADLINE if the notification has none
+	 */
+	private long getDeadline(Notification notification, long now) {
+		final int expiration = notification.getExpiration();
+		if ((!isDroppingExpired && !isEarliestDeadlineFirst) || expiration <= 0) {
+			//0 asks APNs to try once without storing; it is not a deadline
+			return NO_DEADLINE;
+		}
+		final long remainingMillis = expiration * 1000L - System.currentTimeMillis();
+		return now + TimeUnit.MILLISECONDS.toNanos(remainingMillis);
+	}
+	
+	private void dispatch() {
+		Entry entry;
+		while ((entry = take()) != null) {
+			//no longer replaced once taken, so reading without the lock is safe
+			final CompletableFuture<NotificationResponse> future = entry.future;
+			if (isDroppingExpired && entry.isExpired(System.nanoTime())) {
+				metrics.recordExpired();
+				future.complete(NotificationResponse.expired());
+				continue;
+			}
+			metrics.recordQueueWait(entry.isHighPriority, entry.enqueuedAt);
+			try {
+				entry.sender.send(entry.notification, entry.enqueuedAt).whenComplete((response, error) -> {
+					future.complete(response != null ? response : new NotificationResponse(error));
+				});
+			} catch (RuntimeException e) {
+				LOGGER.error("Failed to dispatch notification", e);
+				future.complete(new NotificationResponse(e));
+			}
+		}
+	}
+	
+	/**
+	 * @return next entry to send or {@value null} once closed
+	 */
+	private Entry take() {
+		lock.lock();
+		try {
+			while (!closed && high.isEmpty() && low.isEmpty()) {
+				notEmpty.await();
+			}
+			if (closed) {
+				return null;
+			}
+			final Entry entry = next();
+			if (entry.key != null) {
+				collapsible.remove(entry.key, entry);
+			}
+			notFull.signalAll();
+			return entry;
+		} catch (InterruptedException e) {
+			return null;
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * This method picks the queue to take from; lock must be held
+	 * @return head of the chosen queue
+	 */
+	private Entry next() {
+		if (low.isEmpty()) {
+			return high.poll();
+		}
+		if (high.isEmpty()) {
+			return low.poll();
+		}
+		if (System.nanoTime() - high.peek().enqueuedAt >= highLatencyTarget) {
+			return high.poll();
+		}
+		if (servedInRound >= (isServingHigh ? highWeight : lowWeight)) {
+			isServingHigh = !isServingHigh;
+			servedInRound = 0;
+		}
+		servedInRound++;
+		return isServingHigh ? high.poll() : low.poll();
+	}
+	
+	/**
+	 * @return priority 10 notifications waiting to be sent
+	 */
+	public int getHighPriorityDepth() {
+		lock.lock();
+		try {
+			return high.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * @return notifications of lower priority waiting to be sent
+	 */
+	public int getLowPriorityDepth() {
+		lock.lock();
+		try {
+			return low.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/**
+	 * This method stops the dispatcher threads and completes every
+	 * notification still queued with a failed NotificationResponse.
+	 * Notifications already taken by a dispatcher are still sent
+	 */
+	@Override
+	public void close() {
+		shutdown();
+	}
+	
+	/**
+	 * @see #close()
+	 * @return number of queued notifications that were not sent
+	 */
+	int shutdown() {
+		final ArrayDeque<Entry> abandoned = new ArrayDeque<>();
+		lock.lock();
+		try {
+			if (closed) {
+				return 0;
+			}
+			closed = true;
+			abandoned.addAll(high);
+			abandoned.addAll(low);
+			high.clear();
+			low.clear();
+			collapsible.clear();
+			notEmpty.signalAll();
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+		if (!abandoned.isEmpty()) {
+			LOGGER.warn(abandoned.size() + " queued notifications were not sent");
+		}
+		for (final Entry entry : abandoned) {
+			entry.future.complete(new NotificationResponse(
+					new IllegalStateException("Priority scheduler is closed")));
+		}
+		return abandoned.size();
+	}
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) [2018] [Seung Hwan, Jin]
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. 
+ */
+
+package com.jdev.apns.main.impl;
+
+import java.net.URI;
+import java.net.http.HttpClient.Version;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.time.Duration;
+
+import com.jdev.apns.main.Constants;
+import com.jdev.apns.main.Notification;
+import com.jdev.apns.main.model.Headers;
+
+/**
+ * RequestTemplate holds a request whose body and headers are built once
+ * and sent to many device tokens. Requests created from the template
+ * differ only in the :path and the authorization header.
+ * The apns-id of the notification is not copied, so that APNs
+ * creates a unique one for every request.
+ * 
+ * @author seunghwanjin
+ */
+public class RequestTemplate {
+	/**
+	 * URI up to and including "/3/device/"
+	 */
+	private final URI base;
+	private final HttpRequest.Builder prototype;
+	
+	/**
+	 * @param baseUri URI up to and including "/3/device/"
+	 * @param notification notification whose payload and headers are shared
+	 * @param timeOut request timeout
+	 * @throws IllegalArgumentException if baseUri is not a valid URI
+	 */
+	public RequestTemplate(String baseUri, Notification notification, Duration timeOut) {
+		this.base = URI.create(baseUri);
+		this.prototype = newBuilder(notification, timeOut);
+	}
+	
+	/**
+	 * This method creates a request builder with the payload and the headers
+	 * of the notification that do not depend on the device token
+	 * @param notification
+	 * @param timeOut request timeout
+	 * @return HttpRequest.Builder without URI, apns-id and authorization
+	 */
+	static HttpRequest.Builder newBuilder(Notification notification, Duration timeOut) {
+		final int expiration = notification.getExpiration();
+		final int priority = notification.getPriority();
+		final String topic = notification.getTopic();
+		final String collapsId = notification.getCollapseId();
+		
+		final HttpRequest.Builder request = HttpRequest.newBuilder().
+				POST(getBodyPublisher(notification)).timeout(timeOut).version(Version.HTTP_2);
+		
+		if (expiration > -1) {
+			request.setHeader(Headers.EXPIRATION.key(), Integer.toString(expiration));
+		}
+		
+		if (priority == Constants.LOW_PRIORITY || priority == Constants.HIGH_PRIORITY) {
+			request.setHeader(Headers.PRIORITY.key(), Integer.toString(priority));
+		}
+		
+		if (topic != null) {
+			request.setHeader(Headers.TOPIC.key(), topic);
+		}
+		
+		if (collapsId != null) {
+			request.setHeader(Headers.COLLAPSE_ID.key(), collapsId);
+		}
+		return request;
+	}
+	
+	/**
+	 * This method resolves the device token against the base URI.
+	 * Only hexadecimal tokens are accepted, so a token cannot add
+	 * path segments, a query or a fragment to the request
+	 * @param base URI up to and including "/3/device/"
+	 * @param deviceToken
+	 * @return URI of the device token
+	 * @throws IllegalArgumentException if the device token is not hexadecimal
+	 */
+	static URI getDeviceUri(URI base, String deviceToken) {
+		if (!isHex(deviceToken)) {
+			throw new IllegalArgumentException("Device token is not hexadecimal: " + deviceToken);
+		}
+		return base.resolve(deviceToken);
+	}
+	
+	private static boolean isHex(String value) {
+		if (value == null || value.isEmpty()) {
+			return false;
+		}
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			if (!(c >= '0' && c <= '9' || c >= 'a' && c <= 'f' || c >= 'A' && c <= 'F')) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * The publisher wraps the payload bytes without copying them
+	 * and can be subscribed to by any number of requests
+	 * @param notification
+	 * @return BodyPublisher
+	 */
+	static BodyPublisher getBodyPublisher(Notification notification) {
+		final byte[] payload = notification.getPayloadBytes();
+		return payload != null ? BodyPublishers.ofByteArray(payload) : 
+			BodyPublishers.ofByteArray(notification.getPayload().getBytes(Constants.UTF8));
+	}
+	
+	/**
+	 * Creates the request for a device token
+	 * @param deviceToken
+	 * @param authorization authorization header or {@value null} for TLS authentication
+	 * @return HttpRequest
+	 * @throws IllegalArgumentException if the device token is not hexadecimal
+	 */
+	public HttpRequest newRequest(String deviceToken, String authorization) {
+		final HttpRequest.Builder request = prototype.copy().uri(getDeviceUri(base, deviceToken));
+		if (authorization != null) {
+			request.setHeader(Headers.AUTHORIZATION.key(), authorization);
+		}
+		return request.build();
+	}
+}
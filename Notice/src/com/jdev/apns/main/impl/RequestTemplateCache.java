@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) [2018] [Seung Hwan, Jin]
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. 
+ */
+
+package com.jdev.apns.main.impl;
+
+import java.net.URI;
+import java.net.http.HttpClient.Version;
+import java.net.http.HttpRequest;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import com.jdev.apns.main.Constants;
+import com.jdev.apns.main.Notification;
+import com.jdev.apns.main.model.Headers;
+
+/**
+ * RequestTemplateCache holds, for one environment and authentication mode,
+ * the validated base URI and a request builder per topic and priority
+ * with the headers those notifications share already set.
+ * A request is then a copy of the cached builder plus the :path,
+ * the body and the headers that vary per notification.
+ * <p>
+ * A cache is created for a fixed host, port, environment, authentication mode
+ * and timeout; ApnsServiceBuilder replaces it when one of them changes.
+ * 
+ * @author seunghwanjin
+ */
+final class RequestTemplateCache {
+	/**
+	 * Topics cached at most; requests for further topics are built without the cache
+	 */
+	private static final int MAX_TOPICS = 1024;
+	
+	/**
+	 * Key of notifications without a topic, as ConcurrentHashMap does not allow null
+	 */
+	private static final String NO_TOPIC = "";
+	
+	private final String host;
+	private final int port;
+	private final boolean isDevelopment;
+	private final boolean isTokenAuthentication;
+	private final Duration timeOut;
+	
+	/**
+	 * URI up to and including "/3/device/"
+	 */
+	private final URI base;
+	
+	/**
+	 * Builders by topic, indexed by priority: low, high, other
+	 */
+	private final ConcurrentMap<String, AtomicReferenceArray<HttpRequest.Builder>> prototypes = 
+			new ConcurrentHashMap<>();
+	
+	/**
+	 * @param host host set with setApnsHost or {@value null}
+	 * @param port
+	 * @param isDevelopment
+	 * @param isTokenAuthentication
+	 * @param baseUri URI up to and including "/3/device/"
+	 * @param timeOut request timeout
+	 * @throws IllegalArgumentException if baseUri is not a valid https URI
+	 */
+	RequestTemplateCache(String host, int port, boolean isDevelopment, 
+			boolean isTokenAuthentication, String baseUri, Duration timeOut) {
+		base = URI.create(baseUri);
+		if (!"https".equals(base.getScheme()) || base.getHost() == null || !baseUri.endsWith("/")) {
+			throw new IllegalArgumentException("Invalid APNs URI: " + baseUri);
+		}
+		this.host = host;
+		this.port = port;
+		this.isDevelopment = isDevelopment;
+		this.isTokenAuthentication = isTokenAuthentication;
+		this.timeOut = timeOut;
+	}
+	
+	/**
+	 * @return {@value true} if the cache was created for these settings
+	 */
+	boolean matches(String host, int port, boolean isDevelopment, 
+			boolean isTokenAuthentication, Duration timeOut) {
+		return Objects.equals(this.host, host) && this.port == port && this.isDevelopment == isDevelopment
+				&& this.isTokenAuthentication == isTokenAuthentication && Objects.equals(this.timeOut, timeOut);
+	}
+	
+	/**
+	 * Creates the request of the notification
+	 * @param notification
+	 * @param authorization authorization header or {@value null} for TLS authentication
+	 * @return HttpRequest
+	 * @throws IllegalArgumentException if the device token is not hexadecimal
+	 */
+	HttpRequest newRequest(Notification notification, String authorization) {
+		final HttpRequest.Builder request = getPrototype(notification.getTopic(), notification.getPriority())
+				.copy()
+				.uri(RequestTemplate.getDeviceUri(base, notification.getToken()))
+				.POST(RequestTemplate.getBodyPublisher(notification));
+		
+		final int expiration = notification.getExpiration();
+		if (expiration > -1) {
+			request.setHeader(Headers.EXPIRATION.key(), Integer.toString(expiration));
+		}
+		
+		final String collapseId = notification.getCollapseId();
+		if (collapseId != null) {
+			request.setHeader(Headers.COLLAPSE_ID.key(), collapseId);
+		}
+		
+		if (notification.getUuid() != null) {
+			request.setHeader(Headers.ID.key(), notification.getUuid().toString());
+		}
+		
+		if (authorization != null) {
+			request.setHeader(Headers.AUTHORIZATION.key(), authorization);
+		}
+		return request.build();
+	}
+	
+	
+	private HttpRequest.Builder getPrototype(String topic, int priority) {
+		final String key = topic == null ? NO_TOPIC : topic;
+		AtomicReferenceArray<HttpRequest.Builder> byPriority = prototypes.get(key);
+		if (byPriority == null) {
+			if (prototypes.size() >= MAX_TOPICS) {
+				return newPrototype(topic, priority);
+			}
+			byPriority = prototypes.computeIfAbsent(key, k -> new AtomicReferenceArray<>(3));
+		}
+		
+		final int index = priority == Constants.LOW_PRIORITY ? 0 
+				: priority == Constants.HIGH_PRIORITY ? 1 : 2;
+		final HttpRequest.Builder prototype = byPriority.get(index);
+		if (prototype != null) {
+			return prototype;
+		}
+		//racing threads build equal prototypes, so either one may win
+		byPriority.compareAndSet(index, null, newPrototype(topic, priority));
+		return byPriority.get(index);
+	}
+	
+	/**
+	 * @return builder with the timeout, version, apns-topic and apns-priority headers;
+	 * 			it is only ever copied, never built
+	 */
+	private HttpRequest.Builder newPrototype(String topic, int priority) {
+		final HttpRequest.Builder prototype = HttpRequest.newBuilder()
+				.timeout(timeOut).version(Version.HTTP_2);
+		if (priority == Constants.LOW_PRIORITY || priority == Constants.HIGH_PRIORITY) {
+			prototype.setHeader(Headers.PRIORITY.key(), Integer.toString(priority));
+		}
+		if (topic != null) {
+			prototype.setHeader(Headers.TOPIC.key(), topic);
+		}
+		return prototype;
+	}
+}
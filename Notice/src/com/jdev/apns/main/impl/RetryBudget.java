@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) [2018] [Seung Hwan, Jin]
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. 
+ */
+
+package com.jdev.apns.main.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * RetryBudget keeps retries from amplifying an outage.
+ * Every first attempt deposits a fraction of a retry and every retry
+ * withdraws a whole one, so retries stay within that fraction of traffic.
+ * A small reserve of retries per second is always available so that
+ * low traffic can still retry.
+ * 
+ * @author seunghwanjin
+ */
+public class RetryBudget {
+	/**
+	 * Balances are kept in thousandths of a retry
+	 */
+	private static final long UNIT = 1000;
+	
+	/**
+	 * Deposits accumulate up to the fraction of this many requests
+	 */
+	private static final long WINDOW = 10000;
+	
+	private final long deposit;
+	private final long reserve;
+	private final long capacity;
+	private final AtomicLong balance;
+	private final AtomicLong lastRefill = new AtomicLong();
+	
+	/**
+	 * @param ratio retries allowed per first attempt, e.g. 0.1 for 10%
+	 * @param minRetriesPerSecond retries always allowed per second
+	 */
+	public RetryBudget(double ratio, int minRetriesPerSecond) {
+		if (ratio < 0 || minRetriesPerSecond < 0) {
+			throw new IllegalArgumentException("Retry budget must not be negative");
+		}
+		this.deposit = (long) (ratio * UNIT);
+		this.reserve = minRetriesPerSecond * UNIT;
+		this.capacity = deposit * WINDOW + reserve;
+		this.balance = new AtomicLong(reserve);
+	}
+	
+	/**
+	 * Records a first attempt
+	 */
+	public void onRequest() {
+		balance.accumulateAndGet(deposit, (current, amount) -> Math.min(capacity, current + amount));
+	}
+	
+	/**
+	 * Takes one retry from the budget
+	 * @return {@value true} if the retry is allowed
+	 */
+	public boolean tryWithdraw() {
+		refill();
+		while (true) {
+			final long current = balance.get();
+			if (current < UNIT) {
+				return false;
+			}
+			
+			if (balance.compareAndSet(current, current - UNIT)) {
+				return true;
+			}
+		}
+	}
+	
+	/**
+	 * Tops the balance up to the reserve once per second
+	 */
+	private void refill() {
+		final long second = System.nanoTime() / 1000000000L;
+		final long last = lastRefill.get();
+		if (second != last && lastRefill.compareAndSet(last, second)) {
+			balance.accumulateAndGet(reserve, Math::max);
+		}
+	}
+}
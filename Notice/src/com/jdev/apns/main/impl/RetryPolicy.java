@@ -0,0 +1,156 @@
+/*
+ * Copyright (c) [2018] [Seung Hwan, Jin]
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. 
+ */
+
+package com.jdev.apns.main.impl;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeoutException;
+
+import com.jdev.apns.main.model.NotificationResponse;
+import com.jdev.apns.main.model.RejectionReason;
+
+/**
+ * RetryPolicy decides which notifications are sent again and when.
+ * <ul>
+ * <li>retryable: I/O failures and timeouts while sending, 
+ * 429, 500 and 503 responses</li>
+ * <li>delay: exponential backoff from baseDelay up to maxDelay, 
+ * of which a random half is jitter</li>
+ * <li>budget: retries are limited to budgetRatio of first attempts, 
+ * plus minRetriesPerSecond</li>
+ * <li>threads: retries that are due are sent by a fixed number of threads,
+ * and wait in a queue while those threads wait for a free stream</li>
+ * </ul>
+ * Default values are 3 attempts, 100 ms base delay, 10 s maximum delay,
+ * a 10% budget, 10 retries per second and 2 threads.
+ * 
+ * @author seunghwanjin
+ */
+public class RetryPolicy {
+	/**
+	 * Maximum number of attempts including the first one
+	 */
+	private int maxAttempts = 3;
+	
+	/**
+	 * Delay before the first retry in milliseconds
+	 */
+	private long baseDelay = 100;
+	
+	/**
+	 * Maximum delay between attempts in milliseconds
+	 */
+	private long maxDelay = 10 * 1000;
+	
+	private double budgetRatio = 0.1;
+	private int minRetriesPerSecond = 10;
+	
+	/**
+	 * Number of threads that send retries
+	 */
+	private int threads = 2;
+	
+	public RetryPolicy setMaxAttempts(int maxAttempts) {
+		this.maxAttempts = maxAttempts;
+		return this;
+	}
+	
+	public RetryPolicy setBaseDelay(long baseDelay) {
+		this.baseDelay = baseDelay;
+		return this;
+	}
+	
+	public RetryPolicy setMaxDelay(long maxDelay) {
+		this.maxDelay = maxDelay;
+		return this;
+	}
+	
+	/**
+	 * @param budgetRatio retries allowed per first attempt, e.g. 0.1 for 10%
+	 * @return this
+	 */
+	public RetryPolicy setBudgetRatio(double budgetRatio) {
+		this.budgetRatio = budgetRatio;
+		return this;
+	}
+	
+	public RetryPolicy setMinRetriesPerSecond(int minRetriesPerSecond) {
+		this.minRetriesPerSecond = minRetriesPerSecond;
+		return this;
+	}
+	
+	/**
+	 * @param threads number of threads that send retries that are due
+	 * @return this
+	 */
+	public RetryPolicy setThreads(int threads) {
+		if (threads <= 0) {
+			throw new IllegalArgumentException("Number of retry threads must be positive");
+		}
+		this.threads = threads;
+		return this;
+	}
+	
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+	
+	public int getThreads() {
+		return threads;
+	}
+	
+	/**
+	 * @return a new budget configured by this policy
+	 */
+	public RetryBudget newBudget() {
+		return new RetryBudget(budgetRatio, minRetriesPerSecond);
+	}
+	
+	/**
+	 * This method checks if the outcome is worth another attempt
+	 * @param response
+	 * @return {@value true} if the failure is transient
+	 */
+	public boolean isRetryable(NotificationResponse response) {
+		if (!response.isDispatched()) {
+			final Throwable cause = response.getCause();
+			return cause instanceof IOException || cause instanceof TimeoutException;
+		}
+		
+		final RejectionReason error = RejectionReason.getReason(response.getHttpStatusCode());
+		return error == RejectionReason.TOO_MANY_REQUEST_FOR_TOKEN 
+				|| error == RejectionReason.INTERNAL_SERVER_ERROR 
+				|| error == RejectionReason.SERVER_UNAVAILABLE;
+	}
+	
+	/**
+	 * @param attempt number of attempts made so far
+	 * @return delay before the next attempt in milliseconds
+	 */
+	public long getDelay(int attempt) {
+		final long backoff = baseDelay << Math.min(attempt - 1, 30);
+		final long ceiling = backoff <= 0 || backoff > maxDelay ? maxDelay : backoff;
+		final long half = ceiling / 2;
+		return half + ThreadLocalRandom.current().nextLong(ceiling - half + 1);
+	}
+}
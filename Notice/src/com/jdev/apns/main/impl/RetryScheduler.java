@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) [2018] [Seung Hwan, Jin]
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. 
+ */
+
+package com.jdev.apns.main.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.apache.log4j.Logger;
+
+import com.jdev.apns.main.model.NotificationResponse;
+
+/**
+ * RetryScheduler sends a notification again when RetryPolicy considers
+ * the outcome transient and the retry budget allows it.
+ * Retries wait on a TimerWheel, so no thread is blocked during backoff.
+ * Retries that are due are sent by the fixed number of threads the policy sets;
+ * while those wait for a free stream, the other retries wait in a queue,
+ * so an outage does not start a thread per retry.
+ * 
+ * @author seunghwanjin
+ */
+public class RetryScheduler implements AutoCloseable {
+	/**
+	 * Logger for class RetryScheduler
+	 */
+	private final static Logger LOGGER = Logger.getLogger(RetryScheduler.class);
+	
+	private final RetryPolicy policy;
+	private final RetryBudget budget;
+	private final ThreadPoolExecutor executor;
+	private final TimerWheel timer;
+	
+	public RetryScheduler(RetryPolicy policy) {
+		this.policy = policy;
+		this.budget = policy.newBudget();
+		
+		final AtomicInteger count = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(policy.getThreads(), policy.getThreads(), 
+				0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), runnable -> {
+			Thread thread = new Thread(runnable, "apns-retry-" + count.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.timer = new TimerWheel(10, TimeUnit.MILLISECONDS, 512, executor);
+	}
+	
+	/**
+	 * This method makes the first attempt and retries it as the policy allows
+	 * @param attempt sends the notification once
+	 * @return CompletableFuture<NotificationResponse> completed with the final outcome
+	 */
+	public CompletableFuture<NotificationResponse> execute(
+			Supplier<CompletableFuture<NotificationResponse>> attempt) {
+		final CompletableFuture<NotificationResponse> result = new CompletableFuture<>();
+		budget.onRequest();
+		attempt(attempt, 1, result);
+		return result;
+	}
+	
+	private void attempt(Supplier<CompletableFuture<NotificationResponse>> attempt, 
+			int attempts, CompletableFuture<NotificationResponse> result) {
+		attempt.get().whenComplete((response, error) -> {
+			if (error != null) {
+				result.completeExceptionally(error);
+				return;
+			}
+			response.setAttempts(attempts);
+			
+			if (attempts < policy.getMaxAttempts() && policy.isRetryable(response)) {
+				if (budget.tryWithdraw()) {
+					final long delay = policy.getDelay(attempts);
+					final Retry retry = new Retry(attempt, attempts + 1, result);
+					try {
+						timer.schedule(retry, delay, TimeUnit.MILLISECONDS, retry::cancel);
+						return;
+					} catch (IllegalStateException e) {
+						LOGGER.debug("Retry scheduler was closed; not retrying");
+					}
+				} else {
+					LOGGER.debug("Retry budget exhausted; not retrying");
+				}
+			}
+			result.complete(response);
+		});
+	}
+	
+	/**
+	 * @return number of retries that are due and wait for a retry thread
+	 */
+	public int getQueued() {
+		return executor.getQueue().size();
+	}
+	
+	/**
+	 * Stops the scheduler; retries waiting for their delay or for a retry thread
+	 * are not made and their futures complete exceptionally with CancellationException
+	 */
+	@Override
+	public void close() {
+		timer.close();
+		executor.shutdown();
+		
+		final List<Runnable> queued = new ArrayList<>();
+		executor.getQueue().drainTo(queued);
+		for (Runnable runnable:queued) {
+			((Retry) runnable).cancel();
+		}
+	}
+	
+	/**
+	 * Retry is the next attempt of a notification
+	 */
+	private final class Retry implements Runnable {
+		private final Supplier<CompletableFuture<NotificationResponse>> attempt;
+		private final int attempts;
+		private final CompletableFuture<NotificationResponse> result;
+		
+		private Retry(Supplier<CompletableFuture<NotificationResponse>> attempt, 
+				int attempts, CompletableFuture<NotificationResponse> result) {
+			this.attempt = attempt;
+			this.attempts = attempts;
+			this.result = result;
+		}
+		
+		/**
+		 * Runs on a retry thread once the retry is due
+		 */
+		@Override
+		public void run() {
+			attempt(attempt, attempts, result);
+		}
+		
+		private void cancel() {
+			result.completeExceptionally(new CancellationException("Retry scheduler was closed"));
+		}
+	}
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) [2018] [Seung Hwan, Jin]
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. 
+ */
+
+package com.jdev.apns.main.impl;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.log4j.Logger;
+
+/**
+ * TimerWheel is a hashed wheel timer for scheduling many short delays cheaply.
+ * Tasks are hashed into buckets by their deadline; a single thread advances
+ * one bucket per tick and hands the tasks that are due to an executor.
+ * Scheduling is a lock-free enqueue, and no thread sleeps per task.
+ * Deadlines are accurate to one tick.
+ * 
+ * @author seunghwanjin
+ */
+public class TimerWheel implements AutoCloseable {
+	/**
+	 * Logger for class TimerWheel
+	 */
+	private final static Logger LOGGER = Logger.getLogger(TimerWheel.class);
+	
+	private static final class Timeout {
+		private final Runnable task;
+		private final Runnable onClose;
+		private final long deadline;
+		private long remainingRounds;
+		
+		private Timeout(Runnable task, Runnable onClose, long deadline) {
+			this.task = task;
+			this.onClose = onClose;
+			this.deadline = deadline;
+		}
+		
+		private void cancel() {
+			if (onClose == null) {
+				return;
+			}
+			try {
+				onClose.run();
+			} catch (RuntimeException e) {
+				LOGGER.error("Failed to cancel scheduled task", e);
+			}
+		}
+	}
+	
+	/**
+	 * Tasks hashed to one slot of the wheel
+	 */
+	private static final class Bucket {
+		private final ArrayDeque<Timeout> timeouts = new ArrayDeque<>();
+	}
+	
+	private final long tickNanos;
+	private final int mask;
+	
+	/**
+	 * Buckets are only touched by the worker thread
+	 */
+	private final Bucket[] wheel;
+	
+	/**
+	 * Tasks scheduled since the last tick
+	 */
+	private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+	private final Executor executor;
+	private final Thread worker;
+	private final long startTime = System.nanoTime();
+	private volatile boolean running = true;
+	
+	/**
+	 * Creates the wheel and starts its thread
+	 * @param tickDuration duration of a tick
+	 * @param unit TimeUnit of tickDuration
+	 * @param wheelSize number of buckets; rounded up to a power of two
+	 * @param executor runs the tasks that are due
+	 */
+	public TimerWheel(long tickDuration, TimeUnit unit, int wheelSize, Executor executor) {
+		if (tickDuration <= 0 || wheelSize <= 0) {
+			throw new IllegalArgumentException("Tick duration and wheel size must be positive");
+		}
+		
+		final int size = Integer.highestOneBit(wheelSize - 1 > 0 ? (wheelSize - 1) << 1 : 1);
+		this.tickNanos = unit.toNanos(tickDuration);
+		this.mask = size - 1;
+		this.wheel = new Bucket[size];
+		for (int i = 0; i < size; i++) {
+			wheel[i] = new Bucket();
+		}
+		this.executor = executor;
+		this.worker = new Thread(this::run, "apns-timer-wheel");
+		worker.setDaemon(true);
+		worker.start();
+	}
+	
+	/**
+	 * Schedules the task to run after the delay
+	 * @param task
+	 * @param delay
+	 * @param unit TimeUnit of delay
+	 * @throws IllegalStateException if the wheel was closed
+	 */
+	public void schedule(Runnable task, long delay, TimeUnit unit) {
+		schedule(task, delay, unit, null);
+	}
+	
+	/**
+	 * Schedules the task to run after the delay
+	 * @param task
+	 * @param delay
+	 * @param unit TimeUnit of delay
+	 * @param onClose runs instead of the task if the wheel is closed before the task is due;
+	 * 			may be {@value null}
+	 * @throws IllegalStateException if the wheel was closed
+	 */
+	public void schedule(Runnable task, long delay, TimeUnit unit, Runnable onClose) {
+		if (!running) {
+			throw new IllegalStateException("Timer wheel was closed");
+		}
+		final Timeout timeout = new Timeout(task, onClose, 
+				System.nanoTime() - startTime + unit.toNanos(Math.max(0, delay)));
+		pending.add(timeout);
+		
+		//the worker may have stopped after the check; then whoever removes it cancels it
+		if (!running && pending.remove(timeout)) {
+			timeout.cancel();
+		}
+	}
+	
+	private void run() {
+		long tick = 0;
+		while (running) {
+			final long deadline = tickNanos * (tick + 1);
+			long sleep;
+			while ((sleep = deadline - (System.nanoTime() - startTime)) > 0 && running) {
+				LockSupport.parkNanos(this, sleep);
+			}
+			
+			transferPending(tick);
+			expire(wheel[(int) (tick & mask)]);
+			tick++;
+		}
+		
+		Timeout timeout;
+		while ((timeout = pending.poll()) != null) {
+			timeout.cancel();
+		}
+		for (Bucket bucket:wheel) {
+			while ((timeout = bucket.timeouts.poll()) != null) {
+				timeout.cancel();
+			}
+		}
+	}
+	
+	/**
+	 * This method moves newly scheduled tasks into their buckets
+	 * @param tick current tick
+	 */
+	private void transferPending(long tick) {
+		Timeout timeout;
+		while ((timeout = pending.poll()) != null) {
+			final long calculated = timeout.deadline / tickNanos;
+			timeout.remainingRounds = (calculated - tick) / wheel.length;
+			
+			//tasks already due go into the current bucket
+			wheel[(int) (Math.max(calculated, tick) & mask)].timeouts.add(timeout);
+		}
+	}
+	
+	private void expire(Bucket bucket) {
+		final Iterator<Timeout> timeouts = bucket.timeouts.iterator();
+		while (timeouts.hasNext()) {
+			final Timeout timeout = timeouts.next();
+			if (timeout.remainingRounds <= 0) {
+				timeouts.remove();
+				try {
+					executor.execute(timeout.task);
+				} catch (RejectedExecutionException e) {
+					LOGGER.error("Failed to run scheduled task", e);
+				}
+			} else {
+				timeout.remainingRounds--;
+			}
+		}
+	}
+	
+	/**
+	 * Stops the wheel; tasks not yet due do not run, their onClose runs instead.
+	 * Returns once every onClose has run
+	 */
+	@Override
+	public void close() {
+		running = false;
+		LockSupport.unpark(worker);
+		if (Thread.currentThread() != worker) {
+			try {
+				worker.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
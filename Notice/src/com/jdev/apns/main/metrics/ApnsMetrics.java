@@ -0,0 +1,462 @@
+/*
+ * Copyright (c) [2018] [Seung Hwan, Jin]
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. 
+ */
+
+package com.jdev.apns.main.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import java.util.function.LongSupplier;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+import com.jdev.apns.main.model.NotificationResponse;
+import com.jdev.apns.main.model.RejectionReason;
+
+/**
+ * ApnsMetrics counts the outcome of every notification and records its latency.
+ * <p>
+ * Counters are LongAdders, which stripe updates over cells so that
+ * concurrent senders do not contend. Counters keyed by reason string or topic
+ * are created on first use; at most {@value #MAX_KEYS} keys are kept per map and
+ * later keys are counted under "other". End-to-end latency covers every attempt
+ * of a notification, network latency covers a single request to APNs.
+ * Gauges are read from suppliers when JMX asks for them.
+ * 
+ * @author seunghwanjin
+ */
+public class ApnsMetrics implements ApnsMetricsMBean {
+	/**
+	 * Logger for class ApnsMetrics
+	 */
+	private final static Logger LOGGER = Logger.getLogger(ApnsMetrics.class);
+	
+	/**
+	 * Maximum number of keys per keyed counter
+	 */
+	public static final int MAX_KEYS = 256;
+	private static final String OTHER = "other";
+	
+	private final LongAdder sent = new LongAdder();
+	private final LongAdder accepted = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private final LongAdder skipped = new LongAdder();
+	private final LongAdder coalesced = new LongAdder();
+	private final LongAdder expired = new LongAdder();
+	private final LongAdder spoolDropped = new LongAdder();
+	private final LongAdder retries = new LongAdder();
+	
+	private final Map<RejectionReason, LongAdder> rejectionsByStatus = new EnumMap<>(RejectionReason.class);
+	private final LongAdder otherStatus = new LongAdder();
+	private final ConcurrentHashMap<String, LongAdder> rejectionsByReason = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, LongAdder> sentByTopic = new ConcurrentHashMap<>();
+	
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private final LatencyHistogram networkLatency = new LatencyHistogram();
+	private final LatencyHistogram highPriorityWait = new LatencyHistogram();
+	private final LatencyHistogram lowPriorityWait = new LatencyHistogram();
+	
+	private volatile IntSupplier inFlight = () -> 0;
+	private volatile IntSupplier queueDepth = () -> 0;
+	private volatile IntSupplier highPriorityQueueDepth = () -> 0;
+	private volatile IntSupplier lowPriorityQueueDepth = () -> 0;
+	private volatile LongSupplier tokenAge = () -> -1;
+	
+	private ObjectName objectName;
+	
+	public ApnsMetrics() {
+		for (RejectionReason reason:RejectionReason.values()) {
+			rejectionsByStatus.put(reason, new LongAdder());
+		}
+	}
+	
+	/**
+	 * Records the final outcome of a notification
+	 * @param topic topic of the notification; may be null
+	 * @param response final response
+	 * @param startNanos value of System.nanoTime() when the notification was submitted
+	 */
+	public void record(String topic, NotificationResponse response, long startNanos) {
+		latency.recordSince(startNanos);
+		sent.increment();
+		increment(sentByTopic, topic == null ? "" : topic);
+		retries.add(Math.max(0, response.getAttempts() - 1));
+		
+		if (!response.isDispatched()) {
+			failed.increment();
+		} else if (response.isAccepted()) {
+			accepted.increment();
+		} else {
+			rejected.increment();
+			final RejectionReason status = response.getError();
+			if (status != null) {
+				rejectionsByStatus.get(status).increment();
+			} else {
+				otherStatus.increment();
+			}
+			final String reason = response.getReason();
+			if (reason != null) {
+				increment(rejectionsByReason, reason);
+			}
+		}
+	}
+	
+	/**
+	 * Records a notification that was not sent because its device token is inactive.
+	 * Its final outcome is still recorded as failed
+	 */
+	public void recordSkipped() {
+		skipped.increment();
+	}
+	
+	/**
+	 * Records a queued notification that was replaced by a later one
+	 * with the same device token and collapse id
+	 */
+	public void recordCoalesced() {
+		coalesced.increment();
+	}
+	
+	/**
+	 * Records a queued notification that was dropped because its apns-expiration passed
+	 */
+	public void recordExpired() {
+		expired.increment();
+	}
+	
+	/**
+	 * Records a notification that could not reach APNs and was given up
+	 * by the spool to stay within its retention
+	 */
+	public void recordSpoolDropped() {
+		spoolDropped.increment();
+	}
+	
+	/**
+	 * Records the latency of a single request to APNs
+	 * @param startNanos value of System.nanoTime() when the request was sent
+	 */
+	public void recordNetwork(long startNanos) {
+		networkLatency.recordSince(startNanos);
+	}
+	
+	/**
+	 * Records the time a notification waited in the priority scheduler
+	 * @param isHighPriority true for priority 10
+	 * @param startNanos value of System.nanoTime() when the notification was queued
+	 */
+	public void recordQueueWait(boolean isHighPriority, long startNanos) {
+		(isHighPriority ? highPriorityWait : lowPriorityWait).recordSince(startNanos);
+	}
+	
+	private static void increment(ConcurrentHashMap<String, LongAdder> counters, String key) {
+		LongAdder counter = counters.get(key);
+		if (counter == null) {
+			counter = counters.computeIfAbsent(
+					counters.size() < MAX_KEYS ? key : OTHER, k -> new LongAdder());
+		}
+		counter.increment();
+	}
+	
+	public ApnsMetrics setInFlight(IntSupplier inFlight) {
+		this.inFlight = inFlight;
+		return this;
+	}
+	
+	public ApnsMetrics setQueueDepth(IntSupplier queueDepth) {
+		this.queueDepth = queueDepth;
+		return this;
+	}
+	
+	public ApnsMetrics setPriorityQueueDepth(IntSupplier highPriority, IntSupplier lowPriority) {
+		this.highPriorityQueueDepth = highPriority;
+		this.lowPriorityQueueDepth = lowPriority;
+		return this;
+	}
+	
+	public ApnsMetrics setTokenAge(LongSupplier tokenAge) {
+		this.tokenAge = tokenAge;
+		return this;
+	}
+	
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+	
+	public LatencyHistogram getNetworkLatency() {
+		return networkLatency;
+	}
+	
+	/**
+	 * @param isHighPriority true for priority 10
+	 * @return time notifications of the class waited in the priority scheduler
+	 */
+	public LatencyHistogram getQueueWait(boolean isHighPriority) {
+		return isHighPriority ? highPriorityWait : lowPriorityWait;
+	}
+	
+	/**
+	 * This method registers the metrics with the platform MBean server
+	 * as com.jdev.apns:type=ApnsMetrics,name={name}
+	 * @param name distinguishes services in the same JVM
+	 * @return this
+	 * @throws JMException if the name is invalid or already registered
+	 */
+	public synchronized ApnsMetrics register(String name) throws JMException {
+		final ObjectName objectName = new ObjectName(
+				"com.jdev.apns:type=ApnsMetrics,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		this.objectName = objectName;
+		return this;
+	}
+	
+	/**
+	 * This method removes the metrics from the platform MBean server if registered
+	 */
+	public synchronized void unregister() {
+		if (objectName == null) {
+			return;
+		}
+		
+		final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			server.unregisterMBean(objectName);
+		} catch (JMException e) {
+			LOGGER.error("Failed to unregister " + objectName, e);
+		}
+		objectName = null;
+	}
+	
+	@Override
+	public long getSent() {
+		return sent.sum();
+	}
+	
+	@Override
+	public long getAccepted() {
+		return accepted.sum();
+	}
+	
+	@Override
+	public long getRejected() {
+		return rejected.sum();
+	}
+	
+	@Override
+	public long getFailed() {
+		return failed.sum();
+	}
+	
+	@Override
+	public long getSkipped() {
+		return skipped.sum();
+	}
+	
+	@Override
+	public long getCoalesced() {
+		return coalesced.sum();
+	}
+	
+	@Override
+	public long getExpired() {
+		return expired.sum();
+	}
+	
+	@Override
+	public long getSpoolDropped() {
+		return spoolDropped.sum();
+	}
+	
+	@Override
+	public long getRetries() {
+		return retries.sum();
+	}
+	
+	@Override
+	public Map<String, Long> getRejectionsByStatus() {
+		final Map<String, Long> result = new TreeMap<>();
+		for (Map.Entry<RejectionReason, LongAdder> entry:rejectionsByStatus.entrySet()) {
+			result.put(entry.getKey().name(), entry.getValue().sum());
+		}
+		result.put(OTHER, otherStatus.sum());
+		return result;
+	}
+	
+	@Override
+	public Map<String, Long> getRejectionsByReason() {
+		return toMap(rejectionsByReason);
+	}
+	
+	@Override
+	public Map<String, Long> getSentByTopic() {
+		return toMap(sentByTopic);
+	}
+	
+	private static Map<String, Long> toMap(Map<String, LongAdder> counters) {
+		final Map<String, Long> result = new TreeMap<>();
+		for (Map.Entry<String, LongAdder> entry:counters.entrySet()) {
+			result.put(entry.getKey(), entry.getValue().sum());
+		}
+		return result;
+	}
+	
+	@Override
+	public int getInFlight() {
+		return inFlight.getAsInt();
+	}
+	
+	@Override
+	public int getQueueDepth() {
+		return queueDepth.getAsInt();
+	}
+	
+	@Override
+	public long getTokenAge() {
+		return tokenAge.getAsLong();
+	}
+	
+	@Override
+	public double getLatencyMean() {
+		return latency.getMean();
+	}
+	
+	@Override
+	public long getLatencyP50() {
+		return latency.getPercentile(50);
+	}
+	
+	@Override
+	public long getLatencyP99() {
+		return latency.getPercentile(99);
+	}
+	
+	@Override
+	public long getLatencyP999() {
+		return latency.getPercentile(99.9);
+	}
+	
+	@Override
+	public long getLatencyMax() {
+		return latency.getMax();
+	}
+	
+	@Override
+	public double getNetworkLatencyMean() {
+		return networkLatency.getMean();
+	}
+	
+	@Override
+	public long getNetworkLatencyP50() {
+		return networkLatency.getPercentile(50);
+	}
+	
+	@Override
+	public long getNetworkLatencyP99() {
+		return networkLatency.getPercentile(99);
+	}
+	
+	@Override
+	public long getNetworkLatencyP999() {
+		return networkLatency.getPercentile(99.9);
+	}
+	
+	@Override
+	public long getNetworkLatencyMax() {
+		return networkLatency.getMax();
+	}
+	
+	@Override
+	public int getHighPriorityQueueDepth() {
+		return highPriorityQueueDepth.getAsInt();
+	}
+	
+	@Override
+	public int getLowPriorityQueueDepth() {
+		return lowPriorityQueueDepth.getAsInt();
+	}
+	
+	@Override
+	public long getHighPriorityWaitP50() {
+		return highPriorityWait.getPercentile(50);
+	}
+	
+	@Override
+	public long getHighPriorityWaitP99() {
+		return highPriorityWait.getPercentile(99);
+	}
+	
+	@Override
+	public long getHighPriorityWaitMax() {
+		return highPriorityWait.getMax();
+	}
+	
+	@Override
+	public long getLowPriorityWaitP50() {
+		return lowPriorityWait.getPercentile(50);
+	}
+	
+	@Override
+	public long getLowPriorityWaitP99() {
+		return lowPriorityWait.getPercentile(99);
+	}
+	
+	@Override
+	public long getLowPriorityWaitMax() {
+		return lowPriorityWait.getMax();
+	}
+	
+	@Override
+	public void reset() {
+		for (LongAdder counter:new LongAdder[] {sent, accepted, rejected, failed, skipped, 
+				coalesced, expired, spoolDropped, retries, otherStatus}) {
+			counter.reset();
+		}
+		for (LongAdder counter:rejectionsByStatus.values()) {
+			counter.reset();
+		}
+		rejectionsByReason.clear();
+		sentByTopic.clear();
+		latency.reset();
+		networkLatency.reset();
+		highPriorityWait.reset();
+		lowPriorityWait.reset();
+	}
+	
+	@Override
+	public String toString() {
+		return "ApnsMetrics [sent=" + getSent() + ", accepted=" + getAccepted() 
+				+ ", rejected=" + getRejected() + ", failed=" + getFailed() 
+				+ ", skipped=" + getSkipped() + ", coalesced=" + getCoalesced() 
+				+ ", expired=" + getExpired() + ", spoolDropped=" + getSpoolDropped() 
+				+ ", retries=" + getRetries() 
+				+ ", inFlight=" + getInFlight() + ", latencyP99=" + getLatencyP99() + "us]";
+	}
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) [2018] [Seung Hwan, Jin]
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. 
+ */
+
+package com.jdev.apns.main.metrics;
+
+import java.util.Map;
+
+/**
+ * Management interface of ApnsMetrics published through JMX.
+ * Latencies are in microseconds
+ * 
+ * @author seunghwanjin
+ */
+public interface ApnsMetricsMBean {
+	
+	long getSent();
+	
+	long getAccepted();
+	
+	long getRejected();
+	
+	/**
+	 * @return notifications that were not sent to APNs, including skipped ones
+	 */
+	long getFailed();
+	
+	/**
+	 * @return notifications that were not sent because the device token is inactive
+	 */
+	long getSkipped();
+	
+	/**
+	 * @return queued notifications replaced by a later one 
+	 * with the same device token and collapse id; they are not counted as sent
+	 */
+	long getCoalesced();
+	
+	/**
+	 * @return queued notifications dropped because their apns-expiration passed;
+	 * they are not counted as sent
+	 */
+	long getExpired();
+	
+	/**
+	 * @return notifications that could not reach APNs and were given up by the spool,
+	 * so they are not replayed
+	 */
+	long getSpoolDropped();
+	
+	/**
+	 * @return attempts made after the first one
+	 */
+	long getRetries();
+	
+	/**
+	 * @return rejections keyed by HTTP status name
+	 */
+	Map<String, Long> getRejectionsByStatus();
+	
+	/**
+	 * @return rejections keyed by the reason APNs returned
+	 */
+	Map<String, Long> getRejectionsByReason();
+	
+	/**
+	 * @return sent notifications keyed by topic
+	 */
+	Map<String, Long> getSentByTopic();
+	
+	int getInFlight();
+	
+	int getQueueDepth();
+	
+	/**
+	 * @return age of the authentication token in milliseconds; -1 without token authentication
+	 */
+	long getTokenAge();
+	
+	double getLatencyMean();
+	
+	long getLatencyP50();
+	
+	long getLatencyP99();
+	
+	long getLatencyP999();
+	
+	long getLatencyMax();
+	
+	double getNetworkLatencyMean();
+	
+	long getNetworkLatencyP50();
+	
+	long getNetworkLatencyP99();
+	
+	long getNetworkLatencyP999();
+	
+	long getNetworkLatencyMax();
+	
+	/**
+	 * @return priority 10 notifications waiting in the priority scheduler
+	 */
+	int getHighPriorityQueueDepth();
+	
+	/**
+	 * @return notifications of lower priority waiting in the priority scheduler
+	 */
+	int getLowPriorityQueueDepth();
+	
+	long getHighPriorityWaitP50();
+	
+	long getHighPriorityWaitP99();
+	
+	long getHighPriorityWaitMax();
+	
+	long getLowPriorityWaitP50();
+	
+	long getLowPriorityWaitP99();
+	
+	long getLowPriorityWaitMax();
+	
+	/**
+	 * Clears the counters and histograms
+	 */
+	void reset();
+}
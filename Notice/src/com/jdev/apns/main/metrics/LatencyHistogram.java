@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) [2018] [Seung Hwan, Jin]
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. 
+ */
+
+package com.jdev.apns.main.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LatencyHistogram records latencies in microseconds into log-linear buckets.
+ * <p>
+ * Values below 64 have a bucket each; above that every power of two is split
+ * into 32 buckets, so a percentile is within about 3% of the recorded value.
+ * Recording is a single atomic increment with no allocation. The counts are
+ * striped over several arrays picked by thread, so concurrent senders rarely
+ * update the same cache line.
+ * 
+ * @author seunghwanjin
+ */
+public class LatencyHistogram {
+	
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	
+	/**
+	 * Largest tracked value is 2^40 microseconds, about 12 days
+	 */
+	private static final int MAX_EXPONENT = 40;
+	private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+	
+	private final AtomicLongArray[] stripes;
+	private final int mask;
+	private final LongAdder sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+	
+	public LatencyHistogram() {
+		int count = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1)) << 1;
+		count = Math.min(count, 16);
+		stripes = new AtomicLongArray[count];
+		for (int i = 0; i < count; i++) {
+			stripes[i] = new AtomicLongArray(BUCKETS);
+		}
+		mask = count - 1;
+	}
+	
+	/**
+	 * Records a latency
+	 * @param micros latency in microseconds; negative values are recorded as 0
+	 */
+	public void record(long micros) {
+		final long value = Math.max(0, micros);
+		final int stripe = (int) Thread.currentThread().getId() & mask;
+		stripes[stripe].getAndIncrement(indexOf(value));
+		sum.add(value);
+		max.accumulate(value);
+	}
+	
+	/**
+	 * Records the time elapsed since start
+	 * @param startNanos value of System.nanoTime() when the operation started
+	 */
+	public void recordSince(long startNanos) {
+		record((System.nanoTime() - startNanos) / 1000);
+	}
+	
+	static int indexOf(long value) {
+		if (value < 2 * SUB_BUCKETS) {
+			return (int) value;
+		}
+		final int exponent = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_EXPONENT);
+		if (exponent == MAX_EXPONENT && value >= 1L << (MAX_EXPONENT + 1)) {
+			return BUCKETS - 1;
+		}
+		final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) - SUB_BUCKETS;
+		return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+	}
+	
+	/**
+	 * @param index
+	 * @return largest value that is recorded in the bucket
+	 */
+	static long highestValueOf(int index) {
+		if (index < 2 * SUB_BUCKETS) {
+			return index;
+		}
+		final int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+		final int subBucket = index % SUB_BUCKETS;
+		final int shift = exponent - SUB_BUCKET_BITS;
+		return (((long) SUB_BUCKETS + subBucket) << shift) + (1L << shift) - 1;
+	}
+	
+	/**
+	 * @return counts of every bucket summed over the stripes
+	 */
+	private long[] snapshot() {
+		final long[] counts = new long[BUCKETS];
+		for (AtomicLongArray stripe:stripes) {
+			for (int i = 0; i < BUCKETS; i++) {
+				counts[i] += stripe.get(i);
+			}
+		}
+		return counts;
+	}
+	
+	/**
+	 * @return number of recorded values
+	 */
+	public long getCount() {
+		long count = 0;
+		for (long bucket:snapshot()) {
+			count += bucket;
+		}
+		return count;
+	}
+	
+	/**
+	 * @return mean of the recorded values in microseconds; 0 if there are none
+	 */
+	public double getMean() {
+		final long count = getCount();
+		return count == 0 ? 0 : (double) sum.sum() / count;
+	}
+	
+	/**
+	 * @return largest recorded value in microseconds
+	 */
+	public long getMax() {
+		return max.get();
+	}
+	
+	/**
+	 * Returns the value at the percentile.
+	 * The value is the top of the bucket it falls in, and never above the maximum
+	 * @param percentile between 0 and 100
+	 * @return latency in microseconds; 0 if nothing was recorded
+	 */
+	public long getPercentile(double percentile) {
+		final long[] counts = snapshot();
+		long count = 0;
+		for (long bucket:counts) {
+			count += bucket;
+		}
+		if (count == 0) {
+			return 0;
+		}
+		
+		final long rank = Math.max(1, (long) Math.ceil(count * Math.min(100, percentile) / 100));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min(highestValueOf(i), max.get());
+			}
+		}
+		return max.get();
+	}
+	
+	/**
+	 * Clears the recorded values
+	 */
+	public void reset() {
+		for (AtomicLongArray stripe:stripes) {
+			for (int i = 0; i < BUCKETS; i++) {
+				stripe.set(i, 0);
+			}
+		}
+		sum.reset();
+		max.reset();
+	}
+}
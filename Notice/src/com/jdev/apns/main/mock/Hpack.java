@@ -0,0 +1,337 @@
+/*
+ * Copyright (c) [2018] [Seung Hwan, Jin]
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. 
+ */
+
+package com.jdev.apns.main.mock;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * HPACK (RFC 7541) for the mock server.
+ * <p>
+ * The decoder supports the whole format: static and dynamic table,
+ * table size updates and Huffman coded strings, as clients may use any of them.
+ * The encoder writes every header as a literal without indexing and without
+ * Huffman coding, which any decoder accepts, so the server keeps no state for
+ * the headers it sends.
+ * One decoder belongs to one connection and is used by its reader thread only.
+ * 
+ * @author seunghwanjin
+ */
+final class Hpack {
+	
+	private static final String[][] STATIC_TABLE = {
+			{":authority", ""}, {":method", "GET"}, {":method", "POST"}, {":path", "/"},
+			{":path", "/index.html"}, {":scheme", "http"}, {":scheme", "https"}, {":status", "200"},
+			{":status", "204"}, {":status", "206"}, {":status", "304"}, {":status", "400"},
+			{":status", "404"}, {":status", "500"}, {"accept-charset", ""}, {"accept-encoding", "gzip, deflate"},
+			{"accept-language", ""}, {"accept-ranges", ""}, {"accept", ""}, {"access-control-allow-origin", ""},
+			{"age", ""}, {"allow", ""}, {"authorization", ""}, {"cache-control", ""},
+			{"content-disposition", ""}, {"content-encoding", ""}, {"content-language", ""}, {"content-length", ""},
+			{"content-location", ""}, {"content-range", ""}, {"content-type", ""}, {"cookie", ""},
+			{"date", ""}, {"etag", ""}, {"expect", ""}, {"expires", ""},
+			{"from", ""}, {"host", ""}, {"if-match", ""}, {"if-modified-since", ""},
+			{"if-none-match", ""}, {"if-range", ""}, {"if-unmodified-since", ""}, {"last-modified", ""},
+			{"link", ""}, {"location", ""}, {"max-forwards", ""}, {"proxy-authenticate", ""},
+			{"proxy-authorization", ""}, {"range", ""}, {"referer", ""}, {"refresh", ""},
+			{"retry-after", ""}, {"server", ""}, {"set-cookie", ""}, {"strict-transport-security", ""},
+			{"transfer-encoding", ""}, {"user-agent", ""}, {"vary", ""}, {"via", ""},
+			{"www-authenticate", ""}
+	};
+	
+	/**
+	 * Huffman codes of RFC 7541 Appendix B, indexed by symbol; 256 is EOS
+	 */
+	private static final int[] HUFFMAN_CODES = {
+			0x1ff8, 0x7fffd8, 0xfffffe2, 0xfffffe3, 0xfffffe4, 0xfffffe5, 0xfffffe6, 0xfffffe7,
+			0xfffffe8, 0xffffea, 0x3ffffffc, 0xfffffe9, 0xfffffea, 0x3ffffffd, 0xfffffeb, 0xfffffec,
+			0xfffffed, 0xfffffee, 0xfffffef, 0xffffff0, 0xffffff1, 0xffffff2, 0x3ffffffe, 0xffffff3,
+			0xffffff4, 0xffffff5, 0xffffff6, 0xffffff7, 0xffffff8, 0xffffff9, 0xffffffa, 0xffffffb,
+			0x14, 0x3f8, 0x3f9, 0xffa, 0x1ff9, 0x15, 0xf8, 0x7fa,
+			0x3fa, 0x3fb, 0xf9, 0x7fb, 0xfa, 0x16, 0x17, 0x18,
+			0x0, 0x1, 0x2, 0x19, 0x1a, 0x1b, 0x1c, 0x1d,
+			0x1e, 0x1f, 0x5c, 0xfb, 0x7ffc, 0x20, 0xffb, 0x3fc,
+			0x1ffa, 0x21, 0x5d, 0x5e, 0x5f, 0x60, 0x61, 0x62,
+			0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69, 0x6a,
+			0x6b, 0x6c, 0x6d, 0x6e, 0x6f, 0x70, 0x71, 0x72,
+			0xfc, 0x73, 0xfd, 0x1ffb, 0x7fff0, 0x1ffc, 0x3ffc, 0x22,
+			0x7ffd, 0x3, 0x23, 0x4, 0x24, 0x5, 0x25, 0x26,
+			0x27, 0x6, 0x74, 0x75, 0x28, 0x29, 0x2a, 0x7,
+			0x2b, 0x76, 0x2c, 0x8, 0x9, 0x2d, 0x77, 0x78,
+			0x79, 0x7a, 0x7b, 0x7ffe, 0x7fc, 0x3ffd, 0x1ffd, 0xffffffc,
+			0xfffe6, 0x3fffd2, 0xfffe7, 0xfffe8, 0x3fffd3, 0x3fffd4, 0x3fffd5, 0x7fffd9,
+			0x3fffd6, 0x7fffda, 0x7fffdb, 0x7fffdc, 0x7fffdd, 0x7fffde, 0xffffeb, 0x7fffdf,
+			0xffffec, 0xffffed, 0x3fffd7, 0x7fffe0, 0xffffee, 0x7fffe1, 0x7fffe2, 0x7fffe3,
+			0x7fffe4, 0x1fffdc, 0x3fffd8, 0x7fffe5, 0x3fffd9, 0x7fffe6, 0x7fffe7, 0xffffef,
+			0x3fffda, 0x1fffdd, 0xfffe9, 0x3fffdb, 0x3fffdc, 0x7fffe8, 0x7fffe9, 0x1fffde,
+			0x7fffea, 0x3fffdd, 0x3fffde, 0xfffff0, 0x1fffdf, 0x3fffdf, 0x7fffeb, 0x7fffec,
+			0x1fffe0, 0x1fffe1, 0x3fffe0, 0x1fffe2, 0x7fffed, 0x3fffe1, 0x7fffee, 0x7fffef,
+			0xfffea, 0x3fffe2, 0x3fffe3, 0x3fffe4, 0x7ffff0, 0x3fffe5, 0x3fffe6, 0x7ffff1,
+			0x3ffffe0, 0x3ffffe1, 0xfffeb, 0x7fff1, 0x3fffe7, 0x7ffff2, 0x3fffe8, 0x1ffffec,
+			0x3ffffe2, 0x3ffffe3, 0x3ffffe4, 0x7ffffde, 0x7ffffdf, 0x3ffffe5, 0xfffff1, 0x1ffffed,
+			0x7fff2, 0x1fffe3, 0x3ffffe6, 0x7ffffe0, 0x7ffffe1, 0x3ffffe7, 0x7ffffe2, 0xfffff2,
+			0x1fffe4, 0x1fffe5, 0x3ffffe8, 0x3ffffe9, 0xffffffd, 0x7ffffe3, 0x7ffffe4, 0x7ffffe5,
+			0xfffec, 0xfffff3, 0xfffed, 0x1fffe6, 0x3fffe9, 0x1fffe7, 0x1fffe8, 0x7ffff3,
+			0x3fffea, 0x3fffeb, 0x1ffffee, 0x1ffffef, 0xfffff4, 0xfffff5, 0x3ffffea, 0x7ffff4,
+			0x3ffffeb, 0x7ffffe6, 0x3ffffec, 0x3ffffed, 0x7ffffe7, 0x7ffffe8, 0x7ffffe9, 0x7ffffea,
+			0x7ffffeb, 0xffffffe, 0x7ffffec, 0x7ffffed, 0x7ffffee, 0x7ffffef, 0x7fffff0, 0x3ffffee,
+			0x3fffffff
+	};
+	
+	private static final byte[] HUFFMAN_LENGTHS = {
+			13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+			28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+			6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+			5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+			13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+			7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+			15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+			6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+			20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+			24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+			22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+			21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+			26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+			19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+			20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+			26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+			30
+	};
+	
+	/**
+	 * Huffman decoding tree; children of node n are at 2n and 2n+1,
+	 * leaves hold the symbol plus one as a negative value
+	 */
+	private static final int[] HUFFMAN_TREE = buildTree();
+	
+	private static int[] buildTree() {
+		//257 leaves need 256 inner nodes with two children each
+		final int[] tree = new int[2 * (HUFFMAN_CODES.length - 1)];
+		int nodes = 1;
+		for (int symbol = 0; symbol < HUFFMAN_CODES.length; symbol++) {
+			int node = 0;
+			for (int bit = HUFFMAN_LENGTHS[symbol] - 1; bit >= 0; bit--) {
+				final int child = 2 * node + ((HUFFMAN_CODES[symbol] >>> bit) & 1);
+				if (bit == 0) {
+					tree[child] = -(symbol + 1);
+				} else {
+					if (tree[child] == 0) {
+						tree[child] = nodes++;
+					}
+					node = tree[child];
+				}
+			}
+		}
+		return tree;
+	}
+	
+	/**
+	 * Receives the decoded headers of a header block
+	 */
+	interface HeaderListener {
+		void onHeader(String name, String value);
+	}
+	
+	/**
+	 * Dynamic table, newest entry first
+	 */
+	private final ArrayDeque<String[]> dynamicTable = new ArrayDeque<>();
+	private int dynamicTableSize;
+	private int maxDynamicTableSize;
+	
+	/**
+	 * @param maxTableSize SETTINGS_HEADER_TABLE_SIZE announced by the server
+	 */
+	Hpack(int maxTableSize) {
+		this.maxDynamicTableSize = maxTableSize;
+	}
+	
+	/**
+	 * Decodes a complete header block
+	 * @param block
+	 * @param length
+	 * @param listener
+	 * @throws IOException if the block is malformed (a COMPRESSION_ERROR)
+	 */
+	void decode(byte[] block, int length, HeaderListener listener) throws IOException {
+		final int[] position = {0};
+		while (position[0] < length) {
+			final int b = block[position[0]] & 0xff;
+			if ((b & 0x80) != 0) {//indexed header field
+				final String[] entry = get(readInt(block, length, position, 7));
+				listener.onHeader(entry[0], entry[1]);
+			} else if ((b & 0x40) != 0) {//literal with incremental indexing
+				final String[] entry = readLiteral(block, length, position, 6);
+				add(entry);
+				listener.onHeader(entry[0], entry[1]);
+			} else if ((b & 0x20) != 0) {//dynamic table size update
+				maxDynamicTableSize = readInt(block, length, position, 5);
+				evict();
+			} else {//literal without indexing or never indexed
+				final String[] entry = readLiteral(block, length, position, 4);
+				listener.onHeader(entry[0], entry[1]);
+			}
+		}
+	}
+	
+	private String[] readLiteral(byte[] block, int length, int[] position, int prefix) throws IOException {
+		final int index = readInt(block, length, position, prefix);
+		final String name = index == 0 ? readString(block, length, position) : get(index)[0];
+		return new String[] {name, readString(block, length, position)};
+	}
+	
+	private String[] get(int index) throws IOException {
+		if (index >= 1 && index <= STATIC_TABLE.length) {
+			return STATIC_TABLE[index - 1];
+		}
+		
+		int position = index - STATIC_TABLE.length - 1;
+		if (index < 1 || position >= dynamicTable.size()) {
+			throw new IOException("Invalid header index " + index);
+		}
+		final Iterator<String[]> entries = dynamicTable.iterator();
+		while (position-- > 0) {
+			entries.next();
+		}
+		return entries.next();
+	}
+	
+	private void add(String[] entry) {
+		dynamicTable.addFirst(entry);
+		dynamicTableSize += size(entry);
+		evict();
+	}
+	
+	private void evict() {
+		while (dynamicTableSize > maxDynamicTableSize && !dynamicTable.isEmpty()) {
+			dynamicTableSize -= size(dynamicTable.removeLast());
+		}
+	}
+	
+	private static int size(String[] entry) {
+		return 32 + entry[0].getBytes(StandardCharsets.UTF_8).length 
+				+ entry[1].getBytes(StandardCharsets.UTF_8).length;
+	}
+	
+	private static int readInt(byte[] block, int length, int[] position, int prefix) throws IOException {
+		final int mask = (1 << prefix) - 1;
+		int value = block[position[0]++] & mask;
+		if (value < mask) {
+			return value;
+		}
+		
+		int shift = 0;
+		int b;
+		do {
+			if (position[0] >= length || shift > 21) {
+				throw new IOException("Invalid integer in header block");
+			}
+			b = block[position[0]++] & 0xff;
+			value += (b & 0x7f) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return value;
+	}
+	
+	private static String readString(byte[] block, int length, int[] position) throws IOException {
+		if (position[0] >= length) {
+			throw new IOException("Truncated header block");
+		}
+		final boolean isHuffman = (block[position[0]] & 0x80) != 0;
+		final int size = readInt(block, length, position, 7);
+		if (position[0] + size > length) {
+			throw new IOException("Truncated header block");
+		}
+		
+		final int start = position[0];
+		position[0] += size;
+		if (!isHuffman) {
+			return new String(block, start, size, StandardCharsets.UTF_8);
+		}
+		return huffmanDecode(block, start, size);
+	}
+	
+	private static String huffmanDecode(byte[] block, int start, int size) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream(size * 8 / 5 + 1);
+		int node = 0;
+		int depth = 0;
+		for (int i = start; i < start + size; i++) {
+			for (int bit = 7; bit >= 0; bit--) {
+				final int next = HUFFMAN_TREE[2 * node + ((block[i] >>> bit) & 1)];
+				if (next < 0) {
+					if (next == -257) {
+						throw new IOException("EOS in Huffman string");
+					}
+					out.write(-next - 1);
+					node = 0;
+					depth = 0;
+				} else if (next == 0) {
+					throw new IOException("Invalid Huffman code");
+				} else {
+					node = next;
+					depth++;
+				}
+			}
+		}
+		//padding is the most significant bits of EOS: fewer than 8 ones
+		if (depth > 7) {
+			throw new IOException("Invalid Huffman padding");
+		}
+		return new String(out.toByteArray(), StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * Encodes a header block of literals without indexing
+	 * @param headers names must be lower case
+	 * @return header block
+	 */
+	static byte[] encode(Map<String, String> headers) {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+		for (Map.Entry<String, String> header:headers.entrySet()) {
+			out.write(0);
+			writeString(out, header.getKey());
+			writeString(out, header.getValue());
+		}
+		return out.toByteArray();
+	}
+	
+	private static void writeString(ByteArrayOutputStream out, String value) {
+		final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		int length = bytes.length;
+		if (length < 0x7f) {
+			out.write(length);
+		} else {
+			out.write(0x7f);
+			length -= 0x7f;
+			while (length >= 0x80) {
+				out.write((length & 0x7f) | 0x80);
+				length >>>= 7;
+			}
+			out.write(length);
+		}
+		out.write(bytes, 0, bytes.length);
+	}
+}
@@ -0,0 +1,453 @@
+/*
+ * Copyright (c) [2018] [Seung Hwan, Jin]
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. 
+ */
+
+package com.jdev.apns.main.mock;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLSocket;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Http2Connection serves one client connection of MockApnsServer (RFC 7540).
+ * <p>
+ * A reader thread parses frames and collects each request's headers and body.
+ * Complete requests are passed to the server, which answers them later from
+ * another thread through writeResponse(). Writes are serialized on the output stream.
+ * Requests beyond the advertised SETTINGS_MAX_CONCURRENT_STREAMS are refused
+ * with RST_STREAM. Flow control is handled by granting a large receive window
+ * and topping it up; response bodies are small enough to never need it.
+ * 
+ * @author seunghwanjin
+ */
+final class Http2Connection implements Runnable {
+	/**
+	 * Logger for class Http2Connection
+	 */
+	private final static Logger LOGGER = Logger.getLogger(Http2Connection.class);
+	
+	private static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+	
+	private static final int DATA = 0x0;
+	private static final int HEADERS = 0x1;
+	private static final int RST_STREAM = 0x3;
+	private static final int SETTINGS = 0x4;
+	private static final int PING = 0x6;
+	private static final int GOAWAY = 0x7;
+	private static final int WINDOW_UPDATE = 0x8;
+	private static final int CONTINUATION = 0x9;
+	
+	private static final int END_STREAM = 0x1;
+	private static final int ACK = 0x1;
+	private static final int END_HEADERS = 0x4;
+	private static final int PADDED = 0x8;
+	private static final int PRIORITY = 0x20;
+	
+	private static final int NO_ERROR = 0x0;
+	private static final int PROTOCOL_ERROR = 0x1;
+	private static final int FRAME_SIZE_ERROR = 0x6;
+	private static final int REFUSED_STREAM = 0x7;
+	private static final int COMPRESSION_ERROR = 0x9;
+	
+	private static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+	private static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+	private static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+	
+	private static final int MAX_FRAME_SIZE = 16384;
+	private static final int HEADER_TABLE_SIZE = 4096;
+	private static final int WINDOW_SIZE = 1 << 24;
+	private static final long DRAIN_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
+	
+	/**
+	 * A request whose headers or body are still arriving
+	 */
+	private static final class Stream {
+		private final int id;
+		private final boolean hasBody;
+		private final Map<String, String> headers = new HashMap<>();
+		private final ByteArrayOutputStream block = new ByteArrayOutputStream();
+		private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+		
+		private Stream(int id, boolean hasBody) {
+			this.id = id;
+			this.hasBody = hasBody;
+		}
+	}
+	
+	private final MockApnsServer server;
+	private final SSLSocket socket;
+	private final int maxConcurrentStreams;
+	private final Hpack decoder = new Hpack(HEADER_TABLE_SIZE);
+	
+	private DataInputStream in;
+	private OutputStream out;
+	
+	/**
+	 * Requests receiving headers or body; used by the reader thread only
+	 */
+	private final Map<Integer, Stream> streams = new HashMap<>();
+	private Stream continuation;
+	private int consumed;
+	
+	/**
+	 * Requests waiting for their response
+	 */
+	private final AtomicInteger pending = new AtomicInteger();
+	private volatile boolean isClosed;
+	
+	Http2Connection(MockApnsServer server, SSLSocket socket, int maxConcurrentStreams) {
+		this.server = server;
+		this.socket = socket;
+		this.maxConcurrentStreams = maxConcurrentStreams;
+	}
+	
+	@Override
+	public void run() {
+		try {
+			socket.startHandshake();
+			if (!"h2".equals(socket.getApplicationProtocol())) {
+				LOGGER.debug("Client did not negotiate HTTP/2: " + socket.getApplicationProtocol());
+				return;
+			}
+			
+			in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 32 * 1024));
+			out = new BufferedOutputStream(socket.getOutputStream(), 32 * 1024);
+			final byte[] preface = new byte[PREFACE.length];
+			in.readFully(preface);
+			if (!Arrays.equals(preface, PREFACE)) {
+				throw new IOException("Invalid connection preface");
+			}
+			
+			final byte[] settings = new byte[18];
+			putSetting(settings, 0, SETTINGS_MAX_CONCURRENT_STREAMS, maxConcurrentStreams);
+			putSetting(settings, 6, SETTINGS_INITIAL_WINDOW_SIZE, WINDOW_SIZE);
+			putSetting(settings, 12, SETTINGS_HEADER_TABLE_SIZE, HEADER_TABLE_SIZE);
+			synchronized (this) {
+				writeFrame(SETTINGS, 0, 0, settings, 0, settings.length);
+				writeWindowUpdate(0, WINDOW_SIZE - 65535);
+				out.flush();
+			}
+			
+			while (!isClosed && readFrame()) {
+				//frames are handled as they are read
+			}
+			awaitPending();
+		} catch (SocketException e) {
+			LOGGER.debug("Connection closed: " + e.getMessage());
+		} catch (IOException e) {
+			LOGGER.debug("Connection failed", e);
+		} finally {
+			close();
+		}
+	}
+	
+	/**
+	 * Reads and handles one frame
+	 * @return false when the client sent GOAWAY
+	 */
+	private boolean readFrame() throws IOException {
+		final int length = (in.readUnsignedByte() << 16) | in.readUnsignedShort();
+		final int type = in.readUnsignedByte();
+		final int flags = in.readUnsignedByte();
+		final int streamId = in.readInt() & 0x7fffffff;
+		if (length > MAX_FRAME_SIZE) {
+			goAway(FRAME_SIZE_ERROR);
+			return false;
+		}
+		final byte[] payload = new byte[length];
+		in.readFully(payload);
+		
+		if (continuation != null && type != CONTINUATION) {
+			goAway(PROTOCOL_ERROR);
+			return false;
+		}
+		
+		switch (type) {
+		case HEADERS: {
+			int offset = 0;
+			int padding = 0;
+			if ((flags & PADDED) != 0) {
+				padding = payload[0] & 0xff;
+				offset = 1;
+			}
+			if ((flags & PRIORITY) != 0) {
+				offset += 5;
+			}
+			final Stream stream = new Stream(streamId, (flags & END_STREAM) == 0);
+			stream.block.write(payload, offset, length - offset - padding);
+			if ((flags & END_HEADERS) != 0) {
+				onHeaders(stream);
+			} else {
+				continuation = stream;
+			}
+			break;
+		}
+		case CONTINUATION: {
+			final Stream stream = continuation;
+			if (stream == null || stream.id != streamId) {
+				goAway(PROTOCOL_ERROR);
+				return false;
+			}
+			stream.block.write(payload, 0, length);
+			if ((flags & END_HEADERS) != 0) {
+				continuation = null;
+				onHeaders(stream);
+			}
+			break;
+		}
+		case DATA: {
+			int offset = 0;
+			int padding = 0;
+			if ((flags & PADDED) != 0) {
+				padding = payload[0] & 0xff;
+				offset = 1;
+			}
+			final Stream stream = streams.get(streamId);
+			if (stream != null) {
+				stream.body.write(payload, offset, length - offset - padding);
+				if ((flags & END_STREAM) != 0) {
+					streams.remove(streamId);
+					onRequest(stream);
+				}
+			}
+			onDataConsumed(length);
+			break;
+		}
+		case SETTINGS:
+			if ((flags & ACK) == 0) {
+				synchronized (this) {
+					writeFrame(SETTINGS, ACK, 0, payload, 0, 0);
+					out.flush();
+				}
+			}
+			break;
+		case PING:
+			if ((flags & ACK) == 0) {
+				synchronized (this) {
+					writeFrame(PING, ACK, 0, payload, 0, length);
+					out.flush();
+				}
+			}
+			break;
+		case RST_STREAM:
+			streams.remove(streamId);
+			break;
+		case GOAWAY:
+			//streams the client already sent are still answered, see awaitPending
+			LOGGER.debug("Client sent GOAWAY with error " 
+					+ (length >= 8 ? ByteBuffer.wrap(payload, 4, 4).getInt() : -1));
+			return false;
+		default:
+			//PRIORITY, WINDOW_UPDATE and unknown frames need no action
+			break;
+		}
+		return true;
+	}
+	
+	/**
+	 * This method waits until the responses of the accepted requests are written,
+	 * so that a client going away still receives them
+	 */
+	private synchronized void awaitPending() {
+		final long deadline = System.nanoTime() + DRAIN_TIMEOUT_NANOS;
+		long remaining;
+		while (!isClosed && pending.get() > 0 && (remaining = deadline - System.nanoTime()) > 0) {
+			try {
+				TimeUnit.NANOSECONDS.timedWait(this, remaining);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * This method decodes the header block of a new request.
+	 * The block is decoded even if the request is refused,
+	 * so that the HPACK table stays in step with the client
+	 */
+	private void onHeaders(Stream stream) throws IOException {
+		final byte[] block = stream.block.toByteArray();
+		try {
+			decoder.decode(block, block.length, stream.headers::put);
+		} catch (IOException e) {
+			LOGGER.debug("Invalid header block", e);
+			goAway(COMPRESSION_ERROR);
+			throw e;
+		}
+		
+		if (pending.get() + streams.size() >= maxConcurrentStreams) {
+			server.onRefused();
+			synchronized (this) {
+				writeRstStream(stream.id, REFUSED_STREAM);
+				out.flush();
+			}
+			return;
+		}
+		
+		if (stream.hasBody) {
+			streams.put(stream.id, stream);
+		} else {
+			onRequest(stream);
+		}
+	}
+	
+	private void onRequest(Stream stream) {
+		pending.incrementAndGet();
+		server.onRequest(this, stream.id, stream.headers, stream.body.toByteArray());
+	}
+	
+	/**
+	 * This method gives the client back the receive window it used
+	 * once half of the window is used
+	 */
+	private void onDataConsumed(int length) throws IOException {
+		consumed += length;
+		if (consumed >= WINDOW_SIZE / 2) {
+			synchronized (this) {
+				writeWindowUpdate(0, consumed);
+				out.flush();
+			}
+			consumed = 0;
+		}
+	}
+	
+	/**
+	 * Writes the response of a request
+	 * @param streamId
+	 * @param headers header block encoded by Hpack
+	 * @param body null for a response without body
+	 */
+	void writeResponse(int streamId, byte[] headers, byte[] body) {
+		if (isClosed) {
+			pending.decrementAndGet();
+			return;
+		}
+		
+		try {
+			synchronized (this) {
+				writeFrame(HEADERS, END_HEADERS | (body == null ? END_STREAM : 0), 
+						streamId, headers, 0, headers.length);
+				if (body != null) {
+					writeFrame(DATA, END_STREAM, streamId, body, 0, body.length);
+				}
+				out.flush();
+				if (pending.decrementAndGet() == 0) {
+					notifyAll();
+				}
+			}
+		} catch (IOException e) {
+			LOGGER.debug("Failed to write response", e);
+			pending.decrementAndGet();
+			close();
+		}
+	}
+	
+	private void writeFrame(int type, int flags, int streamId, byte[] payload, int offset, int length) 
+			throws IOException {
+		out.write(length >>> 16);
+		out.write(length >>> 8);
+		out.write(length);
+		out.write(type);
+		out.write(flags);
+		writeInt(streamId);
+		out.write(payload, offset, length);
+	}
+	
+	private void writeInt(int value) throws IOException {
+		out.write(value >>> 24);
+		out.write(value >>> 16);
+		out.write(value >>> 8);
+		out.write(value);
+	}
+	
+	private void writeWindowUpdate(int streamId, int increment) throws IOException {
+		final byte[] payload = {(byte) (increment >>> 24), (byte) (increment >>> 16), 
+				(byte) (increment >>> 8), (byte) increment};
+		writeFrame(WINDOW_UPDATE, 0, streamId, payload, 0, 4);
+	}
+	
+	private void writeRstStream(int streamId, int errorCode) throws IOException {
+		final byte[] payload = {(byte) (errorCode >>> 24), (byte) (errorCode >>> 16), 
+				(byte) (errorCode >>> 8), (byte) errorCode};
+		writeFrame(RST_STREAM, 0, streamId, payload, 0, 4);
+	}
+	
+	private void goAway(int errorCode) {
+		final byte[] payload = new byte[8];
+		payload[4] = (byte) (errorCode >>> 24);
+		payload[5] = (byte) (errorCode >>> 16);
+		payload[6] = (byte) (errorCode >>> 8);
+		payload[7] = (byte) errorCode;
+		try {
+			synchronized (this) {
+				writeFrame(GOAWAY, 0, 0, payload, 0, payload.length);
+				out.flush();
+			}
+		} catch (IOException e) {
+			LOGGER.debug("Failed to write GOAWAY", e);
+		}
+	}
+	
+	private static void putSetting(byte[] settings, int offset, int id, int value) {
+		settings[offset] = (byte) (id >>> 8);
+		settings[offset + 1] = (byte) id;
+		settings[offset + 2] = (byte) (value >>> 24);
+		settings[offset + 3] = (byte) (value >>> 16);
+		settings[offset + 4] = (byte) (value >>> 8);
+		settings[offset + 5] = (byte) value;
+	}
+	
+	/**
+	 * Sends GOAWAY if the connection is open and closes the socket
+	 */
+	synchronized void close() {
+		if (isClosed) {
+			return;
+		}
+		if (out != null && !socket.isClosed()) {
+			goAway(NO_ERROR);
+		}
+		isClosed = true;
+		notifyAll();
+		try {
+			socket.close();
+		} catch (IOException e) {
+			LOGGER.debug("Failed to close connection", e);
+		}
+		server.onClosed(this);
+	}
+}
@@ -0,0 +1,477 @@
+/*
+ * Copyright (c) [2018] [Seung Hwan, Jin]
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. 
+ */
+
+package com.jdev.apns.main.mock;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+import java.util.regex.Pattern;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+
+import org.apache.log4j.Logger;
+
+import com.jdev.apns.main.model.Headers;
+import com.jdev.apns.main.util.PayloadBuilder;
+
+/**
+ * MockApnsServer is an in-process stand-in for APNs that serves
+ * POST /3/device/{token} over TLS and HTTP/2 on the loopback address.
+ * <p>
+ * Requests are checked the way APNs checks them: the path and device token,
+ * the apns-* headers, the authorization header and the payload size.
+ * Invalid requests get the status and reason JSON APNs would send.
+ * Valid requests are accepted, unless a configured fault is drawn:
+ * each fault has a status, a reason and a probability.
+ * Responses are delayed by a configurable latency distribution, and
+ * SETTINGS_MAX_CONCURRENT_STREAMS is advertised and enforced per connection.
+ * <p>
+ * The certificate is self-signed for 127.0.0.1 and localhost;
+ * clients trust it through newClientContext().
+ * <pre>
+ * MockApnsServer server = new MockApnsServer()
+ * 	.setLogNormalLatency(Duration.ofMillis(20), Duration.ofMillis(120))
+ * 	.addFault(429, "TooManyRequests", 0.01)
+ * 	.start();
+ * ApnsServiceBuilder service = new ApnsServiceBuilder()
+ * 	.setApnsHost(server.getHost(), server.getPort())
+ * 	.setSSLContext(server.newClientContext());
+ * </pre>
+ * 
+ * @author seunghwanjin
+ */
+public class MockApnsServer implements AutoCloseable {
+	/**
+	 * Logger for class MockApnsServer
+	 */
+	private final static Logger LOGGER = Logger.getLogger(MockApnsServer.class);
+	
+	/**
+	 * Default limit of concurrent streams per connection, as APNs advertises
+	 */
+	public static final int DEFAULT_MAX_CONCURRENT_STREAMS = 1000;
+	
+	private static final String KEYSTORE = "mock-apns.p12";
+	private static final char[] PASSWORD = "changeit".toCharArray();
+	private static final String DEVICE_PATH = "/3/device/";
+	private static final Pattern DEVICE_TOKEN = Pattern.compile("([0-9a-fA-F]{2}){32,100}");
+	private static final Pattern UUID_FORMAT = Pattern.compile(
+			"[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}");
+	
+	/**
+	 * Status and reason sent with the given probability
+	 */
+	private static final class Fault {
+		private final int status;
+		private final String reason;
+		private final double probability;
+		
+		private Fault(int status, String reason, double probability) {
+			this.status = status;
+			this.reason = reason;
+			this.probability = probability;
+		}
+	}
+	
+	private int port = 0;
+	private int maxConcurrentStreams = DEFAULT_MAX_CONCURRENT_STREAMS;
+	private int responderThreads = 2;
+	private LongSupplier latency = () -> 0;
+	private final List<Fault> faults = new ArrayList<>();
+	
+	private KeyStore keyStore;
+	private SSLServerSocket serverSocket;
+	private ExecutorService connectionThreads;
+	private ScheduledExecutorService responder;
+	private final Set<Http2Connection> connections = ConcurrentHashMap.newKeySet();
+	private volatile boolean isClosed;
+	
+	private final LongAdder received = new LongAdder();
+	private final LongAdder accepted = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+	private final LongAdder refused = new LongAdder();
+	
+	/**
+	 * Sets the port to listen on; 0 picks a free port
+	 * @param port
+	 * @return this
+	 */
+	public MockApnsServer setPort(int port) {
+		this.port = port;
+		return this;
+	}
+	
+	/**
+	 * Sets the concurrent streams allowed per connection;
+	 * streams beyond it are refused with RST_STREAM
+	 * @param maxConcurrentStreams
+	 * @return this
+	 */
+	public MockApnsServer setMaxConcurrentStreams(int maxConcurrentStreams) {
+		this.maxConcurrentStreams = maxConcurrentStreams;
+		return this;
+	}
+	
+	/**
+	 * Sets the threads that write delayed responses
+	 * Default value is 2
+	 * @param responderThreads
+	 * @return this
+	 */
+	public MockApnsServer setResponderThreads(int responderThreads) {
+		this.responderThreads = responderThreads;
+		return this;
+	}
+	
+	/**
+	 * Delays every response by the same time
+	 * @param latency
+	 * @return this
+	 */
+	public MockApnsServer setLatency(Duration latency) {
+		final long nanos = latency.toNanos();
+		this.latency = () -> nanos;
+		return this;
+	}
+	
+	/**
+	 * Delays each response by a time drawn from the supplier
+	 * @param latency supplies delays in nanoseconds; called from connection threads
+	 * @return this
+	 */
+	public MockApnsServer setLatency(LongSupplier latency) {
+		this.latency = latency;
+		return this;
+	}
+	
+	/**
+	 * Delays responses by a log-normal distribution, which has the long tail
+	 * of real network latency
+	 * @param median
+	 * @param p99 99th percentile; must not be below the median
+	 * @return this
+	 */
+	public MockApnsServer setLogNormalLatency(Duration median, Duration p99) {
+		final double mu = Math.log(median.toNanos());
+		//2.326 is the 99th percentile of the standard normal distribution
+		final double sigma = Math.log((double) p99.toNanos() / median.toNanos()) / 2.326;
+		this.latency = () -> (long) Math.exp(mu + sigma * ThreadLocalRandom.current().nextGaussian());
+		return this;
+	}
+	
+	/**
+	 * Rejects valid requests with the status and reason at the given probability.
+	 * Faults are drawn independently of each other; 
+	 * e.g. 410 Unregistered, 429 TooManyRequests, 500 InternalServerError,
+	 * 503 ServiceUnavailable, 403 ExpiredProviderToken, 400 BadDeviceToken
+	 * @param status HTTP status
+	 * @param reason reason in the JSON body
+	 * @param probability between 0 and 1
+	 * @return this
+	 */
+	public MockApnsServer addFault(int status, String reason, double probability) {
+		faults.add(new Fault(status, reason, probability));
+		return this;
+	}
+	
+	/**
+	 * Starts listening on the loopback address
+	 * @return this
+	 * @throws IOException
+	 * @throws GeneralSecurityException if the certificate cannot be loaded
+	 */
+	public MockApnsServer start() throws IOException, GeneralSecurityException {
+		keyStore = KeyStore.getInstance("PKCS12");
+		try (InputStream in = MockApnsServer.class.getResourceAsStream(KEYSTORE)) {
+			if (in == null) {
+				throw new IOException("Certificate " + KEYSTORE + " is not found");
+			}
+			keyStore.load(in, PASSWORD);
+		}
+		final KeyManagerFactory keyManagers = 
+				KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		keyManagers.init(keyStore, PASSWORD);
+		final SSLContext context = SSLContext.getInstance("TLS");
+		context.init(keyManagers.getKeyManagers(), null, null);
+		
+		serverSocket = (SSLServerSocket) context.getServerSocketFactory().createServerSocket();
+		final SSLParameters parameters = serverSocket.getSSLParameters();
+		parameters.setApplicationProtocols(new String[] {"h2"});
+		serverSocket.setSSLParameters(parameters);
+		serverSocket.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+		
+		final AtomicInteger count = new AtomicInteger();
+		connectionThreads = Executors.newCachedThreadPool(runnable -> 
+			daemon(runnable, "mock-apns-connection-" + count.getAndIncrement()));
+		responder = Executors.newScheduledThreadPool(responderThreads, runnable -> 
+			daemon(runnable, "mock-apns-responder-" + count.getAndIncrement()));
+		connectionThreads.execute(this::acceptConnections);
+		LOGGER.info("Mock APNs server listening on " + getHost() + ":" + getPort());
+		return this;
+	}
+	
+	private static Thread daemon(Runnable runnable, String name) {
+		final Thread thread = new Thread(runnable, name);
+		thread.setDaemon(true);
+		return thread;
+	}
+	
+	private void acceptConnections() {
+		while (!isClosed) {
+			try {
+				final SSLSocket socket = (SSLSocket) serverSocket.accept();
+				socket.setTcpNoDelay(true);
+				LOGGER.debug("Accepted connection from " + socket.getRemoteSocketAddress());
+				final Http2Connection connection = new Http2Connection(this, socket, maxConcurrentStreams);
+				connections.add(connection);
+				connectionThreads.execute(connection);
+			} catch (SocketException e) {
+				if (!isClosed) {
+					LOGGER.error("Failed to accept connection", e);
+				}
+			} catch (IOException e) {
+				LOGGER.error("Failed to accept connection", e);
+			}
+		}
+	}
+	
+	/**
+	 * This method answers a complete request after the drawn latency
+	 * @param connection
+	 * @param streamId
+	 * @param headers request headers, including pseudo-headers
+	 * @param body payload
+	 */
+	void onRequest(Http2Connection connection, int streamId, Map<String, String> headers, byte[] body) {
+		received.increment();
+		
+		String apnsId = headers.get(Headers.ID.key());
+		if (apnsId == null || !UUID_FORMAT.matcher(apnsId).matches()) {
+			apnsId = UUID.randomUUID().toString();
+		}
+		final Map<String, String> responseHeaders = new LinkedHashMap<>();
+		responseHeaders.put(":status", "200");
+		responseHeaders.put(Headers.ID.key(), apnsId);
+		
+		byte[] responseBody = null;
+		final Fault fault = check(headers, body);
+		if (fault != null) {
+			rejected.increment();
+			responseHeaders.put(":status", String.valueOf(fault.status));
+			responseHeaders.put("content-type", "application/json");
+			String json = "{\"reason\":\"" + fault.reason + "\"";
+			if (fault.status == 410) {
+				json += ",\"timestamp\":" + System.currentTimeMillis();
+			}
+			responseBody = (json + "}").getBytes(StandardCharsets.UTF_8);
+		} else {
+			accepted.increment();
+		}
+		
+		final byte[] block = Hpack.encode(responseHeaders);
+		final byte[] payload = responseBody;
+		final long delay = latency.getAsLong();
+		if (delay <= 0) {
+			connection.writeResponse(streamId, block, payload);
+		} else {
+			try {
+				responder.schedule(() -> connection.writeResponse(streamId, block, payload), 
+						delay, TimeUnit.NANOSECONDS);
+			} catch (RuntimeException e) {
+				//the server is closing
+				connection.writeResponse(streamId, block, payload);
+			}
+		}
+	}
+	
+	/**
+	 * This method checks the request as APNs would and then draws the faults
+	 * @return the rejection, {@value null} to accept the request
+	 */
+	private Fault check(Map<String, String> headers, byte[] body) {
+		final String path = headers.get(":path");
+		if (!"POST".equals(headers.get(":method"))) {
+			return new Fault(405, "MethodNotAllowed", 1);
+		}
+		if (path == null || !path.startsWith(DEVICE_PATH)) {
+			return new Fault(404, "BadPath", 1);
+		}
+		if (!DEVICE_TOKEN.matcher(path.substring(DEVICE_PATH.length())).matches()) {
+			return new Fault(400, "BadDeviceToken", 1);
+		}
+		
+		final String authorization = headers.get(Headers.AUTHORIZATION.key());
+		if (authorization != null) {
+			if (!authorization.startsWith("bearer ") || authorization.split("\\.").length != 3) {
+				return new Fault(403, "InvalidProviderToken", 1);
+			}
+			if (headers.get(Headers.TOPIC.key()) == null) {
+				return new Fault(400, "MissingTopic", 1);
+			}
+		}
+		
+		final String id = headers.get(Headers.ID.key());
+		if (id != null && !UUID_FORMAT.matcher(id).matches()) {
+			return new Fault(400, "BadMessageId", 1);
+		}
+		final String priority = headers.get(Headers.PRIORITY.key());
+		if (priority != null && !"10".equals(priority) && !"5".equals(priority) && !"1".equals(priority)) {
+			return new Fault(400, "BadPriority", 1);
+		}
+		final String expiration = headers.get(Headers.EXPIRATION.key());
+		if (expiration != null) {
+			try {
+				Long.parseLong(expiration);
+			} catch (NumberFormatException e) {
+				return new Fault(400, "BadExpirationDate", 1);
+			}
+		}
+		final String collapseId = headers.get(Headers.COLLAPSE_ID.key());
+		if (collapseId != null && collapseId.getBytes(StandardCharsets.UTF_8).length > 64) {
+			return new Fault(400, "BadCollapseId", 1);
+		}
+		
+		if (body.length == 0) {
+			return new Fault(400, "PayloadEmpty", 1);
+		}
+		if (body.length > PayloadBuilder.REMOTE_MAXIMUM_PAYLOAD_SIZE) {
+			return new Fault(413, "PayloadTooLarge", 1);
+		}
+		
+		for (Fault fault:faults) {
+			if (ThreadLocalRandom.current().nextDouble() < fault.probability) {
+				return fault;
+			}
+		}
+		return null;
+	}
+	
+	void onRefused() {
+		refused.increment();
+	}
+	
+	void onClosed(Http2Connection connection) {
+		connections.remove(connection);
+	}
+	
+	/**
+	 * @return SSLContext for clients that trusts the certificate of this server
+	 * @throws GeneralSecurityException
+	 */
+	public SSLContext newClientContext() throws GeneralSecurityException {
+		if (keyStore == null) {
+			throw new IllegalStateException("Server has not been started");
+		}
+		final TrustManagerFactory trustManagers = 
+				TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+		trustManagers.init(keyStore);
+		final SSLContext context = SSLContext.getInstance("TLS");
+		context.init(null, trustManagers.getTrustManagers(), null);
+		return context;
+	}
+	
+	public String getHost() {
+		return serverSocket.getInetAddress().getHostAddress();
+	}
+	
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+	
+	/**
+	 * @return requests received, valid or not
+	 */
+	public long getReceived() {
+		return received.sum();
+	}
+	
+	public long getAccepted() {
+		return accepted.sum();
+	}
+	
+	public long getRejected() {
+		return rejected.sum();
+	}
+	
+	/**
+	 * @return streams refused because the connection was at its stream limit
+	 */
+	public long getRefused() {
+		return refused.sum();
+	}
+	
+	/**
+	 * @return number of open client connections
+	 */
+	public int getConnections() {
+		return connections.size();
+	}
+	
+	/**
+	 * Sends GOAWAY on every connection and stops listening
+	 */
+	@Override
+	public void close() {
+		isClosed = true;
+		try {
+			if (serverSocket != null) {
+				serverSocket.close();
+			}
+		} catch (IOException e) {
+			LOGGER.debug("Failed to close server socket", e);
+		}
+		for (Http2Connection connection:connections) {
+			connection.close();
+		}
+		if (responder != null) {
+			responder.shutdownNow();
+			connectionThreads.shutdownNow();
+		}
+	}
+}
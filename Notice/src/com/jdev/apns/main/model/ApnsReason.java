@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) [2018] [Seung Hwan, Jin]
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. 
+ */
+
+package com.jdev.apns.main.model;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * ApnsReason is enum class that holds every reason
+ * APNs gives in the body of a rejected notification,
+ * together with the status code it comes with
+ * 
+ * @author seunghwanjin
+ */
+public enum ApnsReason {
+	BAD_COLLAPSE_ID("BadCollapseId", 400),
+	BAD_DEVICE_TOKEN("BadDeviceToken", 400),
+	BAD_EXPIRATION_DATE("BadExpirationDate", 400),
+	BAD_MESSAGE_ID("BadMessageId", 400),
+	BAD_PRIORITY("BadPriority", 400),
+	BAD_TOPIC("BadTopic", 400),
+	DEVICE_TOKEN_NOT_FOR_TOPIC("DeviceTokenNotForTopic", 400),
+	DUPLICATE_HEADERS("DuplicateHeaders", 400),
+	IDLE_TIMEOUT("IdleTimeout", 400),
+	INVALID_PUSH_TYPE("InvalidPushType", 400),
+	MISSING_DEVICE_TOKEN("MissingDeviceToken", 400),
+	MISSING_TOPIC("MissingTopic", 400),
+	PAYLOAD_EMPTY("PayloadEmpty", 400),
+	TOPIC_DISALLOWED("TopicDisallowed", 400),
+	BAD_CERTIFICATE("BadCertificate", 403),
+	BAD_CERTIFICATE_ENVIRONMENT("BadCertificateEnvironment", 403),
+	EXPIRED_PROVIDER_TOKEN("ExpiredProviderToken", 403),
+	FORBIDDEN("Forbidden", 403),
+	INVALID_PROVIDER_TOKEN("InvalidProviderToken", 403),
+	MISSING_PROVIDER_TOKEN("MissingProviderToken", 403),
+	UNRELATED_KEY_ID_IN_TOKEN("UnrelatedKeyIdInToken", 403),
+	BAD_ENVIRONMENT_KEY_ID_IN_TOKEN("BadEnvironmentKeyIdInToken", 403),
+	BAD_PATH("BadPath", 404),
+	METHOD_NOT_ALLOWED("MethodNotAllowed", 405),
+	EXPIRED_TOKEN("ExpiredToken", 410),
+	UNREGISTERED("Unregistered", 410),
+	PAYLOAD_TOO_LARGE("PayloadTooLarge", 413),
+	TOO_MANY_PROVIDER_TOKEN_UPDATES("TooManyProviderTokenUpdates", 429),
+	TOO_MANY_REQUESTS("TooManyRequests", 429),
+	INTERNAL_SERVER_ERROR("InternalServerError", 500),
+	SERVICE_UNAVAILABLE("ServiceUnavailable", 503),
+	SHUTDOWN("Shutdown", 503);
+	
+	private static final ApnsReason[] VALUES = values();
+	
+	private final String reason;
+	private final byte[] reasonBytes;
+	private final int statusCode;
+	
+	ApnsReason(String reason, int statusCode) {
+		this.reason = reason;
+		this.reasonBytes = reason.getBytes(StandardCharsets.US_ASCII);
+		this.statusCode = statusCode;
+	}
+	
+	/**
+	 * @return reason as APNs sends it, such as BadDeviceToken
+	 */
+	public String reason() {
+		return reason;
+	}
+	
+	public int getStatusCode() {
+		return statusCode;
+	}
+	
+	/**
+	 * This method checks if APNs reports the device token as no longer usable,
+	 * so notifications to it should stop
+	 * @return {@value true} for BadDeviceToken, ExpiredToken and Unregistered
+	 */
+	public boolean isDeadToken() {
+		return this == BAD_DEVICE_TOKEN || this == EXPIRED_TOKEN || this == UNREGISTERED;
+	}
+	
+	/**
+	 * @param reason as APNs sends it
+	 * @return ApnsReason or {@value null} if the reason is not known
+	 */
+	public static ApnsReason of(String reason) {
+		if (reason != null) {
+			for (ApnsReason value : VALUES) {
+				if (value.reason.equals(reason)) {
+					return value;
+				}
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Looks up the reason in the raw bytes of a response without creating a String
+	 * @param bytes
+	 * @param offset start of the reason
+	 * @param length length of the reason
+	 * @return ApnsReason or {@value null} if the reason is not known
+	 */
+	public static ApnsReason of(byte[] bytes, int offset, int length) {
+		for (ApnsReason value : VALUES) {
+			final byte[] candidate = value.reasonBytes;
+			if (candidate.length != length) {
+				continue;
+			}
+			int i = 0;
+			while (i < length && candidate[i] == bytes[offset + i]) {
+				i++;
+			}
+			if (i == length) {
+				return value;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) [2018] [Seung Hwan, Jin]
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. 
+ */
+
+package com.jdev.apns.main.model;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * BatchResponse holds the results of notifications sent together.
+ * To stay compact for large batches, only the status code is kept
+ * for every notification; a full NotificationResponse is kept
+ * only for notifications that were rejected or failed to be sent.
+ * Results are indexed in the order the notifications were given.
+ * 
+ * @author seunghwanjin
+ */
+public class BatchResponse {
+	/**
+	 * Status code per notification;
+	 * 0 if the notification was not dispatched
+	 */
+	private short[] statusCodes;
+	private final Map<Integer, NotificationResponse> failures = new TreeMap<>();
+	
+	private int size;
+	private int accepted;
+	private int rejected;
+	private int failed;
+	private int coalesced;
+	
+	public BatchResponse() {
+		this(16);
+	}
+	
+	/**
+	 * @param expectedSize number of notifications expected in the batch
+	 */
+	public BatchResponse(int expectedSize) {
+		statusCodes = new short[Math.max(expectedSize, 1)];
+	}
+	
+	/**
+	 * Records the result of the notification at the given position
+	 * @param index position of the notification in the batch
+	 * @param response
+	 */
+	public synchronized void add(int index, NotificationResponse response) {
+		if (index >= statusCodes.length) {
+			statusCodes = Arrays.copyOf(statusCodes, Math.max(index + 1, statusCodes.length * 2));
+		}
+		size = Math.max(size, index + 1);
+		
+		if (response.isCoalesced()) {
+			coalesced++;
+		} else if (!response.isDispatched()) {
+			failed++;
+			failures.put(index, response);
+		} else if (response.isAccepted()) {
+			accepted++;
+			statusCodes[index] = (short) response.getHttpStatusCode();
+		} else {
+			rejected++;
+			statusCodes[index] = (short) response.getHttpStatusCode();
+			failures.put(index, response);
+		}
+	}
+	
+	/**
+	 * @return number of notifications in the batch
+	 */
+	public synchronized int size() {
+		return size;
+	}
+	
+	/**
+	 * @return number of notifications accepted by APNs
+	 */
+	public synchronized int getAccepted() {
+		return accepted;
+	}
+	
+	/**
+	 * @return number of notifications rejected by APNs
+	 */
+	public synchronized int getRejected() {
+		return rejected;
+	}
+	
+	/**
+	 * @return number of notifications that could not be sent
+	 */
+	public synchronized int getFailed() {
+		return failed;
+	}
+	
+	/**
+	 * @return number of notifications replaced while queued by a later one
+	 * with the same device token and collapse id
+	 */
+	public synchronized int getCoalesced() {
+		return coalesced;
+	}
+	
+	/**
+	 * @return {@value true} if every notification was accepted
+	 * or replaced by a later one with the same collapse id
+	 */
+	public synchronized boolean isAllAccepted() {
+		return accepted + coalesced == size;
+	}
+	
+	/**
+	 * @param index position of the notification in the batch
+	 * @return status code or 0 if the notification was not dispatched
+	 */
+	public synchronized int getHttpStatusCode(int index) {
+		return index < size ? statusCodes[index] : 0;
+	}
+	
+	/**
+	 * @param index position of the notification in the batch
+	 * @return NotificationResponse if the notification was rejected 
+	 * 			or failed to be sent, {@value null} otherwise
+	 */
+	public synchronized NotificationResponse getFailure(int index) {
+		return failures.get(index);
+	}
+	
+	/**
+	 * @return responses of rejected or failed notifications keyed by position
+	 */
+	public synchronized Map<Integer, NotificationResponse> getFailures() {
+		return Collections.unmodifiableMap(new TreeMap<>(failures));
+	}
+	
+	@Override
+	public synchronized String toString() {
+		return "BatchResponse [size:" + size + ",accepted:" + accepted 
+				+ ",rejected:" + rejected + ",failed:" + failed + ",coalesced:" + coalesced + "]";
+	}
+}
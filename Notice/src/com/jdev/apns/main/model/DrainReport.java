@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) [2018] [Seung Hwan, Jin]
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. 
+ */
+
+package com.jdev.apns.main.model;
+
+import java.time.Duration;
+
+/**
+ * DrainReport holds the outcome of shutting a service down:
+ * how many notifications finished while it drained, and how many
+ * were abandoned, either still queued or still in flight, at the deadline.
+ * Abandoned notifications complete with a failed NotificationResponse;
+ * with a spool they stay in it for replaySpool() after restart.
+ * 
+ * @author seunghwanjin
+ */
+public class DrainReport {
+	private final int completed;
+	private final int abandonedQueued;
+	private final int abandonedInFlight;
+	private final Duration elapsed;
+	
+	/**
+	 * @param completed notifications that finished while draining
+	 * @param abandonedQueued notifications abandoned before they were sent
+	 * @param abandonedInFlight notifications abandoned while waiting for APNs or for a retry
+	 * @param elapsed time the drain took
+	 */
+	public DrainReport(int completed, int abandonedQueued, int abandonedInFlight, Duration elapsed) {
+		this.completed = completed;
+		this.abandonedQueued = abandonedQueued;
+		this.abandonedInFlight = abandonedInFlight;
+		this.elapsed = elapsed;
+	}
+	
+	/**
+	 * @return number of notifications that finished while draining
+	 */
+	public int getCompleted() {
+		return completed;
+	}
+	
+	/**
+	 * @return number of notifications abandoned before they were sent
+	 */
+	public int getAbandonedQueued() {
+		return abandonedQueued;
+	}
+	
+	/**
+	 * @return number of notifications abandoned while waiting for APNs or for a retry
+	 */
+	public int getAbandonedInFlight() {
+		return abandonedInFlight;
+	}
+	
+	/**
+	 * @return number of notifications abandoned at the deadline
+	 */
+	public int getAbandoned() {
+		return abandonedQueued + abandonedInFlight;
+	}
+	
+	/**
+	 * @return {@value true} if every notification finished before the deadline
+	 */
+	public boolean isComplete() {
+		return getAbandoned() == 0;
+	}
+	
+	public Duration getElapsed() {
+		return elapsed;
+	}
+	
+	@Override
+	public String toString() {
+		return "DrainReport [completed:" + completed + ",abandonedQueued:" + abandonedQueued 
+				+ ",abandonedInFlight:" + abandonedInFlight + ",elapsed:" + elapsed.toMillis() + "ms]";
+	}
+}
@@ -22,17 +22,28 @@
 
 package com.jdev.apns.main.model;
 
+import java.nio.charset.StandardCharsets;
+
+import com.google.gson.annotations.SerializedName;
+
 /**
  * FailureResponse holds the detailed information about
- * the reason request was rejected
+ * the reason request was rejected.
+ * The body of a rejection is read by a small parser instead of Gson,
+ * and known reasons are shared ApnsReason constants rather than new strings
  * 
  * @author Seung Hwan, Jin
  */
 public class FailureResponse {
+	private static final byte[] REASON = "reason".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] TIMESTAMP = "timestamp".getBytes(StandardCharsets.US_ASCII);
+	
 	private String reason;
+	private transient ApnsReason reasonCode;
 	/**
 	 * This is only applicable for status code: 410
 	 */
+	@SerializedName("timestamp")
 	private String timeStamp;
 	
 	public FailureResponse() {}
@@ -43,6 +54,17 @@ public class FailureResponse {
 	
 	public void setReason(String reason) {
 		this.reason = reason;
+		this.reasonCode = ApnsReason.of(reason);
+	}
+	
+	/**
+	 * @return ApnsReason or {@value null} if APNs sent a reason that is not known
+	 */
+	public ApnsReason getReasonCode() {
+		if (reasonCode == null && reason != null) {
+			reasonCode = ApnsReason.of(reason);
+		}
+		return reasonCode;
 	}
 
 	public String getTimeStamp() {
@@ -53,6 +75,135 @@ public class FailureResponse {
 		this.timeStamp = timestamp;
 	}
 	
+	/**
+	 * @param body JSON body of a rejected notification
+	 * @return FailureResponse or {@value null} if the body is empty
+	 */
+	public static FailureResponse parse(String body) {
+		if (body == null || body.isEmpty()) {
+			return null;
+		}
+		final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		return parse(bytes, 0, bytes.length);
+	}
+	
+	/**
+	 * This method reads the reason and timestamp from the JSON body of a rejected notification.
+	 * Other members are skipped; a malformed body yields whatever was read before the error
+	 * @param body
+	 * @param offset
+	 * @param length
+	 * @return FailureResponse or {@value null} if the body is empty
+	 */
+	public static FailureResponse parse(byte[] body, int offset, int length) {
+		final int end = offset + length;
+		int i = skipWhitespace(body, offset, end);
+		if (i == end) {
+			return null;
+		}
+		
+		final FailureResponse failure = new FailureResponse();
+		if (body[i++] != '{') {
+			return failure;
+		}
+		while ((i = skipWhitespace(body, i, end)) < end && body[i] == '"') {
+			final int keyStart = i + 1;
+			final int keyEnd = endOfString(body, keyStart, end);
+			i = skipWhitespace(body, keyEnd + 1, end);
+			if (i >= end || body[i] != ':') {
+				break;
+			}
+			i = skipWhitespace(body, i + 1, end);
+			if (i == end) {
+				break;
+			}
+			
+			final int valueStart;
+			int valueEnd;
+			if (body[i] == '"') {
+				valueStart = i + 1;
+				valueEnd = endOfString(body, valueStart, end);
+				i = valueEnd + 1;
+			} else {
+				valueStart = i;
+				i = endOfValue(body, i, end);
+				valueEnd = i;
+				while (valueEnd > valueStart && body[valueEnd - 1] <= ' ') {
+					valueEnd--;
+				}
+			}
+			
+			if (matches(body, keyStart, keyEnd, REASON)) {
+				final ApnsReason code = ApnsReason.of(body, valueStart, valueEnd - valueStart);
+				failure.reasonCode = code;
+				failure.reason = code != null ? code.reason() 
+						: new String(body, valueStart, valueEnd - valueStart, StandardCharsets.UTF_8);
+			} else if (matches(body, keyStart, keyEnd, TIMESTAMP)) {
+				failure.timeStamp = new String(body, valueStart, valueEnd - valueStart, StandardCharsets.UTF_8);
+			}
+			
+			i = skipWhitespace(body, i, end);
+			if (i >= end || body[i] != ',') {
+				break;
+			}
+			i++;
+		}
+		return failure;
+	}
+	
+	private static int skipWhitespace(byte[] body, int i, int end) {
+		while (i < end && (body[i] == ' ' || body[i] == '\t' || body[i] == '\n' || body[i] == '\r')) {
+			i++;
+		}
+		return i;
+	}
+	
+	/**
+	 * @return index of the closing quote of the string starting at i, or end
+	 */
+	private static int endOfString(byte[] body, int i, int end) {
+		while (i < end && body[i] != '"') {
+			i += body[i] == '\\' ? 2 : 1;
+		}
+		return Math.min(i, end);
+	}
+	
+	/**
+	 * @return index after a number, literal, array or object starting at i
+	 */
+	private static int endOfValue(byte[] body, int i, int end) {
+		int depth = 0;
+		while (i < end) {
+			final byte b = body[i];
+			if (b == '"') {
+				i = endOfString(body, i + 1, end);
+			} else if (b == '{' || b == '[') {
+				depth++;
+			} else if (b == '}' || b == ']') {
+				if (depth == 0) {
+					return i;
+				}
+				depth--;
+			} else if (b == ',' && depth == 0) {
+				return i;
+			}
+			i++;
+		}
+		return end;
+	}
+	
+	private static boolean matches(byte[] body, int start, int end, byte[] key) {
+		if (end - start != key.length) {
+			return false;
+		}
+		for (int i = 0; i < key.length; i++) {
+			if (body[start + i] != key[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
 	@Override
 	public String toString() {
 		return "FailureResponse [reason:" + reason + ",timeStamp:" + timeStamp + "]";
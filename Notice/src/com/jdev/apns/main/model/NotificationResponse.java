@@ -22,15 +22,40 @@
 
 package com.jdev.apns.main.model;
 
-import com.google.gson.Gson;
+import java.net.http.HttpResponse;
+import java.util.concurrent.CancellationException;
 
+/**
+ * NotificationResponse holds the result of a single notification:
+ * the status code, the apns-id APNs assigned to it and,
+ * for rejected notifications, the reason and timestamp
+ * 
+ * @author seunghwanjin
+ */
 public class NotificationResponse {
 	private FailureResponse failureResponse;
 	private RejectionReason error;
 	private int httpStatusCode;
 	private String responseBody;
+	private String apnsId;
 	private Throwable cause;
 	
+	/**
+	 * Number of times the notification was sent
+	 */
+	private int attempts = 1;
+	
+	/**
+	 * True if a later notification with the same device token
+	 * and collapse id replaced this one before it was sent
+	 */
+	private boolean coalesced;
+	
+	/**
+	 * True if apns-expiration passed while the notification was queued
+	 */
+	private boolean expired;
+	
 	/**
 	 * Constructor for NotificationResponse  
 	 * @param Throwable cause: exception 
@@ -39,6 +64,28 @@ public class NotificationResponse {
 		this.cause = cause;
 	}
 	
+	/**
+	 * @return NotificationResponse of a notification that was replaced while queued
+	 * 			by a later one with the same device token and collapse id
+	 */
+	public static NotificationResponse coalesced() {
+		final NotificationResponse response = new NotificationResponse(new CancellationException(
+				"Replaced by a later notification with the same collapse id"));
+		response.coalesced = true;
+		return response;
+	}
+	
+	/**
+	 * @return NotificationResponse of a notification that was dropped
+	 * 			because its apns-expiration passed while it was queued
+	 */
+	public static NotificationResponse expired() {
+		final NotificationResponse response = new NotificationResponse(new CancellationException(
+				"Expired before it was sent"));
+		response.expired = true;
+		return response;
+	}
+	
 	/**
 	 * This method checks if an exception happened 
 	 * @return {@value true} if cause is null, {@value false} otherwise
@@ -50,6 +97,31 @@ public class NotificationResponse {
 	public void setResult(int statusCode, String body) {
 		httpStatusCode = statusCode;
 		responseBody = body;
+		failureResponse = null;
+		error = RejectionReason.getReason(statusCode);
+	}
+	
+	/**
+	 * Sets the status code, apns-id and body from the response of APNs
+	 * @param response
+	 */
+	public void setResult(HttpResponse<String> response) {
+		apnsId = response.headers().firstValue(Headers.ID.key()).orElse(null);
+		setResult(response.statusCode(), response.body());
+	}
+	
+	/**
+	 * Sets the result from a response whose body was already parsed
+	 * @param statusCode
+	 * @param apnsId
+	 * @param failure parsed body; {@value null} for an accepted notification
+	 */
+	public void setResult(int statusCode, String apnsId, FailureResponse failure) {
+		httpStatusCode = statusCode;
+		this.apnsId = apnsId;
+		responseBody = null;
+		failureResponse = failure;
+		error = RejectionReason.getReason(statusCode);
 	}
 	
 	/**
@@ -66,7 +138,7 @@ public class NotificationResponse {
 	 * @return reason request was rejected
 	 */
 	public String getFailureReason() {
-		return RejectionReason.getReason(httpStatusCode).toString();
+		return String.valueOf(RejectionReason.getReason(httpStatusCode));
 	}
 	
 	/**
@@ -74,10 +146,61 @@ public class NotificationResponse {
 	 * @return String detail reason request failed
 	 */
 	public String getSpecificFailureReason() {
-		System.out.println(responseBody.toString());
-		failureResponse = new Gson().fromJson(
-				responseBody, FailureResponse.class);
-		return failureResponse.toString();
+		return String.valueOf(getFailureResponse());
+	}
+	
+	/**
+	 * Parses the body of a rejected notification once
+	 * @return FailureResponse or {@value null} if there is no body
+	 */
+	private FailureResponse getFailureResponse() {
+		if (failureResponse == null && responseBody != null) {
+			failureResponse = FailureResponse.parse(responseBody);
+		}
+		return failureResponse;
+	}
+	
+	/**
+	 * Specific reason APNs gave for rejecting the notification
+	 * such as BadDeviceToken or Unregistered
+	 * @return reason or {@value null} if the notification was accepted
+	 */
+	public String getReason() {
+		final FailureResponse failure = getFailureResponse();
+		return failure == null ? null : failure.getReason();
+	}
+	
+	/**
+	 * Specific reason APNs gave for rejecting the notification
+	 * @return ApnsReason or {@value null} if the notification was accepted
+	 * 			or APNs sent a reason that is not known
+	 */
+	public ApnsReason getReasonCode() {
+		final FailureResponse failure = getFailureResponse();
+		return failure == null ? null : failure.getReasonCode();
+	}
+	
+	/**
+	 * Time at which APNs confirmed the token was no longer valid;
+	 * only applicable for status code: 410
+	 * @return timestamp or {@value null}
+	 */
+	public String getTimeStamp() {
+		final FailureResponse failure = getFailureResponse();
+		return failure == null ? null : failure.getTimeStamp();
+	}
+	
+	/**
+	 * Unique id of the notification; APNs creates one
+	 * if the request did not carry an apns-id header
+	 * @return apns-id
+	 */
+	public String getApnsId() {
+		return apnsId;
+	}
+	
+	public void setApnsId(String apnsId) {
+		this.apnsId = apnsId;
 	}
 	
 	/**
@@ -85,7 +208,7 @@ public class NotificationResponse {
 	 * @return {@value true} if timeStamp is not null
 	 */
 	public boolean needNewToken() {
-		return failureResponse.getTimeStamp() == null;
+		return getTimeStamp() == null;
 	}
 
 	public RejectionReason getError() {
@@ -102,12 +225,37 @@ public class NotificationResponse {
 
 	public void setResponseBody(String responseBody) {
 		this.responseBody = responseBody;
+		failureResponse = null;
+	}
+
+	/**
+	 * @return {@value true} if the notification was never sent because a later one
+	 * 			with the same device token and collapse id replaced it
+	 */
+	public boolean isCoalesced() {
+		return coalesced;
+	}
+
+	/**
+	 * @return {@value true} if the notification was never sent
+	 * 			because its apns-expiration passed while it was queued
+	 */
+	public boolean isExpired() {
+		return expired;
 	}
 
 	public Throwable getCause() {
 		return cause;
 	}
 
+	public int getAttempts() {
+		return attempts;
+	}
+
+	public void setAttempts(int attempts) {
+		this.attempts = attempts;
+	}
+
 	public int getHttpStatusCode() {
 		return httpStatusCode;
 	}
@@ -116,4 +264,10 @@ public class NotificationResponse {
 		this.httpStatusCode = httpStatusCode;
 	}
 	
+	@Override
+	public String toString() {
+		return "NotificationResponse [status:" + httpStatusCode + ",apnsId:" + apnsId
+				+ ",reason:" + getReason() + ",timeStamp:" + getTimeStamp() + ",attempts:" + attempts + ",cause:" + cause + "]";
+	}
+	
 }
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) [2018] [Seung Hwan, Jin]
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. 
+ */
+
+package com.jdev.apns.main.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.ObjLongConsumer;
+
+import com.jdev.apns.main.DeviceToken;
+
+/**
+ * Map from device tokens to long values for per-device state
+ * such as timestamps, counters or flags.
+ * 32-byte tokens are packed into a long[] next to a long[] of values,
+ * at about 50 bytes per entry and without boxing.
+ * Not thread-safe.
+ * 
+ * @author seunghwanjin
+ */
+public class DeviceTokenLongMap extends DeviceTokenTable {
+	/**
+	 * Entries of the all-zero token and of tokens that are not 32 bytes long
+	 */
+	private final Map<DeviceToken, Long> others = new HashMap<>();
+	
+	private long[] values;
+	private long[] oldValues;
+	
+	public DeviceTokenLongMap() {
+		this(0);
+	}
+	
+	/**
+	 * @param expectedSize number of entries the map holds without growing
+	 */
+	public DeviceTokenLongMap(int expectedSize) {
+		super(expectedSize);
+		values = new long[capacity];
+	}
+	
+	/**
+	 * @param token
+	 * @param defaultValue
+	 * @return value of the token or defaultValue if the map has no entry for it
+	 */
+	public long get(DeviceToken token, long defaultValue) {
+		if (!isPacked(token)) {
+			final Long value = others.get(token);
+			return value == null ? defaultValue : value;
+		}
+		final int slot = find(token);
+		return slot >= 0 ? values[slot] : defaultValue;
+	}
+	
+	public boolean containsKey(DeviceToken token) {
+		return isPacked(token) ? find(token) >= 0 : others.containsKey(token);
+	}
+	
+	/**
+	 * @param token
+	 * @param value
+	 * @return {@value true} if the map had no entry for the token
+	 */
+	public boolean put(DeviceToken token, long value) {
+		if (!isPacked(token)) {
+			return others.put(token, value) == null;
+		}
+		final int slot = find(token);
+		if (slot >= 0) {
+			values[slot] = value;
+			return false;
+		}
+		//insert may grow the table and replace values
+		final int inserted = insert(-slot - 1, token);
+		values[inserted] = value;
+		return true;
+	}
+	
+	/**
+	 * Adds delta to the value of the token, starting from 0 for a new entry
+	 * @param token
+	 * @param delta
+	 * @return new value
+	 */
+	public long addTo(DeviceToken token, long delta) {
+		if (!isPacked(token)) {
+			return others.merge(token, delta, Long::sum);
+		}
+		final int slot = find(token);
+		if (slot >= 0) {
+			return values[slot] += delta;
+		}
+		final int inserted = insert(-slot - 1, token);
+		values[inserted] = delta;
+		return delta;
+	}
+	
+	/**
+	 * @param token
+	 * @return {@value true} if the map had an entry for the token
+	 */
+	public boolean remove(DeviceToken token) {
+		if (!isPacked(token)) {
+			return others.remove(token) != null;
+		}
+		final int slot = find(token);
+		if (slot < 0) {
+			return false;
+		}
+		delete(slot);
+		return true;
+	}
+	
+	public int size() {
+		return tableSize + others.size();
+	}
+	
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+	
+	public void clear() {
+		clearTable();
+		others.clear();
+	}
+	
+	/**
+	 * Calls the action for every entry, creating a DeviceToken for each
+	 * @param action
+	 */
+	public void forEach(ObjLongConsumer<DeviceToken> action) {
+		for (int slot = 0; slot < capacity; slot++) {
+			if (!isEmpty(slot)) {
+				action.accept(tokenAt(slot), values[slot]);
+			}
+		}
+		others.forEach(action::accept);
+	}
+	
+	@Override
+	void moved(int from, int to) {
+		values[to] = values[from];
+	}
+	
+	@Override
+	void resizing(int newCapacity) {
+		oldValues = values;
+		values = new long[newCapacity];
+	}
+	
+	@Override
+	void rehashed(int oldSlot, int newSlot) {
+		values[newSlot] = oldValues[oldSlot];
+	}
+	
+	@Override
+	void resized() {
+		oldValues = null;
+	}
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) [2018] [Seung Hwan, Jin]
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. 
+ */
+
+package com.jdev.apns.main.util;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Consumer;
+
+import com.jdev.apns.main.DeviceToken;
+
+/**
+ * Set of device tokens for deduplication and block lists.
+ * 32-byte tokens are packed into a long[] at about 40 bytes per token,
+ * compared to well over 100 bytes for a HashSet of hex Strings.
+ * Not thread-safe.
+ * 
+ * @author seunghwanjin
+ */
+public class DeviceTokenSet extends DeviceTokenTable {
+	/**
+	 * The all-zero token and tokens that are not 32 bytes long
+	 */
+	private final Set<DeviceToken> others = new HashSet<>();
+	
+	public DeviceTokenSet() {
+		this(0);
+	}
+	
+	/**
+	 * @param expectedSize number of tokens the set holds without growing
+	 */
+	public DeviceTokenSet(int expectedSize) {
+		super(expectedSize);
+	}
+	
+	/**
+	 * @param token
+	 * @return {@value true} if the token was not in the set
+	 */
+	public boolean add(DeviceToken token) {
+		if (!isPacked(token)) {
+			return others.add(token);
+		}
+		final int slot = find(token);
+		if (slot >= 0) {
+			return false;
+		}
+		insert(-slot - 1, token);
+		return true;
+	}
+	
+	public boolean contains(DeviceToken token) {
+		return isPacked(token) ? find(token) >= 0 : others.contains(token);
+	}
+	
+	/**
+	 * @param token
+	 * @return {@value true} if the token was in the set
+	 */
+	public boolean remove(DeviceToken token) {
+		if (!isPacked(token)) {
+			return others.remove(token);
+		}
+		final int slot = find(token);
+		if (slot < 0) {
+			return false;
+		}
+		delete(slot);
+		return true;
+	}
+	
+	public int size() {
+		return tableSize + others.size();
+	}
+	
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+	
+	public void clear() {
+		clearTable();
+		others.clear();
+	}
+	
+	/**
+	 * Calls the action for every token, creating a DeviceToken for each
+	 * @param action
+	 */
+	public void forEach(Consumer<DeviceToken> action) {
+		for (int slot = 0; slot < capacity; slot++) {
+			if (!isEmpty(slot)) {
+				action.accept(tokenAt(slot));
+			}
+		}
+		others.forEach(action);
+	}
+}
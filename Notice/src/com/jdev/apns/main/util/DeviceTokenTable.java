@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) [2018] [Seung Hwan, Jin]
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. 
+ */
+
+package com.jdev.apns.main.util;
+
+import java.util.Arrays;
+
+import com.jdev.apns.main.DeviceToken;
+
+/**
+ * Open-addressing hash table of 32-byte device tokens, the base of
+ * DeviceTokenSet and DeviceTokenLongMap.
+ * Each slot is four consecutive longs in one long[], so a token costs
+ * 32 bytes divided by the load factor and no object is allocated per token.
+ * Collisions are resolved by linear probing and removal shifts later entries back,
+ * so there are no tombstones. An all-zero slot is empty; the all-zero token
+ * and tokens of other lengths are kept by the subclasses in an ordinary collection.
+ * Not thread-safe.
+ * 
+ * @author seunghwanjin
+ */
+abstract class DeviceTokenTable {
+	private static final int WORDS = 4;
+	private static final float LOAD_FACTOR = 0.8f;
+	private static final int MIN_CAPACITY = 16;
+	private static final int MAX_CAPACITY = (Integer.MAX_VALUE - 8) / WORDS;
+	
+	long[] keys;
+	int capacity;
+	private int threshold;
+	
+	/**
+	 * Number of tokens in the table, not counting the ones kept by the subclass
+	 */
+	int tableSize;
+	
+	DeviceTokenTable(int expectedSize) {
+		capacity = capacityFor(expectedSize);
+		keys = new long[capacity * WORDS];
+		threshold = (int) (capacity * LOAD_FACTOR);
+	}
+	
+	private static int capacityFor(int expectedSize) {
+		return (int) Math.min(MAX_CAPACITY, Math.max(MIN_CAPACITY, (long) Math.ceil(expectedSize / LOAD_FACTOR) + 1));
+	}
+	
+	/**
+	 * @param token
+	 * @return {@value true} if the token is stored in the table rather than by the subclass
+	 */
+	static boolean isPacked(DeviceToken token) {
+		return token.length() == DeviceToken.LENGTH && (token.getWord(0) | token.getWord(1) 
+				| token.getWord(2) | token.getWord(3)) != 0;
+	}
+	
+	private int home(int hash) {
+		return home(hash, capacity);
+	}
+	
+	/**
+	 * Maps a hash code to a slot without requiring the capacity to be a power of two
+	 * @param hash
+	 * @param capacity number of slots
+	 * @return slot the probe for the hash code starts at
+	 */
+	static int home(int hash, int capacity) {
+		return (int) (((hash & 0xffffffffL) * capacity) >>> 32);
+	}
+	
+	private int next(int slot) {
+		return slot + 1 == capacity ? 0 : slot + 1;
+	}
+	
+	final boolean isEmpty(int slot) {
+		final int base = slot * WORDS;
+		return (keys[base] | keys[base + 1] | keys[base + 2] | keys[base + 3]) == 0;
+	}
+	
+	/**
+	 * @param token packed token
+	 * @return slot of the token, or -(slot it would be inserted at) - 1
+	 */
+	final int find(DeviceToken token) {
+		final long w0 = token.getWord(0), w1 = token.getWord(1), w2 = token.getWord(2), w3 = token.getWord(3);
+		for (int slot = home(token.hashCode()); ; slot = next(slot)) {
+			final int base = slot * WORDS;
+			if (keys[base] == w0 && keys[base + 1] == w1 && keys[base + 2] == w2 && keys[base + 3] == w3) {
+				return slot;
+			}
+			if (isEmpty(slot)) {
+				return -slot - 1;
+			}
+		}
+	}
+	
+	/**
+	 * Stores the token at the empty slot returned by find
+	 * @param slot
+	 * @param token
+	 * @return slot the token ended up at, which changes if the table grew
+	 */
+	final int insert(int slot, DeviceToken token) {
+		final int base = slot * WORDS;
+		keys[base] = token.getWord(0);
+		keys[base + 1] = token.getWord(1);
+		keys[base + 2] = token.getWord(2);
+		keys[base + 3] = token.getWord(3);
+		if (++tableSize > threshold) {
+			grow();
+			return find(token);
+		}
+		return slot;
+	}
+	
+	/**
+	 * Empties the slot and shifts back the entries that probed past it
+	 * @param slot
+	 */
+	final void delete(int slot) {
+		int hole = slot;
+		for (int current = next(slot); !isEmpty(current); current = next(current)) {
+			final int base = current * WORDS;
+			final int home = home(DeviceToken.hash(keys[base], keys[base + 1], keys[base + 2], keys[base + 3]));
+			//the entry may fill the hole unless its home lies cyclically after the hole
+			if (distance(home, current) >= distance(hole, current)) {
+				System.arraycopy(keys, base, keys, hole * WORDS, WORDS);
+				moved(current, hole);
+				hole = current;
+			}
+		}
+		final int base = hole * WORDS;
+		keys[base] = keys[base + 1] = keys[base + 2] = keys[base + 3] = 0;
+		tableSize--;
+	}
+	
+	private int distance(int from, int to) {
+		return to >= from ? to - from : to + capacity - from;
+	}
+	
+	private void grow() {
+		if (capacity == MAX_CAPACITY) {
+			throw new IllegalStateException("Device token table is full");
+		}
+		final long[] oldKeys = keys;
+		final int oldCapacity = capacity;
+		capacity = Math.min(MAX_CAPACITY, oldCapacity + (oldCapacity >>> 1));
+		keys = new long[capacity * WORDS];
+		threshold = (int) (capacity * LOAD_FACTOR);
+		resizing(capacity);
+		
+		for (int slot = 0; slot < oldCapacity; slot++) {
+			final int base = slot * WORDS;
+			final long w0 = oldKeys[base], w1 = oldKeys[base + 1], w2 = oldKeys[base + 2], w3 = oldKeys[base + 3];
+			if ((w0 | w1 | w2 | w3) == 0) {
+				continue;
+			}
+			int target = home(DeviceToken.hash(w0, w1, w2, w3));
+			while (!isEmpty(target)) {
+				target = next(target);
+			}
+			System.arraycopy(oldKeys, base, keys, target * WORDS, WORDS);
+			rehashed(slot, target);
+		}
+		resized();
+	}
+	
+	/**
+	 * @param slot occupied slot
+	 * @return token stored at the slot
+	 */
+	final DeviceToken tokenAt(int slot) {
+		final int base = slot * WORDS;
+		return DeviceToken.of(keys[base], keys[base + 1], keys[base + 2], keys[base + 3]);
+	}
+	
+	/**
+	 * Removes every token from the table
+	 */
+	void clearTable() {
+		Arrays.fill(keys, 0);
+		tableSize = 0;
+	}
+	
+	/**
+	 * Called when the entry at from moved to to during removal
+	 */
+	void moved(int from, int to) {
+	}
+	
+	/**
+	 * Called before entries are rehashed into a table of the new capacity
+	 */
+	void resizing(int newCapacity) {
+	}
+	
+	/**
+	 * Called when the entry at oldSlot of the old table was placed at newSlot
+	 */
+	void rehashed(int oldSlot, int newSlot) {
+	}
+	
+	/**
+	 * Called after every entry was rehashed
+	 */
+	void resized() {
+	}
+}
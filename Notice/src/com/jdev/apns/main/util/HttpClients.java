@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) [2018] [Seung Hwan, Jin]
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. 
+ */
+
+package com.jdev.apns.main.util;
+
+import java.net.http.HttpClient;
+
+/**
+ * Releases the connections of an HttpClient.
+ * <p>
+ * This is the baseline version for JDKs where HttpClient cannot be shut down:
+ * its connections close once the client is no longer reachable. The multi-release
+ * JAR carries a version under META-INF/versions/21 that shuts the client down.
+ * Both versions must keep the same public methods.
+ * 
+ * @author seunghwanjin
+ */
+public final class HttpClients {
+	
+	private HttpClients() {
+	}
+	
+	/**
+	 * Closes the connections of the client, aborting requests still in flight
+	 * @param client
+	 */
+	public static void shutdownNow(HttpClient client) {
+	}
+}
@@ -70,68 +70,81 @@ public class JWT {
 			final String keyId, final String teamId, final String fileName) 
 			throws InvalidKeyException, NoSuchAlgorithmException, 
 			InvalidKeySpecException, SignatureException, IOException {
-		long issuedAt = System.currentTimeMillis() / 1000l;
+		return generateToken(keyId, teamId, readPrivateKey(fileName), 
+				System.currentTimeMillis() / 1000l);
+	}
+	
+	/**
+	 * Creates a JWT token with a private key that was already read
+	 * 
+	 * @param keyId the key identifier obtained from developer account (under key)
+	 * @param teamId the team identifier obtained from developer account (under membership)
+	 * @param privateKey the private key returned by readPrivateKey()
+	 * @param issuedAt issued time in seconds since epoch
+	 * @return token signed with the key
+	 * @throws NoSuchAlgorithmException 
+	 * @throws InvalidKeyException 
+	 * @throws SignatureException 
+	 */
+	public static String generateToken(final String keyId, final String teamId, 
+			final PrivateKey privateKey, final long issuedAt) 
+			throws InvalidKeyException, NoSuchAlgorithmException, SignatureException {
 		final String header = "{\"alg\":\"ES256\",\"kid\":\"" + keyId + "\"}";
 		final String payload = "{\"iss\":\"" + teamId + "\",\"iat\":\"" + issuedAt + "\"}";
 		final String encodedPart = base64UrlEncoder(header) + "." + base64UrlEncoder(payload);
 		
-		return encodedPart + "." + getSignature(getPrivateKey(fileName), encodedPart);
+		return encodedPart + "." + getSignature(privateKey, encodedPart);
 	}
 	
 	/**
-	 * This method gets the private key from the file of given directory
+	 * This method reads and parses the private key from the .p8 file of given directory
 	 * @param fileName file directory
 	 * @return private key
 	 * @throws IOException
+	 * @throws NoSuchAlgorithmException 
+	 * @throws InvalidKeySpecException 
 	 */
-	private static String getPrivateKey(final String fileName) throws IOException {
-		 try {
-			 final StringBuilder keyBuilder = new StringBuilder();
-			 
-			 @SuppressWarnings("resource")
-			final BufferedReader reader = 
-					 new BufferedReader(new FileReader(new File(fileName)));
-			 
+	public static PrivateKey readPrivateKey(final String fileName) 
+			throws IOException, NoSuchAlgorithmException, InvalidKeySpecException {
+		final StringBuilder keyBuilder = new StringBuilder();
+		try (BufferedReader reader = new BufferedReader(new FileReader(new File(fileName)))) {
 			 String begin = "BEGIN PRIVATE KEY", end = "END PRIVATE KEY";
 			 String line;
 			 while ((line = reader.readLine()) != null) {
 				 if (!(line.contains(begin) || line.contains(end))) {
-					 keyBuilder.append(line);
+					 keyBuilder.append(line.trim());
 				 }
 			 }
-			 
-			 return Base64.getEncoder().encodeToString(keyBuilder.toString().getBytes());
 		} catch (IOException e) {
 			LOGGER.fatal("Could not open the file.", e);
-			throw new IOException();
+			throw new IOException(e);
 		}
+		
+		final PKCS8EncodedKeySpec keySpecForPtivateKey = 
+				new PKCS8EncodedKeySpec(Base64.getDecoder().decode(keyBuilder.toString()));
+		
+		KeyFactory keyFactory = KeyFactory.getInstance("EC");
+		PrivateKey privateKey = keyFactory.generatePrivate(keySpecForPtivateKey);
+		
+		if (privateKey == null) {
+			LOGGER.fatal("The given PKCS8 key is null.");
+			throw new IllegalStateException("The given Private Key is null.");
+		}
+		return privateKey;
 	}
 	
 	/**
 	 * This method returns ES256 from the given input
 	 * 
-	 * @param secret the private key
+	 * @param privateKey the private key
 	 * @param data Encoded data that has header + payload information
 	 * @return ES256
 	 * @throws NoSuchAlgorithmException 
-	 * @throws InvalidKeySpecException 
 	 * @throws InvalidKeyException 
 	 * @throws SignatureException 
 	 */
-	private static String getSignature(final String secret, final String data) 
-			throws NoSuchAlgorithmException, InvalidKeySpecException, InvalidKeyException, SignatureException {
-		final byte[] keyBytes = Base64.getDecoder().decode(secret.getBytes());
-		final PKCS8EncodedKeySpec keySpecForPtivateKey = 
-				new PKCS8EncodedKeySpec(Base64.getDecoder().decode(keyBytes));
-		
-		KeyFactory keyFactory = KeyFactory.getInstance("EC");
-		PrivateKey privateKey = keyFactory.generatePrivate(keySpecForPtivateKey);
-		
-		if (privateKey == null) {
-			LOGGER.fatal("The given PKCS8 key is null.");
-			throw new IllegalStateException("The given Private Key is null.");
-		}
-		
+	private static String getSignature(final PrivateKey privateKey, final String data) 
+			throws NoSuchAlgorithmException, InvalidKeyException, SignatureException {
 		final Signature signature = Signature.getInstance("SHA256WITHECDSA");
 		signature.initSign(privateKey);
 		signature.update(data.getBytes(Constants.UTF8));
@@ -0,0 +1,342 @@
+/*
+ * Copyright (c) [2018] [Seung Hwan, Jin]
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. 
+ */
+
+package com.jdev.apns.main.util;
+
+import java.util.Arrays;
+
+import com.jdev.apns.main.Constants;
+
+/**
+ * PayloadBuffer writes compact JSON straight into a reusable UTF-8 byte buffer.
+ * The size limit is checked on every write, so an oversized payload
+ * fails as soon as it crosses the limit instead of after encoding.
+ * A buffer is not thread-safe; reuse one per thread and call reset().
+ * 
+ * @author seunghwanjin
+ */
+public class PayloadBuffer {
+	private static final byte[] HEX = "0123456789abcdef".getBytes(Constants.UTF8);
+	
+	/**
+	 * Buffer reused on each thread, limited to the remote notification payload size
+	 */
+	private static final ThreadLocal<PayloadBuffer> LOCAL = ThreadLocal.withInitial(
+			() -> new PayloadBuffer(PayloadBuilder.REMOTE_MAXIMUM_PAYLOAD_SIZE));
+	
+	private final int limit;
+	private byte[] bytes;
+	private int size;
+	
+	/**
+	 * Whether a comma has to be written before the next name or value
+	 */
+	private boolean needsComma;
+	
+	/**
+	 * @param limit maximum payload size in bytes
+	 */
+	public PayloadBuffer(int limit) {
+		this.limit = limit;
+		this.bytes = new byte[Math.min(limit, 1024)];
+	}
+	
+	/**
+	 * @return the cleared buffer of the calling thread
+	 */
+	public static PayloadBuffer local() {
+		return LOCAL.get().reset();
+	}
+	
+	/**
+	 * Encodes an object member name as "name": for writeName()
+	 * @param name
+	 * @return encoded name
+	 */
+	public static byte[] encodeName(String name) {
+		final PayloadBuffer buffer = new PayloadBuffer(Integer.MAX_VALUE);
+		buffer.writeString(name);
+		buffer.writeByte(':');
+		return buffer.toByteArray();
+	}
+	
+	/**
+	 * Clears the buffer so that it can be reused
+	 * @return this
+	 */
+	public PayloadBuffer reset() {
+		size = 0;
+		needsComma = false;
+		return this;
+	}
+	
+	public PayloadBuffer beginObject() {
+		separate();
+		writeByte('{');
+		needsComma = false;
+		return this;
+	}
+	
+	public PayloadBuffer endObject() {
+		writeByte('}');
+		needsComma = true;
+		return this;
+	}
+	
+	public PayloadBuffer beginArray() {
+		separate();
+		writeByte('[');
+		needsComma = false;
+		return this;
+	}
+	
+	public PayloadBuffer endArray() {
+		writeByte(']');
+		needsComma = true;
+		return this;
+	}
+	
+	/**
+	 * Writes a member name encoded by encodeName()
+	 * @param encodedName
+	 * @return this
+	 */
+	public PayloadBuffer writeName(byte[] encodedName) {
+		separate();
+		writeRaw(encodedName, 0, encodedName.length);
+		return this;
+	}
+	
+	/**
+	 * Writes a member name with JSON escaping
+	 * @param name
+	 * @return this
+	 */
+	public PayloadBuffer writeName(String name) {
+		separate();
+		writeString(name);
+		writeByte(':');
+		needsComma = false;
+		return this;
+	}
+	
+	/**
+	 * Writes a string value with JSON escaping
+	 * @param value
+	 * @return this
+	 */
+	public PayloadBuffer value(String value) {
+		separate();
+		if (value == null) {
+			writeAscii("null");
+		} else {
+			writeString(value);
+		}
+		needsComma = true;
+		return this;
+	}
+	
+	public PayloadBuffer value(long value) {
+		separate();
+		writeAscii(Long.toString(value));
+		needsComma = true;
+		return this;
+	}
+	
+	public PayloadBuffer value(boolean value) {
+		separate();
+		writeAscii(value ? "true" : "false");
+		needsComma = true;
+		return this;
+	}
+	
+	/**
+	 * Writes a value that is already valid JSON
+	 * @param json
+	 * @return this
+	 */
+	public PayloadBuffer rawValue(String json) {
+		separate();
+		writeUtf8(json);
+		needsComma = true;
+		return this;
+	}
+	
+	/**
+	 * Writes bytes that are already valid JSON.
+	 * The fragment must end where a name or value can follow
+	 * without a comma, e.g. after '{', '[', ':' or ','
+	 * @param json
+	 * @param offset
+	 * @param length
+	 * @return this
+	 */
+	public PayloadBuffer writeRaw(byte[] json, int offset, int length) {
+		ensure(length);
+		System.arraycopy(json, offset, bytes, size, length);
+		size += length;
+		needsComma = false;
+		return this;
+	}
+	
+	/**
+	 * @return number of bytes written
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * @return copy of the bytes written
+	 */
+	public byte[] toByteArray() {
+		return Arrays.copyOf(bytes, size);
+	}
+	
+	private void separate() {
+		if (needsComma) {
+			writeByte(',');
+		}
+	}
+	
+	private void writeByte(int b) {
+		ensure(1);
+		bytes[size++] = (byte) b;
+	}
+	
+	private void writeAscii(String ascii) {
+		final int length = ascii.length();
+		ensure(length);
+		for (int i = 0; i < length; i++) {
+			bytes[size++] = (byte) ascii.charAt(i);
+		}
+	}
+	
+	/**
+	 * Writes a quoted and escaped string
+	 * @param value
+	 */
+	void writeString(String value) {
+		writeByte('"');
+		final int length = value.length();
+		for (int i = 0; i < length; i++) {
+			final char c = value.charAt(i);
+			switch (c) {
+			case '"':
+				writeByte('\\');
+				writeByte('"');
+				break;
+			case '\\':
+				writeByte('\\');
+				writeByte('\\');
+				break;
+			case '\n':
+				writeByte('\\');
+				writeByte('n');
+				break;
+			case '\r':
+				writeByte('\\');
+				writeByte('r');
+				break;
+			case '\t':
+				writeByte('\\');
+				writeByte('t');
+				break;
+			case '\b':
+				writeByte('\\');
+				writeByte('b');
+				break;
+			case '\f':
+				writeByte('\\');
+				writeByte('f');
+				break;
+			default:
+				if (c < 0x20) {
+					ensure(6);
+					bytes[size++] = '\\';
+					bytes[size++] = 'u';
+					bytes[size++] = '0';
+					bytes[size++] = '0';
+					bytes[size++] = HEX[c >> 4];
+					bytes[size++] = HEX[c & 0xF];
+				} else {
+					i = writeChar(value, i, c);
+				}
+			}
+		}
+		writeByte('"');
+	}
+	
+	private void writeUtf8(String value) {
+		final int length = value.length();
+		for (int i = 0; i < length; i++) {
+			i = writeChar(value, i, value.charAt(i));
+		}
+	}
+	
+	/**
+	 * Encodes a single character, or a surrogate pair, in UTF-8
+	 * @return index of the last char consumed
+	 */
+	private int writeChar(String value, int index, char c) {
+		if (c < 0x80) {
+			writeByte(c);
+		} else if (c < 0x800) {
+			ensure(2);
+			bytes[size++] = (byte) (0xC0 | (c >> 6));
+			bytes[size++] = (byte) (0x80 | (c & 0x3F));
+		} else if (Character.isHighSurrogate(c) && index + 1 < value.length() 
+				&& Character.isLowSurrogate(value.charAt(index + 1))) {
+			final int codePoint = Character.toCodePoint(c, value.charAt(index + 1));
+			ensure(4);
+			bytes[size++] = (byte) (0xF0 | (codePoint >> 18));
+			bytes[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+			bytes[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+			bytes[size++] = (byte) (0x80 | (codePoint & 0x3F));
+			return index + 1;
+		} else if (Character.isSurrogate(c)) {
+			writeByte('?');//unpaired surrogate, same replacement String.getBytes() uses
+		} else {
+			ensure(3);
+			bytes[size++] = (byte) (0xE0 | (c >> 12));
+			bytes[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+			bytes[size++] = (byte) (0x80 | (c & 0x3F));
+		}
+		return index;
+	}
+	
+	/**
+	 * This method checks the size limit and grows the buffer if needed
+	 * @param extra number of bytes about to be written
+	 * @throws IllegalArgumentException when payload size exceeds the maximum
+	 */
+	private void ensure(int extra) {
+		final int required = size + extra;
+		if (required > limit) {
+			throw new IllegalArgumentException("Payload exceeded maximum size");
+		}
+		
+		if (required > bytes.length) {
+			bytes = Arrays.copyOf(bytes, Math.min(limit, Math.max(required, bytes.length * 2)));
+		}
+	}
+}
@@ -47,11 +47,38 @@ public class PayloadBuilder {
 	/**
 	 * Maximum payload size for remote notification 
 	 */
-	private static final int REMOTE_MAXIMUM_PAYLOAD_SIZE = 4096;
+	public static final int REMOTE_MAXIMUM_PAYLOAD_SIZE = 4096;
 	private Gson gson = new GsonBuilder().setPrettyPrinting().serializeNulls().
 			setFieldNamingPolicy(FieldNamingPolicy.UPPER_CAMEL_CASE).create();
 	
+	/**
+	 * Gson used by buildBytes() for custom data that is not
+	 * a String, Boolean or integral Number; it does not pretty print
+	 */
+	private static final Gson COMPACT_GSON = new GsonBuilder().serializeNulls().
+			setFieldNamingPolicy(FieldNamingPolicy.UPPER_CAMEL_CASE).create();
+	
+	private static final byte[] APS_NAME = PayloadBuffer.encodeName(APS.APS_KEY.key());
+	private static final byte[] ALERT_NAME = PayloadBuffer.encodeName(APS.ALERT_KEY.key());
+	private static final byte[] BADGE_NAME = PayloadBuffer.encodeName(APS.BADGE_KEY.key());
+	private static final byte[] SOUND_NAME = PayloadBuffer.encodeName(APS.SOUND_KEY.key());
+	private static final byte[] CONTENT_AVAILABLE_NAME = 
+			PayloadBuffer.encodeName(APS.CONTENT_AVAILABLE_KEY.key());
+	private static final byte[] CATEGORY_NAME = PayloadBuffer.encodeName(APS.CATEGORY_KEY.key());
+	private static final byte[] THREAD_ID_NAME = PayloadBuffer.encodeName(APS.THREAD_ID_KEY.key());
+	private static final byte[] TITLE_NAME = PayloadBuffer.encodeName(Alert.ALERT_TITLE_KEY.key());
+	private static final byte[] BODY_NAME = PayloadBuffer.encodeName(Alert.ALERT_BODY_KEY.key());
+	private static final byte[] TITLE_LOC_KEY_NAME = 
+			PayloadBuffer.encodeName(Alert.ALERT_TITLE_LOC_KEY.key());
+	private static final byte[] TITLE_LOC_ARGS_NAME = 
+			PayloadBuffer.encodeName(Alert.ALERT_TITLE_LOC_ARGS.key());
+	private static final byte[] LOC_KEY_NAME = PayloadBuffer.encodeName(Alert.ALERT_LOC_KEY.key());
+	private static final byte[] LOC_ARGS_NAME = PayloadBuffer.encodeName(Alert.ALERT_LOC_ARGS.key());
+	private static final byte[] LAUNCH_IMAGE_NAME = 
+			PayloadBuffer.encodeName(Alert.ALERT_LAUNCH_IMAGE.key());
+	
 	private Integer badge = null;
+	private String badgeVariable = null;
 	private String soundFileName = null;
 	private Integer contentAvailable = null;
 	private String category = null;
@@ -73,6 +100,19 @@ public class PayloadBuilder {
 		return this;
 	}
 
+	/**
+	 * Marks the badge as a variable of a PayloadTemplate;
+	 * the number is given per recipient when the template is rendered.
+	 * Only PayloadTemplate.compile() accepts a builder with a badge variable;
+	 * build(), buildBytes() and writeTo() throw IllegalStateException
+	 * 
+	 * @param name name of the template variable
+	 */
+	public PayloadBuilder setBadgeVariable(String name) {
+		this.badgeVariable = name;
+		return this;
+	}
+
 	public PayloadBuilder setSound(String fileName) {
 		soundFileName = fileName;
 		return this;
@@ -150,6 +190,7 @@ public class PayloadBuilder {
 	}
 
 	public String build() {
+		checkNoVariables();
 		final JsonObject payload = new JsonObject();
 		
 		final JsonObject aps = new JsonObject();
@@ -212,8 +253,9 @@ public class PayloadBuilder {
 				}
 
 				if (alertLaunchImage != null) {
-					alertObject.addProperty(Alert.ALERT_LOC_KEY.key(), alertLaunchImage);
+					alertObject.addProperty(Alert.ALERT_LAUNCH_IMAGE.key(), alertLaunchImage);
 				}
+				aps.add(APS.ALERT_KEY.key(), alertObject);
 			}
 		}//initiated only when one of alert keys is set
 		payload.add(APS.APS_KEY.key(), aps);		
@@ -231,9 +273,147 @@ public class PayloadBuilder {
 		return payloadString;
 	}
 	
+	/**
+	 * Builds the payload as compact UTF-8 JSON.
+	 * The JSON is written straight into a buffer reused by the calling thread
+	 * and the size is checked while writing, so whitespace does not count
+	 * against the payload limit and no intermediate String is created.
+	 * Pass the result to new Notification(byte[]).
+	 * 
+	 * @return payload in UTF-8
+	 * @throws IllegalArgumentException when payload size exceeds the maximum
+	 */
+	public byte[] buildBytes() {
+		checkNoVariables();
+		return buildTemplateBytes();
+	}
+	
+	/**
+	 * Builds the payload with the placeholders of template variables in place;
+	 * only PayloadTemplate.compile() can make use of the result
+	 * @return payload in UTF-8
+	 */
+	byte[] buildTemplateBytes() {
+		final PayloadBuffer buffer = PayloadBuffer.local();
+		write(buffer);
+		return buffer.toByteArray();
+	}
+	
+	/**
+	 * Writes the payload as compact JSON into the given buffer
+	 * @param buffer
+	 * @throws IllegalArgumentException when payload size exceeds the maximum
+	 */
+	public void writeTo(PayloadBuffer buffer) {
+		checkNoVariables();
+		write(buffer);
+	}
+	
+	/**
+	 * A placeholder would be sent as a string badge, which APNs rejects
+	 * @throws IllegalStateException if a badge variable is set
+	 */
+	private void checkNoVariables() {
+		if (badgeVariable != null) {
+			throw new IllegalStateException(
+					"Badge variable " + badgeVariable + " can only be rendered by PayloadTemplate");
+		}
+	}
+	
+	private void write(PayloadBuffer buffer) {
+		buffer.beginObject().writeName(APS_NAME).beginObject();
+		if (badgeVariable != null) {
+			buffer.writeName(BADGE_NAME).value(PayloadTemplate.variable(badgeVariable));
+		} else if (badge != null) {
+			buffer.writeName(BADGE_NAME).value(badge);
+		}
+		
+		if (soundFileName != null) {
+			buffer.writeName(SOUND_NAME).value(soundFileName);
+		}
+		
+		if (contentAvailable != null) {
+			buffer.writeName(CONTENT_AVAILABLE_NAME).value(contentAvailable);
+		}
+		
+		if (category != null) {
+			buffer.writeName(CATEGORY_NAME).value(category);
+		}
+		
+		if (threadId != null) {
+			buffer.writeName(THREAD_ID_NAME).value(threadId);
+		}
+		
+		if (hasMoreAlertKeys != null) {
+			buffer.writeName(ALERT_NAME);
+			if (!hasMoreAlertKeys) {
+				buffer.value(alertBody);
+			} else {
+				buffer.beginObject();
+				writeMember(buffer, TITLE_NAME, alertTitle);
+				writeMember(buffer, BODY_NAME, alertBody);
+				writeMember(buffer, TITLE_LOC_KEY_NAME, alertTitleLocKey);
+				writeMember(buffer, TITLE_LOC_ARGS_NAME, alertTitleLocArgs);
+				writeMember(buffer, LOC_KEY_NAME, alertLocKey);
+				writeMember(buffer, LOC_ARGS_NAME, alertLocArgs);
+				writeMember(buffer, LAUNCH_IMAGE_NAME, alertLaunchImage);
+				buffer.endObject();
+			}
+		}//initiated only when one of alert keys is set
+		buffer.endObject();
+		
+		for (final Map.Entry<String, Object> entry:customerData.entrySet()) {
+			buffer.writeName(entry.getKey());
+			writeValue(buffer, entry.getValue());
+		}
+		buffer.endObject();
+	}
+	
+	private static void writeMember(PayloadBuffer buffer, byte[] name, String value) {
+		if (value != null) {
+			buffer.writeName(name).value(value);
+		}
+	}
+	
+	private static void writeMember(PayloadBuffer buffer, byte[] name, String[] values) {
+		if (values != null) {
+			buffer.writeName(name).beginArray();
+			for (String value:values) {
+				buffer.value(value);
+			}
+			buffer.endArray();
+		}
+	}
+	
+	/**
+	 * Writes a custom data value; common types are written directly
+	 * and everything else is serialized by Gson
+	 */
+	static void writeValue(PayloadBuffer buffer, Object value) {
+		if (value instanceof String) {
+			buffer.value((String) value);
+		} else if (value instanceof Integer || value instanceof Long 
+				|| value instanceof Short || value instanceof Byte) {
+			buffer.value(((Number) value).longValue());
+		} else if (value instanceof Boolean) {
+			buffer.value((Boolean) value);
+		} else if (value instanceof String[]) {
+			buffer.beginArray();
+			for (String element:(String[]) value) {
+				buffer.value(element);
+			}
+			buffer.endArray();
+		} else {
+			buffer.rawValue(COMPACT_GSON.toJson(value));
+		}
+	}
+	
 	@Override
 	public String toString() {
-		return build().toString();
+		if (badgeVariable != null) {
+			return new String(buildTemplateBytes(), StandardCharsets.UTF_8);
+		}
+		return build();
 	}
 	
 }
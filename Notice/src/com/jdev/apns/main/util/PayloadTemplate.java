@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) [2018] [Seung Hwan, Jin]
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. 
+ */
+
+package com.jdev.apns.main.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * PayloadTemplate is a payload compiled once for sending the same structure
+ * to many recipients. Values that differ per recipient are marked with
+ * variable(name) in PayloadBuilder, e.g.
+ * <pre>
+ * PayloadTemplate template = PayloadTemplate.compile(new PayloadBuilder()
+ *		.setAlertBody(PayloadTemplate.variable("body"), false)
+ *		.setBadgeVariable("badge")
+ *		.setSound("default"));
+ * byte[] payload = template.render("Hello", 3);
+ * </pre>
+ * The static parts of the JSON are kept as pre-encoded byte segments,
+ * so rendering only escapes the values and copies the segments;
+ * the size is checked while the payload is written.
+ * A variable can be rendered as a String, a Number, a Boolean, a String[]
+ * or any other object Gson can serialize.
+ * 
+ * @author seunghwanjin
+ */
+public class PayloadTemplate {
+	private static final String VARIABLE_PREFIX = "${";
+	private static final String VARIABLE_SUFFIX = "}";
+	
+	/**
+	 * Static JSON between variables; there is one more segment than slots
+	 */
+	private final byte[][] segments;
+	
+	/**
+	 * Index into variables for every slot, in the order slots appear
+	 */
+	private final int[] slots;
+	private final List<String> variables;
+	private final int staticSize;
+	
+	private PayloadTemplate(byte[][] segments, int[] slots, List<String> variables) {
+		this.segments = segments;
+		this.slots = slots;
+		this.variables = variables;
+		
+		int size = 0;
+		for (byte[] segment:segments) {
+			size += segment.length;
+		}
+		this.staticSize = size;
+	}
+	
+	/**
+	 * Returns the placeholder that marks a variable in PayloadBuilder
+	 * @param name name of the variable
+	 * @return placeholder
+	 */
+	public static String variable(String name) {
+		return VARIABLE_PREFIX + name + VARIABLE_SUFFIX;
+	}
+	
+	/**
+	 * Compiles the payload of the builder into a template
+	 * @param builder payload with variables
+	 * @return PayloadTemplate
+	 * @throws IllegalArgumentException when the static part exceeds the maximum size
+	 */
+	public static PayloadTemplate compile(PayloadBuilder builder) {
+		return compile(builder.buildTemplateBytes());
+	}
+	
+	/**
+	 * Compiles compact JSON in which every string value of the form "${name}"
+	 * is a variable
+	 * @param json payload in UTF-8
+	 * @return PayloadTemplate
+	 */
+	public static PayloadTemplate compile(byte[] json) {
+		final List<byte[]> segments = new ArrayList<>();
+		final List<Integer> slots = new ArrayList<>();
+		final List<String> variables = new ArrayList<>();
+		final Map<String, Integer> indexes = new HashMap<>();
+		
+		int segmentStart = 0;
+		int i = 0;
+		while (i < json.length) {
+			if (json[i] != '"') {
+				i++;
+				continue;
+			}
+			
+			final int start = i++;
+			while (json[i] != '"') {
+				i += json[i] == '\\' ? 2 : 1;
+			}
+			final int end = ++i;//exclusive, after the closing quote
+			
+			final String name = variableName(json, start, end);
+			if (name != null && (end == json.length || json[end] != ':')) {
+				segments.add(Arrays.copyOfRange(json, segmentStart, start));
+				Integer index = indexes.get(name);
+				if (index == null) {
+					index = variables.size();
+					indexes.put(name, index);
+					variables.add(name);
+				}
+				slots.add(index);
+				segmentStart = end;
+			}
+		}
+		segments.add(Arrays.copyOfRange(json, segmentStart, json.length));
+		
+		final int[] slotArray = new int[slots.size()];
+		for (int j = 0; j < slotArray.length; j++) {
+			slotArray[j] = slots.get(j);
+		}
+		return new PayloadTemplate(segments.toArray(new byte[0][]), slotArray, 
+				Collections.unmodifiableList(variables));
+	}
+	
+	/**
+	 * @return variable name if the quoted string from start to end is a placeholder
+	 */
+	private static String variableName(byte[] json, int start, int end) {
+		final int prefix = start + 1 + VARIABLE_PREFIX.length();
+		final int suffix = end - 1 - VARIABLE_SUFFIX.length();
+		if (suffix <= prefix || json[start + 1] != '$' || json[start + 2] != '{' || json[suffix] != '}') {
+			return null;
+		}
+		
+		for (int i = prefix; i < suffix; i++) {
+			final byte b = json[i];
+			if (b == '\\' || b == '{' || b == '}' || b < 0) {
+				return null;
+			}
+		}
+		return new String(json, prefix, suffix - prefix, StandardCharsets.US_ASCII);
+	}
+	
+	/**
+	 * @return names of the variables in the order render() takes their values
+	 */
+	public List<String> getVariables() {
+		return variables;
+	}
+	
+	/**
+	 * @return size in bytes of the payload without the variables
+	 */
+	public int getStaticSize() {
+		return staticSize;
+	}
+	
+	/**
+	 * Renders the payload for one recipient
+	 * @param values values of the variables in the order of getVariables()
+	 * @return payload in UTF-8
+	 * @throws IllegalArgumentException when payload size exceeds the maximum
+	 */
+	public byte[] render(Object... values) {
+		if (values.length != variables.size()) {
+			throw new IllegalArgumentException(
+					"Expected " + variables.size() + " values but got " + values.length);
+		}
+		
+		final PayloadBuffer buffer = PayloadBuffer.local();
+		for (int i = 0; i < slots.length; i++) {
+			final byte[] segment = segments[i];
+			buffer.writeRaw(segment, 0, segment.length);
+			PayloadBuilder.writeValue(buffer, values[slots[i]]);
+		}
+		final byte[] last = segments[slots.length];
+		buffer.writeRaw(last, 0, last.length);
+		return buffer.toByteArray();
+	}
+	
+	/**
+	 * Renders the payload for one recipient
+	 * @param values values of the variables keyed by name
+	 * @return payload in UTF-8
+	 * @throws IllegalArgumentException when payload size exceeds the maximum
+	 */
+	public byte[] render(Map<String, ?> values) {
+		final Object[] ordered = new Object[variables.size()];
+		for (int i = 0; i < ordered.length; i++) {
+			ordered[i] = values.get(variables.get(i));
+		}
+		return render(ordered);
+	}
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (c) [2018] [Seung Hwan, Jin]
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. 
+ */
+
+package com.jdev.apns.main.util;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/**
+ * TokenProvider hands out the authorization header for token authentication.
+ * The private key is read from the .p8 file once and kept in memory.
+ * The token is signed again in the background before its life time ends,
+ * so senders only read a cached header and never touch the disk or ECDSA.
+ * If the token has already expired (e.g. a background refresh failed),
+ * exactly one sender signs a new token while the others wait for it.
+ * 
+ * @author seunghwanjin
+ */
+public class TokenProvider implements AutoCloseable {
+	/**
+	 * Logger for class TokenProvider
+	 */
+	private final static Logger LOGGER = Logger.getLogger(TokenProvider.class);
+	
+	/**
+	 * Delay before retrying a failed background refresh
+	 */
+	private final static long RETRY_DELAY = 10 * 1000;
+	
+	/**
+	 * Authorization header together with the time it was issued
+	 */
+	private static final class Token {
+		private final String header;
+		private final long issuedAt;
+		
+		private Token(String header, long issuedAt) {
+			this.header = header;
+			this.issuedAt = issuedAt;
+		}
+	}
+	
+	private final String keyId;
+	private final String teamId;
+	private final PrivateKey privateKey;
+	
+	/**
+	 * Token life time in milliseconds
+	 */
+	private final long tokenLifetime;
+	
+	/**
+	 * Tokens are refreshed once this much of the life time has passed
+	 */
+	private final long refreshAfter;
+	
+	private final ScheduledExecutorService scheduler;
+	
+	private volatile Token current;
+	
+	/**
+	 * Creates the provider and signs the first token
+	 * @param keyId the key identifier obtained from developer account (under key)
+	 * @param teamId the team identifier obtained from developer account (under membership)
+	 * @param fileName directory of the .p8 file
+	 * @param tokenLifetime token life time in milliseconds
+	 * @throws IOException
+	 * @throws GeneralSecurityException
+	 */
+	public TokenProvider(String keyId, String teamId, String fileName, long tokenLifetime) 
+			throws IOException, GeneralSecurityException {
+		if (tokenLifetime <= 0) {
+			throw new IllegalArgumentException("Token life time must be positive: " + tokenLifetime);
+		}
+		
+		this.keyId = keyId;
+		this.teamId = teamId;
+		this.privateKey = JWT.readPrivateKey(fileName);
+		this.tokenLifetime = tokenLifetime;
+		this.refreshAfter = tokenLifetime * 9 / 10;
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "apns-token-refresh");
+			thread.setDaemon(true);
+			return thread;
+		});
+		
+		current = sign();
+		scheduleRefresh(refreshAfter);
+	}
+	
+	/**
+	 * This method returns the cached authorization header
+	 * @return "bearer " followed by the token
+	 */
+	public String getAuthorizationHeader() {
+		final Token token = current;
+		if (System.currentTimeMillis() - token.issuedAt < tokenLifetime) {
+			return token.header;
+		}
+		return refresh(token).header;
+	}
+	
+	/**
+	 * @return age of the current token in milliseconds
+	 */
+	public long getTokenAge() {
+		return System.currentTimeMillis() - current.issuedAt;
+	}
+	
+	/**
+	 * This method signs a new token unless another thread already replaced
+	 * the stale one, so that concurrent callers sign only once
+	 * @param stale token the caller found expired
+	 * @return the current token
+	 */
+	private synchronized Token refresh(Token stale) {
+		if (current != stale) {
+			return current;
+		}
+		
+		try {
+			current = sign();
+		} catch (GeneralSecurityException e) {
+			LOGGER.fatal("Failed to create a token for authentication", e);
+			throw new IllegalStateException("Failed to create a token for authentication", e);
+		}
+		return current;
+	}
+	
+	private Token sign() throws GeneralSecurityException {
+		final long now = System.currentTimeMillis();
+		final String token = JWT.generateToken(keyId, teamId, privateKey, now / 1000l);
+		return new Token("bearer " + token, now);
+	}
+	
+	private void scheduleRefresh(long delay) {
+		try {
+			scheduler.schedule(() -> {
+				try {
+					refresh(current);
+					scheduleRefresh(refreshAfter);
+				} catch (RuntimeException e) {
+					LOGGER.error("Failed to refresh token in the background; retrying", e);
+					scheduleRefresh(Math.min(RETRY_DELAY, refreshAfter));
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			LOGGER.debug("Token provider was closed; background refresh stopped");
+		}
+	}
+	
+	/**
+	 * Stops refreshing the token in the background
+	 */
+	@Override
+	public void close() {
+		scheduler.shutdownNow();
+	}
+}
@@ -10,11 +10,14 @@ module Notice {
 	  requires transitive log4j;
 	  requires transitive java.net.http;
 	  requires transitive java.sql;
+	  requires java.management;
 	  requires java.base;
 
 	  exports com.jdev.apns.test;
 	  exports com.jdev.apns.main.impl;
 	  exports com.jdev.apns.main;
 	  exports com.jdev.apns.main.model;
+	  exports com.jdev.apns.main.metrics;
+	  exports com.jdev.apns.main.mock;
 	  exports com.jdev.apns.main.util;
 }
\ No newline at end of file
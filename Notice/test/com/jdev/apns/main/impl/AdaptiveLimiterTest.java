@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) [2018] [Seung Hwan, Jin]
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. 
+ */
+
+package com.jdev.apns.main.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.net.http.HttpTimeoutException;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.Test;
+
+import com.jdev.apns.main.model.NotificationResponse;
+
+/**
+ * Tests for AdaptiveLimiter, driven by the responses APNs would send
+ * 
+ * @author seunghwanjin
+ */
+public class AdaptiveLimiterTest {
+	
+	/**
+	 * Longer than the cool down between two decreases
+	 */
+	private static final long COOL_DOWN_MILLIS = 600;
+	
+	private static NotificationResponse response(int statusCode) {
+		final NotificationResponse response = new NotificationResponse(null);
+		response.setResult(statusCode, null, null);
+		return response;
+	}
+	
+	private static void accept(AdaptiveLimiter limiter, int count) {
+		for (int i = 0; i < count; i++) {
+			limiter.onResponse(response(200));
+		}
+	}
+	
+	@Test
+	public void growsByOnePerAcceptedInSlowStart() {
+		final AdaptiveLimiter limiter = new AdaptiveLimiter(10, 1, 100);
+		accept(limiter, 5);
+		assertEquals(15, limiter.getLimit());
+	}
+	
+	@Test
+	public void halvesOnOverload() {
+		final NotificationResponse[] overloads = {
+				response(429), 
+				response(503), 
+				new NotificationResponse(new HttpTimeoutException("request timed out")), 
+				new NotificationResponse(new TimeoutException())
+		};
+		for (NotificationResponse overload:overloads) {
+			final AdaptiveLimiter limiter = new AdaptiveLimiter(64, 1, 100);
+			limiter.onResponse(overload);
+			assertEquals(32, limiter.getLimit(), String.valueOf(overload.getHttpStatusCode()));
+		}
+	}
+	
+	@Test
+	public void ignoresOtherFailures() {
+		final AdaptiveLimiter limiter = new AdaptiveLimiter(64, 1, 100);
+		limiter.onResponse(response(400));
+		limiter.onResponse(response(410));
+		limiter.onResponse(response(500));
+		limiter.onResponse(new NotificationResponse(new IOException("connection reset")));
+		assertEquals(64, limiter.getLimit());
+	}
+	
+	@Test
+	public void growsAdditivelyAfterOverload() {
+		final AdaptiveLimiter limiter = new AdaptiveLimiter(10, 1, 100);
+		limiter.onResponse(response(429));
+		assertEquals(5, limiter.getLimit());
+		
+		//about one per limit's worth of accepted requests
+		accept(limiter, 5);
+		assertEquals(5, limiter.getLimit());
+		accept(limiter, 5);
+		assertEquals(6, limiter.getLimit());
+	}
+	
+	@Test
+	public void decreasesOncePerCoolDown() throws InterruptedException {
+		final AdaptiveLimiter limiter = new AdaptiveLimiter(64, 1, 100);
+		for (int i = 0; i < 20; i++) {
+			limiter.onResponse(response(i % 2 == 0 ? 429 : 503));
+		}
+		assertEquals(32, limiter.getLimit(), "one burst counts once");
+		
+		Thread.sleep(COOL_DOWN_MILLIS);
+		limiter.onResponse(response(429));
+		assertEquals(16, limiter.getLimit());
+	}
+	
+	@Test
+	public void staysWithinLimits() throws InterruptedException {
+		final AdaptiveLimiter limiter = new AdaptiveLimiter(8, 5, 12);
+		accept(limiter, 10);
+		assertEquals(12, limiter.getLimit());
+		
+		limiter.onResponse(response(503));
+		assertEquals(6, limiter.getLimit());
+		Thread.sleep(COOL_DOWN_MILLIS);
+		limiter.onResponse(response(503));
+		assertEquals(5, limiter.getLimit());
+		
+		assertEquals(12, new AdaptiveLimiter(100, 5, 12).getLimit());
+		assertEquals(5, new AdaptiveLimiter(0, 5, 12).getLimit());
+		assertThrows(IllegalArgumentException.class, () -> new AdaptiveLimiter(1, 0, 12));
+		assertThrows(IllegalArgumentException.class, () -> new AdaptiveLimiter(1, 5, 4));
+	}
+}
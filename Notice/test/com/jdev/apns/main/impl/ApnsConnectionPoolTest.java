@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) [2018] [Seung Hwan, Jin]
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. 
+ */
+
+package com.jdev.apns.main.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.jdev.apns.main.mock.MockApnsServer;
+import com.jdev.apns.main.model.NotificationResponse;
+
+/**
+ * Tests for the admission of ApnsConnectionPool under an AdaptiveLimiter,
+ * against MockApnsServer answering after a fixed latency
+ * 
+ * @author seunghwanjin
+ */
+public class ApnsConnectionPoolTest {
+	
+	private MockApnsServer server;
+	private ApnsConnectionPool pool;
+	private HttpRequest request;
+	private final List<Thread> senders = new ArrayList<>();
+	private final AtomicInteger completed = new AtomicInteger();
+	private final AtomicInteger failed = new AtomicInteger();
+	
+	/**
+	 * Starts the server and a pool with one connection limited by the limiter
+	 */
+	private void open(Duration latency, AdaptiveLimiter limiter) throws Exception {
+		server = new MockApnsServer().setLatency(latency).start();
+		pool = new ApnsConnectionPool(1, 100, server.newClientContext(), limiter);
+		request = HttpRequest.newBuilder(URI.create("https://" + server.getHost() + ":" + server.getPort() 
+				+ "/3/device/" + String.format("%064x", 1)))
+				.POST(HttpRequest.BodyPublishers.ofString("{}"))
+				.build();
+	}
+	
+	@AfterEach
+	public void close() throws InterruptedException {
+		if (pool != null) {
+			pool.close();
+		}
+		if (server != null) {
+			server.close();
+		}
+		for (Thread sender:senders) {
+			sender.join(5000);
+		}
+	}
+	
+	/**
+	 * Starts threads that each send one request synchronously
+	 */
+	private void send(int count) {
+		for (int i = 0; i < count; i++) {
+			final Thread sender = new Thread(() -> {
+				try {
+					pool.send(request, BodyHandlers.discarding());
+					completed.incrementAndGet();
+				} catch (Exception e) {
+					failed.incrementAndGet();
+				}
+			});
+			senders.add(sender);
+			sender.start();
+		}
+	}
+	
+	private static NotificationResponse accepted() {
+		final NotificationResponse response = new NotificationResponse(null);
+		response.setResult(200, null, null);
+		return response;
+	}
+	
+	/**
+	 * Waits until the condition holds
+	 * @param timeout in milliseconds
+	 */
+	private static void await(Supplier<Boolean> condition, long timeout) throws InterruptedException {
+		final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		while (!condition.get()) {
+			assertTrue(System.nanoTime() < deadline, "timed out");
+			Thread.sleep(1);
+		}
+	}
+	
+	@Test
+	public void sendersWaitForTheLimit() throws Exception {
+		open(Duration.ofMillis(200), new AdaptiveLimiter(2, 1, 100));
+		send(6);
+		
+		await(() -> pool.inFlight() == 2 && pool.waiting() == 4, 5000);
+		assertEquals(0, pool.availableStreams());
+		await(() -> completed.get() == 6, 5000);
+		assertEquals(0, failed.get());
+		assertEquals(0, pool.inFlight());
+	}
+	
+	@Test
+	public void sendersWaitLongerWhenTheLimitShrinks() throws Exception {
+		final AdaptiveLimiter limiter = new AdaptiveLimiter(4, 1, 100);
+		open(Duration.ofMillis(200), limiter);
+		send(8);
+		await(() -> pool.inFlight() == 4 && pool.waiting() == 4, 5000);
+		
+		pool.onResponse(new NotificationResponse(new TimeoutException()));
+		assertEquals(2, pool.getConcurrencyLimit());
+		
+		//once the streams over the new limit are released, no more than two are in flight
+		await(() -> completed.get() >= 4, 5000);
+		int most = 0;
+		while (completed.get() + failed.get() < 8) {
+			most = Math.max(most, pool.inFlight());
+			Thread.sleep(1);
+		}
+		assertTrue(most <= 2, "in flight: " + most);
+		assertEquals(8, completed.get());
+	}
+	
+	@Test
+	public void sendersWakeWhenTheLimitGrows() throws Exception {
+		final AdaptiveLimiter limiter = new AdaptiveLimiter(1, 1, 100);
+		open(Duration.ofSeconds(3), limiter);
+		send(4);
+		await(() -> pool.inFlight() == 1 && pool.waiting() == 3, 5000);
+		
+		//no stream is released for seconds, so only the grown limit lets them through
+		for (int i = 0; i < 3; i++) {
+			pool.onResponse(accepted());
+		}
+		assertEquals(4, pool.getConcurrencyLimit());
+		await(() -> pool.inFlight() == 4 && pool.waiting() == 0, 1000);
+		assertEquals(0, completed.get());
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) [2018] [Seung Hwan, Jin]
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. 
+ */
+
+package com.jdev.apns.main.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.jdev.apns.main.Notification;
+import com.jdev.apns.main.mock.MockApnsServer;
+import com.jdev.apns.main.model.NotificationResponse;
+
+/**
+ * Tests for ApnsFlowProcessor against MockApnsServer,
+ * with subscribers that consume slower than APNs answers
+ * 
+ * @author seunghwanjin
+ */
+public class ApnsFlowProcessorTest {
+	
+	private static final int BUFFER = 16;
+	
+	private MockApnsServer server;
+	private ApnsServiceBuilder service;
+	private ExecutorService executor;
+	
+	@BeforeEach
+	public void open() throws Exception {
+		server = new MockApnsServer().setLatency(Duration.ofMillis(1)).start();
+		service = new ApnsServiceBuilder()
+				.setApnsHost(server.getHost(), server.getPort())
+				.setSSLContext(server.newClientContext())
+				.setPoolSize(1)
+				.setDefaultExecutors();
+		executor = Executors.newFixedThreadPool(2);
+	}
+	
+	@AfterEach
+	public void close() {
+		service.close();
+		server.close();
+		executor.shutdownNow();
+	}
+	
+	/**
+	 * Subscriber that sleeps on every response and counts them
+	 */
+	private static final class SlowSubscriber implements Flow.Subscriber<NotificationResponse> {
+		private final long delayMillis;
+		private final AtomicInteger received = new AtomicInteger();
+		private final AtomicInteger accepted = new AtomicInteger();
+		private final CountDownLatch done = new CountDownLatch(1);
+		private volatile Throwable error;
+		
+		private SlowSubscriber(long delayMillis) {
+			this.delayMillis = delayMillis;
+		}
+		
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			subscription.request(Long.MAX_VALUE);
+		}
+		
+		@Override
+		public void onNext(NotificationResponse response) {
+			received.incrementAndGet();
+			if (response.isAccepted()) {
+				accepted.incrementAndGet();
+			}
+			try {
+				Thread.sleep(delayMillis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		
+		@Override
+		public void onError(Throwable throwable) {
+			error = throwable;
+			done.countDown();
+		}
+		
+		@Override
+		public void onComplete() {
+			done.countDown();
+		}
+	}
+	
+	/**
+	 * Sends the notifications through the processor and waits for the subscribers to complete
+	 */
+	private ApnsFlowProcessor run(int count, SlowSubscriber... subscribers) throws InterruptedException {
+		final ApnsFlowProcessor processor = new ApnsFlowProcessor(service, executor, BUFFER);
+		for (SlowSubscriber subscriber:subscribers) {
+			processor.subscribe(subscriber);
+		}
+		
+		try (SubmissionPublisher<Notification> upstream = new SubmissionPublisher<>()) {
+			upstream.subscribe(processor);
+			for (int i = 0; i < count; i++) {
+				upstream.submit(new Notification("{}").setToken(String.format("%064x", i)).setTopic("test"));
+			}
+		}
+		for (SlowSubscriber subscriber:subscribers) {
+			assertTrue(subscriber.done.await(30, TimeUnit.SECONDS));
+		}
+		return processor;
+	}
+	
+	@Test
+	public void slowSubscriberLosesNoResponse() throws InterruptedException {
+		final SlowSubscriber subscriber = new SlowSubscriber(2);
+		final ApnsFlowProcessor processor = run(500, subscriber);
+		
+		assertEquals(null, subscriber.error);
+		assertEquals(500, subscriber.received.get());
+		assertEquals(500, subscriber.accepted.get());
+		assertEquals(0, processor.getDropped());
+		assertEquals(0, processor.getActive());
+	}
+	
+	@Test
+	public void slowestSubscriberBoundsDemand() throws InterruptedException {
+		final SlowSubscriber fast = new SlowSubscriber(0);
+		final SlowSubscriber slow = new SlowSubscriber(3);
+		final ApnsFlowProcessor processor = run(300, fast, slow);
+		
+		assertEquals(300, fast.received.get());
+		assertEquals(300, slow.received.get());
+		assertEquals(0, processor.getDropped());
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) [2018] [Seung Hwan, Jin]
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. 
+ */
+
+package com.jdev.apns.main.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.jdev.apns.main.DeviceToken;
+
+/**
+ * Tests for DeadTokenRegistry: the Bloom filter and sorted hashes,
+ * merging pending tokens and saving to a file
+ * 
+ * @author seunghwanjin
+ */
+public class DeadTokenRegistryTest {
+	
+	@TempDir
+	Path directory;
+	
+	/**
+	 * @param seed
+	 * @return random 32-byte device token as lower case hex
+	 */
+	private static String token(long seed) {
+		final byte[] bytes = new byte[DeviceToken.LENGTH];
+		new Random(seed).nextBytes(bytes);
+		return DeviceToken.of(bytes).toString();
+	}
+	
+	@Test
+	public void recordsTokensWithTimestamps() {
+		final DeadTokenRegistry registry = new DeadTokenRegistry();
+		registry.add(token(1).toUpperCase(), 1000);
+		
+		assertTrue(registry.isDead(token(1)));
+		assertEquals(1000, registry.getTimestamp(token(1)));
+		assertFalse(registry.isDead(token(2)));
+		assertEquals(-1, registry.getTimestamp(token(2)));
+		assertEquals(-1, registry.getTimestamp((String) null));
+	}
+	
+	@Test
+	public void matchesStringAndDeviceTokenForms() {
+		final DeadTokenRegistry registry = new DeadTokenRegistry();
+		registry.add(DeviceToken.of(token(1)), 1000);
+		registry.add(token(2), 2000);
+		
+		assertEquals(DeadTokenRegistry.hash(token(3)), DeadTokenRegistry.hash(DeviceToken.of(token(3))));
+		assertEquals(1000, registry.getTimestamp(token(1)));
+		assertEquals(2000, registry.getTimestamp(DeviceToken.of(token(2))));
+	}
+	
+	@Test
+	public void keepsNewerTimestamp() {
+		final DeadTokenRegistry registry = new DeadTokenRegistry();
+		registry.add(token(1), 2000);
+		registry.add(token(1), 1000);
+		assertEquals(2000, registry.getTimestamp(token(1)));
+		
+		//merged into the sorted index, then updated while pending
+		for (int i = 100; i < 2100; i++) {
+			registry.add(token(i), i);
+		}
+		registry.add(token(1), 3000);
+		assertEquals(3000, registry.getTimestamp(token(1)));
+		registry.add(token(1), 500);
+		assertEquals(3000, registry.getTimestamp(token(1)));
+		assertEquals(2001, registry.size());
+	}
+	
+	@Test
+	public void mergesPendingTokens() {
+		final DeadTokenRegistry registry = new DeadTokenRegistry();
+		final int count = 5000;
+		for (int i = 0; i < count; i++) {
+			registry.add(token(i), i);
+		}
+		
+		assertEquals(count, registry.size());
+		for (int i = 0; i < count; i++) {
+			assertEquals(i, registry.getTimestamp(token(i)), "token " + i);
+		}
+		for (int i = count; i < 2 * count; i++) {
+			assertFalse(registry.isDead(token(i)), "token " + i);
+		}
+	}
+	
+	@Test
+	public void removesPendingAndMergedTokens() {
+		final DeadTokenRegistry registry = new DeadTokenRegistry();
+		for (int i = 0; i < 2000; i++) {
+			registry.add(token(i), i);
+		}
+		registry.add(token(5000), 5000);
+		
+		registry.remove(token(10));
+		registry.remove(DeviceToken.of(token(5000)));
+		
+		assertFalse(registry.isDead(token(10)));
+		assertFalse(registry.isDead(token(5000)));
+		assertTrue(registry.isDead(token(11)));
+		assertEquals(1999, registry.size());
+	}
+	
+	@Test
+	public void savesAndLoads() throws IOException {
+		final Path file = directory.resolve("dead-tokens.bin");
+		final DeadTokenRegistry registry = new DeadTokenRegistry(file);
+		for (int i = 0; i < 1500; i++) {
+			registry.add(token(i), i);
+		}
+		registry.save();
+		
+		final DeadTokenRegistry loaded = new DeadTokenRegistry(file);
+		assertEquals(file, loaded.getFile());
+		assertEquals(1500, loaded.size());
+		for (int i = 0; i < 1500; i++) {
+			assertEquals(i, loaded.getTimestamp(token(i)), "token " + i);
+		}
+		assertFalse(loaded.isDead(token(1500)));
+	}
+	
+	@Test
+	public void rejectsFileOfAnotherFormat() throws IOException {
+		final Path file = Files.write(directory.resolve("other.bin"), new byte[] {1, 2, 3, 4, 0, 0, 0, 0});
+		assertThrows(IOException.class, () -> new DeadTokenRegistry(file));
+	}
+	
+	@Test
+	public void requiresFileToSave() {
+		assertThrows(IllegalStateException.class, () -> new DeadTokenRegistry().save());
+	}
+}
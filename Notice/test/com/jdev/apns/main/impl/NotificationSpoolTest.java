@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) [2018] [Seung Hwan, Jin]
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. 
+ */
+
+package com.jdev.apns.main.impl;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.jdev.apns.main.Constants;
+import com.jdev.apns.main.Notification;
+
+/**
+ * Tests for NotificationSpool: recovery of notifications without an ack,
+ * CRC checks and deletion of acked segments
+ * 
+ * @author seunghwanjin
+ */
+public class NotificationSpoolTest {
+	
+	private static final int SEGMENT_SIZE = 4096;
+	
+	@TempDir
+	Path directory;
+	
+	private static Notification notification(int index) {
+		return new Notification("{\"aps\":{\"alert\":\"" + index + "\"}}")
+				.setToken(String.format("%064x", index))
+				.setTopic("com.example.app")
+				.setCollapseId("c" + index)
+				.setExpiration(1_700_000_000 + index)
+				.setPriority(Constants.LOW_PRIORITY)
+				.setUuid(new UUID(index, index));
+	}
+	
+	private List<Path> segments() throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.sorted().collect(Collectors.toList());
+		}
+	}
+	
+	@Test
+	public void recoversNotificationsWithoutAck() throws IOException {
+		final List<Long> sequences = new ArrayList<>();
+		try (NotificationSpool spool = new NotificationSpool(directory, SEGMENT_SIZE, 1000)) {
+			for (int i = 0; i < 20; i++) {
+				sequences.add(spool.append(notification(i)));
+			}
+			for (int i = 0; i < 20; i++) {
+				if (i % 5 != 0) {
+					spool.ack(sequences.get(i));
+				}
+			}
+		}
+		
+		try (NotificationSpool spool = new NotificationSpool(directory, SEGMENT_SIZE, 1000)) {
+			final Map<Long, Notification> recovered = spool.takeRecovered();
+			assertEquals(List.of(sequences.get(0), sequences.get(5), sequences.get(10), sequences.get(15)), 
+					new ArrayList<>(recovered.keySet()));
+			
+			final Notification expected = notification(5);
+			final Notification actual = recovered.get(sequences.get(5));
+			assertArrayEquals(expected.getPayload().getBytes(Constants.UTF8), actual.getPayloadBytes());
+			assertEquals(expected.getToken(), actual.getToken());
+			assertEquals(expected.getTopic(), actual.getTopic());
+			assertEquals(expected.getCollapseId(), actual.getCollapseId());
+			assertEquals(expected.getExpiration(), actual.getExpiration());
+			assertEquals(expected.getPriority(), actual.getPriority());
+			assertEquals(expected.getUuid(), actual.getUuid());
+			
+			assertTrue(spool.takeRecovered().isEmpty(), "recovered notifications are handed out once");
+			assertTrue(spool.append(notification(20)) > sequences.get(19), "sequences continue");
+		}
+	}
+	
+	@Test
+	public void recoversWhatWasFlushedBeforeCrash() throws IOException {
+		final NotificationSpool crashed = new NotificationSpool(directory, SEGMENT_SIZE, 1000);
+		final long first = crashed.append(notification(1));
+		final long second = crashed.append(notification(2));
+		crashed.ack(first);
+		crashed.flush();
+		
+		//opened without closing the first one, as after a crash
+		try (NotificationSpool spool = new NotificationSpool(directory, SEGMENT_SIZE, 1000)) {
+			assertEquals(List.of(second), new ArrayList<>(spool.takeRecovered().keySet()));
+		} finally {
+			crashed.close();
+		}
+	}
+	
+	@Test
+	public void deletesSegmentsOnceAcked() throws IOException {
+		try (NotificationSpool spool = new NotificationSpool(directory, SEGMENT_SIZE, 1000)) {
+			final List<Long> sequences = new ArrayList<>();
+			for (int i = 0; i < 200; i++) {
+				sequences.add(spool.append(notification(i)));
+			}
+			assertTrue(segments().size() > 3, "notifications span several segments");
+			
+			//the oldest notification pins its segment and every later one
+			for (int i = 1; i < sequences.size(); i++) {
+				spool.ack(sequences.get(i));
+			}
+			final int pinned = segments().size();
+			assertTrue(pinned > 3);
+			
+			spool.ack(sequences.get(0));
+			assertEquals(1, segments().size(), "only the current segment is left");
+			assertTrue(pinned > segments().size());
+		}
+	}
+	
+	@Test
+	public void ignoresRecordsAfterChecksumMismatch() throws IOException {
+		final long first;
+		try (NotificationSpool spool = new NotificationSpool(directory, SEGMENT_SIZE, 1000)) {
+			first = spool.append(notification(1));
+			spool.append(notification(2));
+			spool.append(notification(3));
+		}
+		
+		final Path segment = segments().get(0);
+		try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			final ByteBuffer header = ByteBuffer.allocate(4);
+			channel.read(header, 0);
+			final int firstLength = header.getInt(0);
+			
+			//flips a byte in the body of the second record
+			final long position = 8 + firstLength + 8 + 20;
+			final ByteBuffer value = ByteBuffer.allocate(1);
+			channel.read(value, position);
+			value.put(0, (byte) ~value.get(0)).rewind();
+			channel.write(value, position);
+		}
+		
+		try (NotificationSpool spool = new NotificationSpool(directory, SEGMENT_SIZE, 1000)) {
+			assertEquals(List.of(first), new ArrayList<>(spool.takeRecovered().keySet()));
+		}
+	}
+	
+	@Test
+	public void rejectsAppendAfterClose() throws IOException {
+		final NotificationSpool spool = new NotificationSpool(directory, SEGMENT_SIZE, 1000);
+		spool.close();
+		assertThrows(IllegalStateException.class, () -> spool.append(notification(1)));
+	}
+	
+	@Test
+	public void rejectsNotificationLargerThanSegment() throws IOException {
+		try (NotificationSpool spool = new NotificationSpool(directory, SEGMENT_SIZE, 1000)) {
+			final Notification large = new Notification(new byte[SEGMENT_SIZE]).setToken("00");
+			assertThrows(IllegalArgumentException.class, () -> spool.append(large));
+		}
+	}
+}
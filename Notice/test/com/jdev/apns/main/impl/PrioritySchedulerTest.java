@@ -0,0 +1,349 @@
+/*
+ * Copyright (c) [2018] [Seung Hwan, Jin]
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. 
+ */
+
+package com.jdev.apns.main.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.jdev.apns.main.Constants;
+import com.jdev.apns.main.Notification;
+import com.jdev.apns.main.metrics.ApnsMetrics;
+import com.jdev.apns.main.model.NotificationResponse;
+
+/**
+ * Tests for PriorityScheduler. The single dispatcher is held on a first
+ * notification while the test fills the queues, so the order it sends
+ * the rest in is the order the scheduler chose
+ * 
+ * @author seunghwanjin
+ */
+public class PrioritySchedulerTest {
+	
+	private static final Duration NO_PREEMPTION = Duration.ofHours(1);
+	
+	private final Notification hold = new Notification("{}").setTopic("hold");
+	private final CountDownLatch held = new CountDownLatch(1);
+	private final CountDownLatch released = new CountDownLatch(1);
+	private final List<String> sent = Collections.synchronizedList(new ArrayList<>());
+	private final ApnsMetrics metrics = new ApnsMetrics();
+	private PriorityScheduler scheduler;
+	
+	private CompletableFuture<NotificationResponse> send(Notification notification, long start) {
+		if (notification == hold) {
+			held.countDown();
+			try {
+				released.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		} else {
+			sent.add(notification.getTopic());
+		}
+		final NotificationResponse response = new NotificationResponse(null);
+		response.setResult(200, null, null);
+		return CompletableFuture.completedFuture(response);
+	}
+	
+	/**
+	 * Opens the scheduler with one dispatcher and holds it until release()
+	 */
+	private void open(int highWeight, int lowWeight, Duration highLatencyTarget) throws InterruptedException {
+		open(highWeight, lowWeight, highLatencyTarget, false, false, false);
+	}
+	
+	/**
+	 * Opens the scheduler with equal weights and holds its dispatcher until release()
+	 */
+	private void open(boolean isCoalescing, boolean isDroppingExpired, boolean isEarliestDeadlineFirst) 
+			throws InterruptedException {
+		open(1, 1, NO_PREEMPTION, isCoalescing, isDroppingExpired, isEarliestDeadlineFirst);
+	}
+	
+	private void open(int highWeight, int lowWeight, Duration highLatencyTarget, boolean isCoalescing, 
+			boolean isDroppingExpired, boolean isEarliestDeadlineFirst) throws InterruptedException {
+		scheduler = new PriorityScheduler(this::send, metrics, highWeight, lowWeight, highLatencyTarget, 
+				1000, isCoalescing, isDroppingExpired, isEarliestDeadlineFirst, 1);
+		scheduler.submit(hold);
+		assertTrue(held.await(5, TimeUnit.SECONDS));
+	}
+	
+	/**
+	 * @param label topic the sender records
+	 * @param priority
+	 * @return notification to a fixed device token
+	 */
+	private static Notification notification(String label, int priority) {
+		return notification(label, priority, 1, null);
+	}
+	
+	/**
+	 * @param label topic the sender records
+	 * @param priority
+	 * @param device number of the device token
+	 * @param collapseId may be {@value null}
+	 * @return notification
+	 */
+	private static Notification notification(String label, int priority, int device, String collapseId) {
+		return new Notification("{}").setToken(String.format("%064x", device)).setTopic(label)
+				.setPriority(priority).setCollapseId(collapseId);
+	}
+	
+	/**
+	 * Releases the dispatcher and waits for every future
+	 * @return labels in the order they were sent
+	 */
+	private List<String> release(List<CompletableFuture<NotificationResponse>> futures) {
+		released.countDown();
+		CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).orTimeout(5, TimeUnit.SECONDS).join();
+		return new ArrayList<>(sent);
+	}
+	
+	@AfterEach
+	public void close() {
+		released.countDown();
+		if (scheduler != null) {
+			scheduler.close();
+		}
+	}
+	
+	@Test
+	public void servesClassesInWeightedRoundRobin() throws InterruptedException {
+		open(3, 1, NO_PREEMPTION);
+		final List<CompletableFuture<NotificationResponse>> futures = new ArrayList<>();
+		for (int i = 1; i <= 6; i++) {
+			futures.add(scheduler.submit(notification("l" + i, Constants.LOW_PRIORITY)));
+		}
+		for (int i = 1; i <= 6; i++) {
+			futures.add(scheduler.submit(notification("h" + i, Constants.HIGH_PRIORITY)));
+		}
+		assertEquals(6, scheduler.getHighPriorityDepth());
+		assertEquals(6, scheduler.getLowPriorityDepth());
+		
+		assertEquals(List.of("h1", "h2", "h3", "l1", "h4", "h5", "h6", "l2", "l3", "l4", "l5", "l6"), 
+				release(futures));
+		assertEquals(7, metrics.getQueueWait(true).getCount(), "six and the held notification");
+		assertEquals(6, metrics.getQueueWait(false).getCount());
+	}
+	
+	@Test
+	public void takesHighPriorityAheadOfTurnAfterLatencyTarget() throws InterruptedException {
+		open(1, 100, Duration.ofMillis(20));
+		final List<CompletableFuture<NotificationResponse>> futures = new ArrayList<>();
+		futures.add(scheduler.submit(notification("h1", Constants.HIGH_PRIORITY)));
+		futures.add(scheduler.submit(notification("h2", Constants.HIGH_PRIORITY)));
+		for (int i = 1; i <= 4; i++) {
+			futures.add(scheduler.submit(notification("l" + i, Constants.LOW_PRIORITY)));
+		}
+		Thread.sleep(50);
+		
+		assertEquals(List.of("h1", "h2", "l1", "l2", "l3", "l4"), release(futures));
+	}
+	
+	@Test
+	public void waitsForTurnWithinLatencyTarget() throws InterruptedException {
+		open(1, 100, NO_PREEMPTION);
+		final List<CompletableFuture<NotificationResponse>> futures = new ArrayList<>();
+		futures.add(scheduler.submit(notification("h1", Constants.HIGH_PRIORITY)));
+		futures.add(scheduler.submit(notification("h2", Constants.HIGH_PRIORITY)));
+		for (int i = 1; i <= 4; i++) {
+			futures.add(scheduler.submit(notification("l" + i, Constants.LOW_PRIORITY)));
+		}
+		
+		assertEquals(List.of("h1", "l1", "l2", "l3", "l4", "h2"), release(futures));
+	}
+	
+	@Test
+	public void failsQueuedNotificationsOnClose() throws InterruptedException {
+		open(1, 1, NO_PREEMPTION);
+		final CompletableFuture<NotificationResponse> queued = 
+				scheduler.submit(notification("l1", Constants.LOW_PRIORITY));
+		
+		assertEquals(1, scheduler.shutdown());
+		assertTrue(queued.isDone());
+		assertTrue(queued.join().getCause() instanceof IllegalStateException);
+		assertTrue(scheduler.submit(notification("l2", Constants.LOW_PRIORITY)).join().getCause() 
+				instanceof IllegalStateException);
+	}
+	
+	@Test
+	public void replacesQueuedNotificationWithSameCollapseKey() throws InterruptedException {
+		open(true, false, false);
+		final CompletableFuture<NotificationResponse> first = 
+				scheduler.submit(notification("a1", Constants.LOW_PRIORITY, 1, "score"));
+		final CompletableFuture<NotificationResponse> other = 
+				scheduler.submit(notification("b", Constants.LOW_PRIORITY, 2, "score"));
+		final CompletableFuture<NotificationResponse> latest = 
+				scheduler.submit(notification("a2", Constants.LOW_PRIORITY, 1, "score"));
+		
+		assertTrue(first.join().isCoalesced());
+		assertEquals(2, scheduler.getLowPriorityDepth());
+		assertEquals(1, metrics.getCoalesced());
+		
+		//the latest notification keeps the place of the one it replaced
+		assertEquals(List.of("a2", "b"), release(List.of(other, latest)));
+		assertTrue(latest.join().isAccepted());
+	}
+	
+	@Test
+	public void movesReplacementToQueueOfItsPriority() throws InterruptedException {
+		open(true, false, false);
+		final CompletableFuture<NotificationResponse> first = 
+				scheduler.submit(notification("a1", Constants.LOW_PRIORITY, 1, "score"));
+		final CompletableFuture<NotificationResponse> other = 
+				scheduler.submit(notification("b", Constants.LOW_PRIORITY, 2, null));
+		final CompletableFuture<NotificationResponse> latest = 
+				scheduler.submit(notification("a2", Constants.HIGH_PRIORITY, 1, "score"));
+		
+		assertTrue(first.join().isCoalesced());
+		assertEquals(1, scheduler.getHighPriorityDepth());
+		assertEquals(1, scheduler.getLowPriorityDepth());
+		assertEquals(List.of("a2", "b"), release(List.of(other, latest)));
+	}
+	
+	@Test
+	public void keepsNotificationsWithoutCollapseKey() throws InterruptedException {
+		open(true, false, false);
+		final List<CompletableFuture<NotificationResponse>> futures = new ArrayList<>();
+		futures.add(scheduler.submit(notification("a1", Constants.LOW_PRIORITY, 1, null)));
+		futures.add(scheduler.submit(notification("a2", Constants.LOW_PRIORITY, 1, null)));
+		futures.add(scheduler.submit(notification("b1", Constants.LOW_PRIORITY, 2, "score")));
+		futures.add(scheduler.submit(notification("b2", Constants.LOW_PRIORITY, 2, "news")));
+		
+		assertEquals(List.of("a1", "a2", "b1", "b2"), release(futures));
+		assertEquals(0, metrics.getCoalesced());
+	}
+	
+	@Test
+	public void keepsNotificationsWhenCoalescingIsOff() throws InterruptedException {
+		open(false, false, false);
+		final List<CompletableFuture<NotificationResponse>> futures = new ArrayList<>();
+		futures.add(scheduler.submit(notification("a1", Constants.LOW_PRIORITY, 1, "score")));
+		futures.add(scheduler.submit(notification("a2", Constants.LOW_PRIORITY, 1, "score")));
+		
+		assertEquals(List.of("a1", "a2"), release(futures));
+	}
+	
+	@Test
+	public void doesNotReplaceNotificationAlreadyTaken() throws InterruptedException {
+		open(true, false, false);
+		final CompletableFuture<NotificationResponse> first = 
+				scheduler.submit(notification("a1", Constants.LOW_PRIORITY, 1, "score"));
+		release(List.of(first));
+		final CompletableFuture<NotificationResponse> latest = 
+				scheduler.submit(notification("a2", Constants.LOW_PRIORITY, 1, "score"));
+		
+		assertTrue(latest.orTimeout(5, TimeUnit.SECONDS).join().isAccepted());
+		assertTrue(first.join().isAccepted());
+		assertEquals(List.of("a1", "a2"), sent);
+	}
+	
+	/**
+	 * @param seconds from now
+	 * @return apns-expiration
+	 */
+	private static int expiresIn(int seconds) {
+		return (int) (System.currentTimeMillis() / 1000) + seconds;
+	}
+	
+	@Test
+	public void dropsNotificationsExpiredWhileQueued() throws InterruptedException {
+		open(false, true, false);
+		final CompletableFuture<NotificationResponse> expired = scheduler.submit(
+				notification("expired", Constants.LOW_PRIORITY).setExpiration(expiresIn(-10)));
+		final CompletableFuture<NotificationResponse> current = scheduler.submit(
+				notification("current", Constants.LOW_PRIORITY).setExpiration(expiresIn(3600)));
+		final CompletableFuture<NotificationResponse> once = scheduler.submit(
+				notification("once", Constants.LOW_PRIORITY).setExpiration(0));
+		
+		//found as the dispatcher takes it, not when queued
+		assertEquals(3, scheduler.getLowPriorityDepth());
+		assertEquals(List.of("current", "once"), release(List.of(expired, current, once)));
+		assertTrue(expired.join().isExpired());
+		assertEquals(1, metrics.getExpired());
+	}
+	
+	@Test
+	public void sendsExpiredNotificationsWhenDroppingIsOff() throws InterruptedException {
+		open(false, false, false);
+		final CompletableFuture<NotificationResponse> expired = scheduler.submit(
+				notification("expired", Constants.LOW_PRIORITY).setExpiration(expiresIn(-10)));
+		
+		assertEquals(List.of("expired"), release(List.of(expired)));
+		assertEquals(0, metrics.getExpired());
+	}
+	
+	@Test
+	public void ordersEachClassByEarliestDeadline() throws InterruptedException {
+		open(false, false, true);
+		final List<CompletableFuture<NotificationResponse>> futures = new ArrayList<>();
+		futures.add(scheduler.submit(notification("none", Constants.LOW_PRIORITY).setExpiration(0)));
+		futures.add(scheduler.submit(notification("300", Constants.LOW_PRIORITY).setExpiration(expiresIn(300))));
+		futures.add(scheduler.submit(notification("100", Constants.LOW_PRIORITY).setExpiration(expiresIn(100))));
+		futures.add(scheduler.submit(notification("200a", Constants.LOW_PRIORITY).setExpiration(expiresIn(200))));
+		futures.add(scheduler.submit(notification("200b", Constants.LOW_PRIORITY).setExpiration(expiresIn(200))));
+		
+		//equal deadlines keep the order they were queued in
+		assertEquals(List.of("100", "200a", "200b", "300", "none"), release(futures));
+	}
+	
+	@Test
+	public void coalescesInPlaceWithEqualExpiration() throws InterruptedException {
+		open(true, false, true);
+		final int expiration = expiresIn(100);
+		final CompletableFuture<NotificationResponse> first = scheduler.submit(
+				notification("a1", Constants.LOW_PRIORITY, 1, "score").setExpiration(expiration));
+		final CompletableFuture<NotificationResponse> other = scheduler.submit(
+				notification("b", Constants.LOW_PRIORITY, 2, null).setExpiration(expiresIn(200)));
+		final CompletableFuture<NotificationResponse> latest = scheduler.submit(
+				notification("a2", Constants.LOW_PRIORITY, 1, "score").setExpiration(expiration));
+		
+		assertTrue(first.join().isCoalesced());
+		assertEquals(List.of("a2", "b"), release(List.of(other, latest)));
+	}
+	
+	@Test
+	public void requeuesReplacementByItsOwnExpiration() throws InterruptedException {
+		open(true, false, true);
+		final CompletableFuture<NotificationResponse> first = scheduler.submit(
+				notification("a1", Constants.LOW_PRIORITY, 1, "score").setExpiration(expiresIn(100)));
+		final CompletableFuture<NotificationResponse> other = scheduler.submit(
+				notification("b", Constants.LOW_PRIORITY, 2, null).setExpiration(expiresIn(200)));
+		final CompletableFuture<NotificationResponse> latest = scheduler.submit(
+				notification("a2", Constants.LOW_PRIORITY, 1, "score").setExpiration(expiresIn(300)));
+		
+		assertTrue(first.join().isCoalesced());
+		assertEquals(2, scheduler.getLowPriorityDepth());
+		assertEquals(List.of("b", "a2"), release(List.of(other, latest)));
+	}
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) [2018] [Seung Hwan, Jin]
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. 
+ */
+
+package com.jdev.apns.main.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.jdev.apns.main.model.NotificationResponse;
+
+/**
+ * Tests for RetryScheduler. Retries block the way a send blocks
+ * on a pool without free streams, until the test releases them
+ * 
+ * @author seunghwanjin
+ */
+public class RetrySchedulerTest {
+	
+	private final CountDownLatch released = new CountDownLatch(1);
+	private final AtomicInteger blocked = new AtomicInteger();
+	private RetryScheduler scheduler;
+	
+	/**
+	 * @return attempt that fails with an I/O error first, then blocks until release and is accepted
+	 */
+	private Supplier<CompletableFuture<NotificationResponse>> attempt() {
+		final AtomicInteger attempts = new AtomicInteger();
+		return () -> {
+			if (attempts.incrementAndGet() == 1) {
+				return CompletableFuture.completedFuture(new NotificationResponse(new IOException("reset")));
+			}
+			blocked.incrementAndGet();
+			try {
+				released.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			final NotificationResponse response = new NotificationResponse(null);
+			response.setResult(200, null, null);
+			return CompletableFuture.completedFuture(response);
+		};
+	}
+	
+	private List<CompletableFuture<NotificationResponse>> execute(int count) {
+		final List<CompletableFuture<NotificationResponse>> futures = new ArrayList<>();
+		for (int i = 0; i < count; i++) {
+			futures.add(scheduler.execute(attempt()));
+		}
+		return futures;
+	}
+	
+	/**
+	 * Waits until the condition holds
+	 */
+	private static void await(Supplier<Boolean> condition) throws InterruptedException {
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (!condition.get()) {
+			assertTrue(System.nanoTime() < deadline, "timed out");
+			Thread.sleep(5);
+		}
+	}
+	
+	@AfterEach
+	public void close() {
+		released.countDown();
+		if (scheduler != null) {
+			scheduler.close();
+		}
+	}
+	
+	@Test
+	public void blockedRetriesWaitInQueue() throws InterruptedException {
+		scheduler = new RetryScheduler(new RetryPolicy().setBaseDelay(1).setThreads(2));
+		final List<CompletableFuture<NotificationResponse>> futures = execute(10);
+		
+		await(() -> blocked.get() == 2 && scheduler.getQueued() == 8);
+		Thread.sleep(50);
+		assertEquals(2, blocked.get(), "only the retry threads block");
+		
+		released.countDown();
+		for (CompletableFuture<NotificationResponse> future:futures) {
+			final NotificationResponse response = future.orTimeout(5, TimeUnit.SECONDS).join();
+			assertTrue(response.isAccepted());
+			assertEquals(2, response.getAttempts());
+		}
+		assertEquals(10, blocked.get());
+	}
+	
+	/**
+	 * Asserts the future completed exceptionally with CancellationException
+	 */
+	private static void assertCancelled(CompletableFuture<NotificationResponse> future) {
+		assertThrows(CancellationException.class, () -> future.orTimeout(5, TimeUnit.SECONDS).join());
+	}
+	
+	@Test
+	public void closeCancelsQueuedRetries() throws InterruptedException {
+		scheduler = new RetryScheduler(new RetryPolicy().setBaseDelay(1).setThreads(1));
+		final List<CompletableFuture<NotificationResponse>> futures = execute(3);
+		await(() -> blocked.get() == 1 && scheduler.getQueued() == 2);
+		
+		scheduler.close();
+		
+		//the retry already sending completes with its own outcome
+		released.countDown();
+		int accepted = 0;
+		for (CompletableFuture<NotificationResponse> future:futures) {
+			if (future.isCompletedExceptionally()) {
+				assertCancelled(future);
+			} else {
+				assertTrue(future.orTimeout(5, TimeUnit.SECONDS).join().isAccepted());
+				accepted++;
+			}
+		}
+		assertEquals(1, accepted);
+		assertEquals(1, blocked.get());
+	}
+	
+	@Test
+	public void closeCancelsRetriesWaitingForDelay() {
+		scheduler = new RetryScheduler(new RetryPolicy().setBaseDelay(60 * 1000).setMaxDelay(60 * 1000));
+		final List<CompletableFuture<NotificationResponse>> futures = execute(3);
+		scheduler.close();
+		
+		for (CompletableFuture<NotificationResponse> future:futures) {
+			assertCancelled(future);
+		}
+		assertEquals(0, blocked.get());
+	}
+}
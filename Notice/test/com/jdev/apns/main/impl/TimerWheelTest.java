@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) [2018] [Seung Hwan, Jin]
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. 
+ */
+
+package com.jdev.apns.main.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for TimerWheel, mainly what close() does to tasks not yet due
+ * 
+ * @author seunghwanjin
+ */
+public class TimerWheelTest {
+	
+	@Test
+	public void runsTasksWhenDue() throws InterruptedException {
+		final CountDownLatch ran = new CountDownLatch(3);
+		try (TimerWheel wheel = new TimerWheel(10, TimeUnit.MILLISECONDS, 8, Runnable::run)) {
+			wheel.schedule(ran::countDown, 0, TimeUnit.MILLISECONDS);
+			wheel.schedule(ran::countDown, 30, TimeUnit.MILLISECONDS);
+			
+			//longer than one round of the wheel
+			wheel.schedule(ran::countDown, 200, TimeUnit.MILLISECONDS);
+			assertTrue(ran.await(5, TimeUnit.SECONDS));
+		}
+	}
+	
+	@Test
+	public void runsOnCloseForTasksNotYetDue() throws InterruptedException {
+		final AtomicInteger tasks = new AtomicInteger();
+		final AtomicInteger closed = new AtomicInteger();
+		final CountDownLatch due = new CountDownLatch(1);
+		
+		final TimerWheel wheel = new TimerWheel(10, TimeUnit.MILLISECONDS, 8, Runnable::run);
+		wheel.schedule(due::countDown, 0, TimeUnit.MILLISECONDS, closed::incrementAndGet);
+		assertTrue(due.await(5, TimeUnit.SECONDS));
+		
+		for (int i = 0; i < 10; i++) {
+			wheel.schedule(tasks::incrementAndGet, 10, TimeUnit.SECONDS, closed::incrementAndGet);
+		}
+		wheel.schedule(tasks::incrementAndGet, 10, TimeUnit.SECONDS);
+		wheel.close();
+		
+		//close() returns once every onClose has run
+		assertEquals(0, tasks.get());
+		assertEquals(10, closed.get());
+	}
+	
+	@Test
+	public void rejectsTasksAfterClose() {
+		final TimerWheel wheel = new TimerWheel(10, TimeUnit.MILLISECONDS, 8, Runnable::run);
+		wheel.close();
+		assertThrows(IllegalStateException.class, () -> wheel.schedule(() -> { }, 0, TimeUnit.MILLISECONDS));
+	}
+}
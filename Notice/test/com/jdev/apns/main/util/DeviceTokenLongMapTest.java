@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) [2018] [Seung Hwan, Jin]
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. 
+ */
+
+package com.jdev.apns.main.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.jdev.apns.main.DeviceToken;
+
+/**
+ * Tests for DeviceTokenLongMap against HashMap; values must follow
+ * their tokens when the table grows and entries shift back on removal
+ * 
+ * @author seunghwanjin
+ */
+public class DeviceTokenLongMapTest {
+	
+	@Test
+	public void keepsValuesWhileGrowing() {
+		final DeviceTokenLongMap map = new DeviceTokenLongMap();
+		final List<DeviceToken> tokens = DeviceTokens.random(20_000, 1);
+		for (int i = 0; i < tokens.size(); i++) {
+			assertTrue(map.put(tokens.get(i), i));
+		}
+		
+		assertEquals(tokens.size(), map.size());
+		for (int i = 0; i < tokens.size(); i++) {
+			assertEquals(i, map.get(tokens.get(i), -1), "token " + i);
+		}
+		assertEquals(-1, map.get(DeviceTokens.random(1, 2).get(0), -1));
+	}
+	
+	@Test
+	public void replacesAndAddsToValues() {
+		final DeviceTokenLongMap map = new DeviceTokenLongMap();
+		final DeviceToken token = DeviceTokens.random(1, 3).get(0);
+		
+		assertEquals(5, map.addTo(token, 5));
+		assertEquals(7, map.addTo(token, 2));
+		assertFalse(map.put(token, 100));
+		assertEquals(100, map.get(token, -1));
+		assertTrue(map.containsKey(token));
+		assertTrue(map.remove(token));
+		assertFalse(map.containsKey(token));
+		assertEquals(-1, map.get(token, -1));
+	}
+	
+	@Test
+	public void keepsValuesShiftedAcrossTableEnd() {
+		//chains starting near the last slot continue at slot 0
+		final int[] homes = {14, 15, 15, 15, 0, 0, 1, 15};
+		final Random random = new Random(6);
+		for (int round = 0; round < 200; round++) {
+			final DeviceTokenLongMap map = new DeviceTokenLongMap(homes.length);
+			assertEquals(16, map.capacity);
+			final List<DeviceToken> tokens = DeviceTokens.withHomes(map.capacity, homes, round);
+			final Map<DeviceToken, Long> expected = new HashMap<>();
+			for (int i = 0; i < tokens.size(); i++) {
+				map.put(tokens.get(i), i);
+				expected.put(tokens.get(i), (long) i);
+			}
+			
+			final List<DeviceToken> remaining = new ArrayList<>(tokens);
+			Collections.shuffle(remaining, random);
+			while (!remaining.isEmpty()) {
+				final DeviceToken removed = remaining.remove(remaining.size() - 1);
+				assertTrue(map.remove(removed));
+				expected.remove(removed);
+				for (DeviceToken token:remaining) {
+					assertEquals((long) expected.get(token), map.get(token, -1), "round " + round);
+				}
+			}
+			assertTrue(map.isEmpty());
+		}
+	}
+	
+	@Test
+	public void matchesHashMapUnderRandomOperations() {
+		final DeviceTokenLongMap map = new DeviceTokenLongMap();
+		final Map<DeviceToken, Long> expected = new HashMap<>();
+		final List<DeviceToken> tokens = DeviceTokens.random(2000, 4);
+		final Random random = new Random(5);
+		for (int i = 0; i < 100_000; i++) {
+			final DeviceToken token = tokens.get(random.nextInt(tokens.size()));
+			switch (random.nextInt(3)) {
+			case 0:
+				assertEquals(expected.put(token, (long) i) == null, map.put(token, i));
+				break;
+			case 1:
+				assertEquals((long) expected.merge(token, 3L, Long::sum), map.addTo(token, 3));
+				break;
+			default:
+				assertEquals(expected.remove(token) != null, map.remove(token));
+			}
+		}
+		
+		assertEquals(expected.size(), map.size());
+		final Map<DeviceToken, Long> visited = new HashMap<>();
+		map.forEach(visited::put);
+		assertEquals(expected, visited);
+	}
+	
+	@Test
+	public void keepsZeroAndOtherLengthTokens() {
+		final DeviceTokenLongMap map = new DeviceTokenLongMap();
+		final DeviceToken zero = DeviceToken.of(new byte[DeviceToken.LENGTH]);
+		final DeviceToken shorter = DeviceToken.of("abcd");
+		
+		map.put(zero, 1);
+		map.addTo(shorter, 2);
+		map.addTo(DeviceToken.of("ABCD"), 2);
+		
+		assertEquals(2, map.size());
+		assertEquals(1, map.get(zero, -1));
+		assertEquals(4, map.get(shorter, -1));
+		
+		map.clear();
+		assertTrue(map.isEmpty());
+		assertEquals(-1, map.get(zero, -1));
+	}
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) [2018] [Seung Hwan, Jin]
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. 
+ */
+
+package com.jdev.apns.main.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import com.jdev.apns.main.DeviceToken;
+
+/**
+ * Tests for DeviceTokenSet against HashSet, across growth and removal
+ * 
+ * @author seunghwanjin
+ */
+public class DeviceTokenSetTest {
+	
+	@Test
+	public void addsAndFindsTokensWhileGrowing() {
+		final DeviceTokenSet set = new DeviceTokenSet();
+		final List<DeviceToken> tokens = DeviceTokens.random(20_000, 1);
+		for (DeviceToken token:tokens) {
+			assertTrue(set.add(token));
+		}
+		
+		assertEquals(tokens.size(), set.size());
+		for (DeviceToken token:tokens) {
+			assertTrue(set.contains(token));
+			assertFalse(set.add(DeviceToken.of(token.toString())), "equal token is a duplicate");
+		}
+		for (DeviceToken token:DeviceTokens.random(1000, 2)) {
+			assertFalse(set.contains(token));
+		}
+	}
+	
+	@Test
+	public void keepsProbeChainsOnRemoval() {
+		final DeviceTokenSet set = new DeviceTokenSet(1000);
+		final List<DeviceToken> tokens = DeviceTokens.random(800, 3);
+		tokens.forEach(set::add);
+		
+		for (int i = 0; i < tokens.size(); i += 2) {
+			assertTrue(set.remove(tokens.get(i)));
+			assertFalse(set.remove(tokens.get(i)));
+		}
+		
+		assertEquals(tokens.size() / 2, set.size());
+		for (int i = 0; i < tokens.size(); i++) {
+			assertEquals(i % 2 == 1, set.contains(tokens.get(i)), "token " + i);
+		}
+	}
+	
+	@Test
+	public void keepsProbeChainsAcrossTableEnd() {
+		//chains starting near the last slot continue at slot 0
+		final int[] homes = {13, 14, 14, 15, 15, 15, 15, 0, 0, 1};
+		final Random random = new Random(6);
+		for (int round = 0; round < 200; round++) {
+			final DeviceTokenSet set = new DeviceTokenSet(homes.length);
+			assertEquals(16, set.capacity);
+			final List<DeviceToken> tokens = DeviceTokens.withHomes(set.capacity, homes, round);
+			tokens.forEach(set::add);
+			
+			final List<DeviceToken> remaining = new ArrayList<>(tokens);
+			Collections.shuffle(remaining, random);
+			while (!remaining.isEmpty()) {
+				final DeviceToken removed = remaining.remove(remaining.size() - 1);
+				assertTrue(set.remove(removed));
+				assertFalse(set.contains(removed));
+				for (DeviceToken token:remaining) {
+					assertTrue(set.contains(token), "round " + round);
+				}
+				assertEquals(remaining.size(), set.size());
+			}
+		}
+	}
+	
+	@Test
+	public void matchesHashSetUnderRandomOperations() {
+		final DeviceTokenSet set = new DeviceTokenSet();
+		final Set<DeviceToken> expected = new HashSet<>();
+		final List<DeviceToken> tokens = DeviceTokens.random(2000, 4);
+		final Random random = new Random(5);
+		for (int i = 0; i < 100_000; i++) {
+			final DeviceToken token = tokens.get(random.nextInt(tokens.size()));
+			if (random.nextBoolean()) {
+				assertEquals(expected.add(token), set.add(token));
+			} else {
+				assertEquals(expected.remove(token), set.remove(token));
+			}
+		}
+		
+		assertEquals(expected.size(), set.size());
+		final Set<DeviceToken> visited = new HashSet<>();
+		set.forEach(visited::add);
+		assertEquals(expected, visited);
+	}
+	
+	@Test
+	public void keepsZeroAndOtherLengthTokens() {
+		final DeviceTokenSet set = new DeviceTokenSet();
+		final DeviceToken zero = DeviceToken.of(new byte[DeviceToken.LENGTH]);
+		final DeviceToken longer = DeviceToken.of(new byte[64]);
+		final DeviceToken shorter = DeviceToken.of("abcd");
+		
+		assertTrue(set.add(zero));
+		assertTrue(set.add(longer));
+		assertTrue(set.add(shorter));
+		assertFalse(set.add(DeviceToken.of("ABCD")));
+		assertEquals(3, set.size());
+		assertTrue(set.contains(zero));
+		assertTrue(set.remove(longer));
+		assertFalse(set.contains(longer));
+		
+		set.clear();
+		assertTrue(set.isEmpty());
+		assertFalse(set.contains(zero));
+	}
+}
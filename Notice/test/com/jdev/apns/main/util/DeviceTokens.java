@@ -0,0 +1,79 @@
+/*
+ * Copyright (c) [2018] [Seung Hwan, Jin]
+
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+
+ * The above copyright notice and this permission notice shall be included in all
+ * copies or substantial portions of the Software.
+
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE. 
+ */
+
+package com.jdev.apns.main.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.jdev.apns.main.DeviceToken;
+
+/**
+ * Device tokens for the tests of DeviceTokenTable and its subclasses
+ * 
+ * @author seunghwanjin
+ */
+final class DeviceTokens {
+	
+	private DeviceTokens() {
+	}
+	
+	/**
+	 * @param count
+	 * @param seed
+	 * @return random 32-byte tokens
+	 */
+	static List<DeviceToken> random(int count, long seed) {
+		final Random random = new Random(seed);
+		final List<DeviceToken> tokens = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			tokens.add(next(random));
+		}
+		return tokens;
+	}
+	
+	/**
+	 * @param capacity number of slots of the table
+	 * @param homes slot each token's probe must start at
+	 * @param seed
+	 * @return one random 32-byte token per home, in the same order
+	 */
+	static List<DeviceToken> withHomes(int capacity, int[] homes, long seed) {
+		final Random random = new Random(seed);
+		final List<DeviceToken> tokens = new ArrayList<>(homes.length);
+		for (int home:homes) {
+			DeviceToken token;
+			do {
+				token = next(random);
+			} while (DeviceTokenTable.home(token.hashCode(), capacity) != home);
+			tokens.add(token);
+		}
+		return tokens;
+	}
+	
+	private static DeviceToken next(Random random) {
+		final byte[] bytes = new byte[DeviceToken.LENGTH];
+		random.nextBytes(bytes);
+		return DeviceToken.of(bytes);
+	}
+}